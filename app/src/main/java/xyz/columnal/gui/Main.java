@@ -53,6 +53,7 @@ import xyz.columnal.importers.TextImporter;
 import xyz.columnal.importers.manager.ImporterManager;
 import xyz.columnal.styled.StyledCSS;
 import xyz.columnal.styled.StyledString;
+import xyz.columnal.transformations.QueryPlan;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.adt.Pair;
@@ -233,6 +234,7 @@ public class Main extends Application
         ExporterManager.getInstance().registerExporter(new HTMLExporter());
         ExporterManager.getInstance().registerExporter(new ExcelExporter());
         ExporterManager.getInstance().registerExporter(new RExporter());
+        ExporterManager.getInstance().registerPlanner(table -> QueryPlan.plan(table).execute());
         Log.normal("Registered exporters");
     }
 
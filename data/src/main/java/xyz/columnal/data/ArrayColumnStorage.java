@@ -36,6 +36,7 @@ import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.ListEx;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -49,13 +50,34 @@ import java.util.stream.Stream;
  *    of the item, not the full item, which might be cached elsewhere (e.g. if this storage
  *    is the result of a sort, no point duplicating the array).
  *
- * Thus the storage is just a list of DataTypeValue, i.e. accessors of the array content.
+ * Lists which are already in memory (see ListEx.isInMemory, e.g. a literal list or the
+ * result of splitting a text) are the exception: their items are copied into a single typed
+ * storage of all the items, and each row just records where its items start and how many
+ * there are.  The row's list is then a view of that part of the items storage.  The items
+ * storage is only ever added to, so that a view stays correct after rows are edited,
+ * inserted or removed.  Once most of its items are no longer used by any row, the used
+ * items are copied into a new items storage; views already made keep the old one.
+ * Any other list is stored as-is, to avoid fetching (or duplicating) its content.
  */
 public class ArrayColumnStorage extends SparseErrorColumnStorage<ListEx> implements ColumnStorage<ListEx>
 {
-    // We are a column storage.  Each element here is one row, which is also
-    // a list because it is an array.  We are a list of lists (column of arrays)
-    private final ArrayList<@Value ListEx> storage = new ArrayList<>();
+    // Don't bother compacting until at least this many items are unused:
+    private static final int MIN_UNUSED_TO_COMPACT = 1024;
+
+    private final DataType innerType;
+    private final boolean isImmediateData;
+    // All the items of the flattened rows, end to end, and their values:
+    private ColumnStorage<?> allItems;
+    private DataTypeValue allItemsType;
+    // The total length of the flattened rows; the rest of allItems is unused:
+    private int usedItems;
+    // For each row, where its items start in the items storage, and how many
+    // there are.  A length of -1 means the row is not flattened, and is in unflattened.
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    // Only made once we need it; same size as starts, null where the row is flattened:
+    private @Nullable @Value ListEx @Nullable [] unflattened;
+    private int rowCount;
     @OnThread(Tag.Any)
     private final DataTypeValue type;
 
@@ -63,13 +85,16 @@ public class ArrayColumnStorage extends SparseErrorColumnStorage<ListEx> impleme
     public ArrayColumnStorage(DataType innerToCopy, @Nullable BeforeGet<ArrayColumnStorage> beforeGet, boolean isImmediateData) throws InternalException
     {
         super(isImmediateData);
-        DataType innerFinal = innerToCopy;
+        this.innerType = innerToCopy;
+        this.isImmediateData = isImmediateData;
+        this.allItems = ColumnUtility.makeColumnStorage(innerToCopy, null, isImmediateData);
+        this.allItemsType = allItems.getType();
         this.type = DataTypeValue.array(innerToCopy, new GetValueOrError<@Value ListEx>()
         {
             @Override
             public @Value ListEx _getWithProgress(int i, @Nullable ProgressListener prog) throws UserException, InternalException
             {
-                return storage.get(i);
+                return getRow(i);
             }
 
             @Override
@@ -82,15 +107,139 @@ public class ArrayColumnStorage extends SparseErrorColumnStorage<ListEx> impleme
             @Override
             public void _set(int index, @Nullable @Value ListEx v) throws InternalException, UserException
             {
-                storage.set(index, v == null ? ListEx.empty() : v);
+                if (index < 0 || index >= rowCount)
+                    throw new InternalException("Setting row " + index + " beyond end of array column: " + rowCount);
+                storeRow(index, v == null ? ListEx.empty() : v);
+                compactIfMostlyUnused();
             }
         });
     }
 
+    private @Value ListEx getRow(int row) throws InternalException
+    {
+        if (row < 0 || row >= rowCount)
+            throw new InternalException("Fetching row " + row + " beyond end of array column: " + rowCount);
+        if (lengths[row] < 0 && unflattened != null)
+        {
+            @Nullable @Value ListEx list = unflattened[row];
+            if (list != null)
+                return list;
+        }
+        return DataTypeUtility.value(new ItemsSlice(allItemsType, starts[row], Math.max(0, lengths[row])));
+    }
+
+    // Stores the list as the given row, which must already exist.
+    private void storeRow(int row, @Value ListEx list) throws InternalException
+    {
+        if (lengths[row] > 0)
+            usedItems -= lengths[row];
+        
+        if (list instanceof ItemsSlice && ((ItemsSlice) list).items == allItemsType)
+        {
+            // Already in our items, e.g. because of an undo, so no need to copy:
+            starts[row] = ((ItemsSlice) list).start;
+            lengths[row] = ((ItemsSlice) list).length;
+            usedItems += lengths[row];
+            clearUnflattened(row);
+            return;
+        }
+        
+        if (list.isInMemory())
+        {
+            try
+            {
+                int size = list.size();
+                List<Either<String, Object>> toAdd = new ArrayList<>(size);
+                for (int i = 0; i < size; i++)
+                {
+                    toAdd.add(Either.<String, Object>right(list.get(i)));
+                }
+                starts[row] = allItems.filled();
+                lengths[row] = size;
+                usedItems += size;
+                addItems(toAdd);
+                clearUnflattened(row);
+                return;
+            }
+            catch (UserException e)
+            {
+                // Shouldn't happen for an in-memory list, but if it does, just store it as-is:
+            }
+        }
+        
+        if (unflattened == null)
+            unflattened = new @Nullable @Value ListEx[starts.length];
+        unflattened[row] = list;
+        starts[row] = 0;
+        lengths[row] = -1;
+    }
+
+    @SuppressWarnings({"unchecked", "all"})
+    private void addItems(List<Either<String, Object>> toAdd) throws InternalException
+    {
+        ((ColumnStorage)allItems).addAll(toAdd.stream());
+    }
+
+    // If most of the items storage is unused, because the rows using it have been
+    // edited or removed, copies the used items into a new items storage.
+    // The old items storage is left as it is, for any views of it.
+    @SuppressWarnings({"unchecked", "all"})
+    private void compactIfMostlyUnused() throws InternalException
+    {
+        int unused = allItems.filled() - usedItems;
+        if (unused < MIN_UNUSED_TO_COMPACT || unused <= usedItems)
+            return;
+        ColumnStorage<?> compacted = ColumnUtility.makeColumnStorage(innerType, null, isImmediateData);
+        for (int row = 0; row < rowCount; row++)
+        {
+            if (lengths[row] > 0)
+            {
+                List<Either<String, Object>> items = (List)allItems.getAllCollapsed(starts[row], starts[row] + lengths[row]);
+                starts[row] = compacted.filled();
+                ((ColumnStorage)compacted).addAll(items.stream());
+            }
+            else if (lengths[row] == 0)
+            {
+                starts[row] = compacted.filled();
+            }
+        }
+        allItems = compacted;
+        allItemsType = compacted.getType();
+    }
+    
+    private void clearUnflattened(int row)
+    {
+        if (unflattened != null)
+            unflattened[row] = null;
+    }
+    
+    // Makes space for count rows at index, moving the later rows along.
+    // The new rows are left empty and unflattened, and must be stored.
+    private void openRows(int index, int count)
+    {
+        if (rowCount + count > starts.length)
+        {
+            int newCapacity = Math.max(starts.length * 2, rowCount + count);
+            starts = Arrays.copyOf(starts, newCapacity);
+            lengths = Arrays.copyOf(lengths, newCapacity);
+            if (unflattened != null)
+                unflattened = Arrays.copyOf(unflattened, newCapacity);
+        }
+        System.arraycopy(starts, index, starts, index + count, rowCount - index);
+        System.arraycopy(lengths, index, lengths, index + count, rowCount - index);
+        Arrays.fill(lengths, index, index + count, -1);
+        if (unflattened != null)
+        {
+            System.arraycopy(unflattened, index, unflattened, index + count, rowCount - index);
+            Arrays.fill(unflattened, index, index + count, null);
+        }
+        rowCount += count;
+    }
+
     @Override
     public int filled()
     {
-        return storage.size();
+        return rowCount;
     }
 /*
     public List<Object> get(int index) throws InternalException, UserException
@@ -103,8 +252,10 @@ public class ArrayColumnStorage extends SparseErrorColumnStorage<ListEx> impleme
     {
         for (Either<String, ListEx> item : Utility.iterableStream(items))
         {
-            storage.add(DataTypeUtility.value(item.<ListEx>either(err -> {
-                setError(storage.size(), err);
+            int row = rowCount;
+            openRows(row, 1);
+            storeRow(row, DataTypeUtility.value(item.<ListEx>either(err -> {
+                setError(row, err);
                 return ListEx.empty();
             }, l -> l)));
         }
@@ -120,13 +271,13 @@ public class ArrayColumnStorage extends SparseErrorColumnStorage<ListEx> impleme
     @Override
     public SimulationRunnable _insertRows(int index, List<@Nullable ListEx> items) throws InternalException
     {
-        storage.ensureCapacity(storage.size() + items.size());
+        openRows(index, items.size());
         int curIndex = index;
         for (ListEx item : items)
         {
             if (item == null)
                 item = ListEx.empty();
-            storage.add(curIndex, DataTypeUtility.value(item));
+            storeRow(curIndex, DataTypeUtility.value(item));
             curIndex += 1;
         }
         int count = items.size();
@@ -136,8 +287,70 @@ public class ArrayColumnStorage extends SparseErrorColumnStorage<ListEx> impleme
     @Override
     public SimulationRunnable _removeRows(int index, int count) throws InternalException
     {
-        List<@Value ListEx> old = new ArrayList<>(storage.subList(index, index + count));
-        storage.subList(index, index + count).clear();
-        return () -> storage.addAll(index, old);
+        // Items stay where they are in allItems, so the old rows can be put back as views:
+        List<@Value ListEx> old = new ArrayList<>(count);
+        for (int i = index; i < index + count; i++)
+        {
+            old.add(getRow(i));
+            if (lengths[i] > 0)
+                usedItems -= lengths[i];
+        }
+        System.arraycopy(starts, index + count, starts, index, rowCount - index - count);
+        System.arraycopy(lengths, index + count, lengths, index, rowCount - index - count);
+        if (unflattened != null)
+        {
+            System.arraycopy(unflattened, index + count, unflattened, index, rowCount - index - count);
+            Arrays.fill(unflattened, rowCount - count, rowCount, null);
+        }
+        rowCount -= count;
+        compactIfMostlyUnused();
+        return () -> _insertRows(index, new ArrayList<@Nullable ListEx>(old));
+    }
+
+    /**
+     * A list which is a view of some consecutive items in an items storage.
+     */
+    private static final class ItemsSlice extends ListEx
+    {
+        // The values of the items storage at the time the view was made.  That storage is
+        // never changed, even if we have since moved on to a compacted one:
+        private final DataTypeValue items;
+        private final int start;
+        private final int length;
+
+        private ItemsSlice(DataTypeValue items, int start, int length)
+        {
+            this.items = items;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int size() throws InternalException, UserException
+        {
+            return length;
+        }
+
+        @Override
+        public @Value Object get(int index) throws InternalException, UserException
+        {
+            if (index < 0 || index >= length)
+                throw new InternalException("Accessing element " + index + " of list of size " + length);
+            return items.getCollapsed(start + index);
+        }
+
+        @Override
+        public boolean getLongs(int fromIncl, int toExcl, long[] dest) throws InternalException, UserException
+        {
+            if (fromIncl < 0 || toExcl > length)
+                return false;
+            return items.getLongs(start + fromIncl, start + toExcl, dest);
+        }
+
+        @Override
+        public boolean isInMemory()
+        {
+            return true;
+        }
     }
 }
@@ -90,4 +90,12 @@ public class CachedCalculatedColumn<T, S extends ColumnStorage<T>> extends Calcu
     {
         return AlteredState.OVERWRITTEN;
     }
+
+    // Once calculated, values are only read back from the cache:
+    @Override
+    @OnThread(Tag.Any)
+    public boolean isIndexAligned()
+    {
+        return true;
+    }
 }
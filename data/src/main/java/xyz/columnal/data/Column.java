@@ -69,6 +69,9 @@ public abstract class Column
 {
     protected final RecordSet recordSet;
     private final ColumnId name;
+    // Statistics of our values, and the DataTypeValue edit version when they were calculated:
+    private @Nullable ColumnStatistics statistics;
+    private long statisticsEditVersion;
 
     protected Column(RecordSet recordSet, ColumnId name)
     {
@@ -102,6 +105,25 @@ public abstract class Column
     {
         return recordSet.getLength();
     }
+
+    /**
+     * Gets statistics of the values in this column.  The first call fetches every
+     * value (calculating them if needed); after that, the statistics are kept until
+     * the data this column reads from is edited.  Columns backed by storage override this to keep
+     * their statistics up to date as rows are added.
+     */
+    public ColumnStatistics getStatistics() throws InternalException, UserException
+    {
+        long editVersion = getType().getEditVersion();
+        int length = getLength();
+        @Nullable ColumnStatistics cached = statistics;
+        if (cached != null && statisticsEditVersion == editVersion && cached.getRowCount() == length)
+            return cached;
+        ColumnStatistics calculated = ColumnStatistics.calculate(getType(), length);
+        statistics = calculated;
+        statisticsEditVersion = editVersion;
+        return calculated;
+    }
     
     @OnThread(Tag.Any)
     public static class EditableStatus
@@ -177,6 +199,19 @@ public abstract class Column
     @OnThread(Tag.Any)
     public abstract AlteredState getAlteredState();
 
+    /**
+     * Does fetching row i of this column only read (and if needed, calculate in order
+     * from the start) this column's own storage?  If so, once row i has been fetched on
+     * the simulation thread, rows up to i can be read from other threads.  Columns which
+     * map rows through other lazily built state (e.g. the index map of a sort or join,
+     * or the source tables of a concatenation) are not.
+     */
+    @OnThread(Tag.Any)
+    public boolean isIndexAligned()
+    {
+        return false;
+    }
+
     public final RecordSet getRecordSet()
     {
         return recordSet;
@@ -0,0 +1,257 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package xyz.columnal.data;
+
+import annotation.qual.Value;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.SortKeys;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+
+import java.util.Arrays;
+
+/**
+ * Summary statistics of the values in a column: the number of rows and errors,
+ * the smallest and largest values, an estimate of the number of distinct values,
+ * and whether the values are in ascending order.  Errors are counted but otherwise
+ * ignored, so e.g. a column is sorted if all its non-error values are in ascending order.
+ *
+ * Values are compared via their SortKeys encoding, which orders them the same
+ * as Utility.compareValues.  The distinct count is a HyperLogLog estimate, which
+ * is usually within a few percent, and exact for columns with no or one distinct value.
+ *
+ * Instances are immutable; see Column.getStatistics.
+ */
+@OnThread(Tag.Any)
+public final class ColumnStatistics
+{
+    private final int rowCount;
+    private final int errorCount;
+    private final @Nullable @Value Object min;
+    private final @Nullable @Value Object max;
+    private final long distinctEstimate;
+    private final boolean sorted;
+
+    private ColumnStatistics(int rowCount, int errorCount, @Nullable @Value Object min, @Nullable @Value Object max, long distinctEstimate, boolean sorted)
+    {
+        this.rowCount = rowCount;
+        this.errorCount = errorCount;
+        this.min = min;
+        this.max = max;
+        this.distinctEstimate = distinctEstimate;
+        this.sorted = sorted;
+    }
+
+    // The number of rows, including errors:
+    public int getRowCount()
+    {
+        return rowCount;
+    }
+
+    public int getErrorCount()
+    {
+        return errorCount;
+    }
+
+    // The smallest non-error value, or null if there are none:
+    public @Nullable @Value Object getMin()
+    {
+        return min;
+    }
+
+    // The largest non-error value, or null if there are none:
+    public @Nullable @Value Object getMax()
+    {
+        return max;
+    }
+
+    // The approximate number of distinct non-error values:
+    public long getDistinctEstimate()
+    {
+        return distinctEstimate;
+    }
+
+    // True if each non-error value is greater than or equal to the one before:
+    public boolean isSortedAscending()
+    {
+        return sorted;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ColumnStatistics{rows=" + rowCount + ", errors=" + errorCount + ", min=" + min + ", max=" + max + ", distinct~" + distinctEstimate + ", sorted=" + sorted + "}";
+    }
+
+    /**
+     * Calculates the statistics of the values of rows [0, length) by fetching each in turn.
+     */
+    @OnThread(Tag.Simulation)
+    public static ColumnStatistics calculate(DataTypeValue values, int length) throws InternalException, UserException
+    {
+        Accumulator accumulator = new Accumulator(values.getType());
+        for (int i = 0; i < length; i++)
+        {
+            @Value Object value;
+            try
+            {
+                value = values.getCollapsed(i);
+            }
+            catch (UserException e)
+            {
+                accumulator.addError();
+                continue;
+            }
+            accumulator.addValue(value);
+        }
+        return accumulator.getStatistics();
+    }
+
+    /**
+     * Accumulates statistics for values added in row order.  Adding is cheap, so storages
+     * can keep one up to date as rows are appended.  It cannot remove values, so after any
+     * other change it must be discarded and the statistics calculated again.
+     */
+    @OnThread(Tag.Simulation)
+    static final class Accumulator
+    {
+        // HyperLogLog with 2^12 registers, for a standard error of about 1.6%:
+        private static final int REGISTER_BITS = 12;
+        private static final int REGISTERS = 1 << REGISTER_BITS;
+
+        private final SortKeys.Encoder encoder;
+        private int rowCount;
+        private int errorCount;
+        private @Nullable @Value Object min;
+        private byte @Nullable [] minKey;
+        private @Nullable @Value Object max;
+        private byte @Nullable [] maxKey;
+        private byte @Nullable [] lastKey;
+        private boolean sorted = true;
+        // Only made when the first value is added:
+        private byte @Nullable [] registers;
+        // Cached result of getStatistics, until the next add:
+        private @Nullable ColumnStatistics statistics;
+
+        Accumulator(DataType type) throws InternalException
+        {
+            this.encoder = SortKeys.encoder(type, false);
+        }
+
+        // The number of rows added so far:
+        int getRowCount()
+        {
+            return rowCount;
+        }
+
+        void addError()
+        {
+            rowCount += 1;
+            errorCount += 1;
+            statistics = null;
+        }
+
+        void addValue(@Value Object value) throws InternalException, UserException
+        {
+            byte[] key = encoder.encode(value);
+            rowCount += 1;
+            statistics = null;
+            if (minKey == null || Arrays.compareUnsigned(key, minKey) < 0)
+            {
+                minKey = key;
+                min = value;
+            }
+            if (maxKey == null || Arrays.compareUnsigned(key, maxKey) > 0)
+            {
+                maxKey = key;
+                max = value;
+            }
+            if (lastKey != null && Arrays.compareUnsigned(lastKey, key) > 0)
+                sorted = false;
+            lastKey = key;
+
+            byte[] regs = registers;
+            if (regs == null)
+                registers = regs = new byte[REGISTERS];
+            long hash = hash(key);
+            int register = (int)(hash >>> (64 - REGISTER_BITS));
+            // The position of the first one bit in the rest of the hash:
+            byte rank = (byte)Math.min(64 - REGISTER_BITS + 1, Long.numberOfLeadingZeros(hash << REGISTER_BITS) + 1);
+            if (rank > regs[register])
+                regs[register] = rank;
+        }
+
+        ColumnStatistics getStatistics()
+        {
+            @Nullable ColumnStatistics stats = statistics;
+            if (stats == null)
+                statistics = stats = new ColumnStatistics(rowCount, errorCount, min, max, estimateDistinct(), sorted);
+            return stats;
+        }
+
+        private long estimateDistinct()
+        {
+            byte[] regs = registers;
+            if (regs == null)
+                return 0;
+            // If all values are the same, we know exactly:
+            if (minKey != null && maxKey != null && Arrays.equals(minKey, maxKey))
+                return 1;
+            double sum = 0;
+            int zeroRegisters = 0;
+            for (byte rank : regs)
+            {
+                sum += Math.scalb(1.0, -rank);
+                if (rank == 0)
+                    zeroRegisters += 1;
+            }
+            double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+            double estimate = alpha * REGISTERS * REGISTERS / sum;
+            // For small counts, linear counting of empty registers is more accurate:
+            if (estimate <= 2.5 * REGISTERS && zeroRegisters > 0)
+                estimate = REGISTERS * Math.log((double)REGISTERS / zeroRegisters);
+            // Can't be more distinct values than values:
+            return Math.max(1, Math.min(rowCount - errorCount, Math.round(estimate)));
+        }
+
+        // A 64-bit hash of the key: FNV-1a, then mixed so that all bits depend on all bytes:
+        private static long hash(byte[] key)
+        {
+            long h = 0xcbf29ce484222325L;
+            for (byte b : key)
+            {
+                h ^= b & 0xFF;
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
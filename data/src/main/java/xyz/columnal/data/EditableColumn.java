@@ -62,4 +62,12 @@ public abstract class EditableColumn extends Column
         // If we're editable, we must be new:
         return AlteredState.OVERWRITTEN;
     }
+
+    // Values are read straight from storage:
+    @Override
+    @OnThread(Tag.Any)
+    public boolean isIndexAligned()
+    {
+        return true;
+    }
 }
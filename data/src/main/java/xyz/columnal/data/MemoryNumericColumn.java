@@ -79,6 +79,12 @@ public class MemoryNumericColumn extends EditableColumn
         return storage.getType();
     }
 
+    @Override
+    public ColumnStatistics getStatistics() throws InternalException
+    {
+        return storage.getStatistics();
+    }
+
     @Override
     public Column _test_shrink(RecordSet rs, int shrunkLength) throws InternalException, UserException
     {
@@ -63,6 +63,12 @@ public class MemoryStringColumn extends EditableColumn
         return storage.getType();
     }
 
+    @Override
+    public ColumnStatistics getStatistics() throws InternalException
+    {
+        return storage.getStatistics();
+    }
+
     @Override
     public Column _test_shrink(RecordSet rs, int shrunkLength) throws InternalException, UserException
     {
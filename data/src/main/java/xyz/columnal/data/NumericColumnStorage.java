@@ -31,6 +31,7 @@ import xyz.columnal.data.datatype.ProgressListener;;
 import xyz.columnal.data.datatype.NumberInfo;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.GetLongs;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import threadchecker.OnThread;
@@ -473,39 +474,86 @@ public class NumericColumnStorage extends SparseErrorColumnStorage<Number> imple
         */
         if (dataType == null)
         {
-            dataType = DataTypeValue.number(displayInfo, new GetValueOrError<@Value Number>()
-            {
-                @Override
-                protected @OnThread(Tag.Simulation) void _beforeGet(int index, @Nullable ProgressListener progressListener) throws UserException, InternalException
-                {
-                    if (beforeGet != null)
-                        beforeGet.beforeGet(NumericColumnStorage.this, index, progressListener);
-                }
+            dataType = DataTypeValue.number(displayInfo, new GetNumber());
+        }
+        return dataType;
+    }
+    
+    private class GetNumber extends GetValueOrError<@Value Number> implements GetLongs
+    {
+        @Override
+        protected @OnThread(Tag.Simulation) void _beforeGet(int index, @Nullable ProgressListener progressListener) throws UserException, InternalException
+        {
+            if (beforeGet != null)
+                beforeGet.beforeGet(NumericColumnStorage.this, index, progressListener);
+        }
 
-                @Override
-                public @Value Number _getWithProgress(int i, @Nullable ProgressListener prog) throws UserException, InternalException
-                {
-                    return NumericColumnStorage.this.getNonBlank(i, prog);
-                }
+        @Override
+        public @Value Number _getWithProgress(int i, @Nullable ProgressListener prog) throws UserException, InternalException
+        {
+            return NumericColumnStorage.this.getNonBlank(i, prog);
+        }
 
-                @Override
-                public @OnThread(Tag.Simulation) void _set(int index, @Nullable @Value Number value) throws InternalException, UserException
+        @Override
+        public @OnThread(Tag.Simulation) void _set(int index, @Nullable @Value Number value) throws InternalException, UserException
+        {
+            if (value == null)
+                value = DataTypeUtility.value(0);
+            
+            if (index == filled)
+            {
+                NumericColumnStorage.this.set(OptionalInt.empty(), value);
+            }
+            else
+            {
+                NumericColumnStorage.this.set(OptionalInt.of(index), value);
+            }
+        }
+
+        @Override
+        @OnThread(Tag.Simulation)
+        public boolean getLongs(int fromIncl, int toExcl, long[] dest) throws UserException, InternalException
+        {
+            if (fromIncl >= toExcl)
+                return true;
+            // Make sure everything is loaded/calculated:
+            _beforeGet(toExcl - 1, null);
+            checkRange(fromIncl);
+            checkRange(toExcl - 1);
+            // Let the individual fetch deal with any errors:
+            if (hasErrorInRange(fromIncl, toExcl))
+                return false;
+            
+            int count = toExcl - fromIncl;
+            if (bytes != null)
+            {
+                for (int i = 0; i < count; i++)
+                    dest[i] = bytes[fromIncl + i];
+            }
+            else if (shorts != null)
+            {
+                for (int i = 0; i < count; i++)
+                    dest[i] = shorts[fromIncl + i];
+            }
+            else if (ints != null)
+            {
+                for (int i = 0; i < count; i++)
+                    dest[i] = ints[fromIncl + i];
+            }
+            else if (longs != null)
+            {
+                for (int i = 0; i < count; i++)
                 {
-                    if (value == null)
-                        value = DataTypeUtility.value(0);
-                    
-                    if (index == filled)
-                    {
-                        NumericColumnStorage.this.set(OptionalInt.empty(), value);
-                    }
-                    else
-                    {
-                        NumericColumnStorage.this.set(OptionalInt.of(index), value);
-                    }
+                    long l = longs[fromIncl + i];
+                    if (l == SEE_BIGDEC)
+                        return false;
+                    dest[i] = l;
                 }
-            });
+            }
+            else
+                return false;
+            return true;
         }
-        return dataType;
     }
 
     @Override
@@ -562,6 +610,8 @@ public class NumericColumnStorage extends SparseErrorColumnStorage<Number> imple
     // public for testing
     public void set(OptionalInt index, Number n) throws InternalException
     {
+        if (index.isPresent())
+            invalidateStatistics();
         try
         {
             if (n instanceof BigDecimal)
@@ -622,6 +672,8 @@ public class NumericColumnStorage extends SparseErrorColumnStorage<Number> imple
     public void addAll(int insertAtIndex, Stream<Number> newNumbers) throws InternalException
     {
         int originalLength = this.filled;
+        if (insertAtIndex < originalLength)
+            invalidateStatistics();
         // First, add them on the end:
         int newNumbersSize = _addAll(newNumbers.map(x -> Either.<String, Number>right(x)));
         // Now, swap existing numbers and new numbers:
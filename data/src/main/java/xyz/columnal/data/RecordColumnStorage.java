@@ -22,11 +22,13 @@ package xyz.columnal.data;
 
 import annotation.identifier.qual.ExpressionIdentifier;
 import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.data.datatype.DataTypeValue.GetRecordFields;
 import xyz.columnal.data.datatype.DataTypeValue.GetValue;
 import xyz.columnal.data.datatype.ProgressListener;
 import xyz.columnal.error.InternalException;
@@ -38,10 +40,12 @@ import xyz.columnal.utility.function.simulation.SimulationRunnable;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.Record;
 import xyz.columnal.utility.Utility.RecordMap;
+import xyz.columnal.utility.Utility.RecordShape;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.stream.Stream;
 
 /**
@@ -51,6 +55,9 @@ public class RecordColumnStorage extends SparseErrorColumnStorage<@Value Record>
 {
     // A record like {a: Text, b: Number} is stored in two column storages, one for all the a values, one for all the b
     private final ImmutableMap<@ExpressionIdentifier String, ColumnStorage<?>> storage;
+    // The shape of all our records, and the storages again in slot order:
+    private final RecordShape shape;
+    private final ImmutableList<ColumnStorage<?>> slotStorage;
     @OnThread(Tag.Any)
     private final DataTypeValue type;
 
@@ -68,38 +75,54 @@ public class RecordColumnStorage extends SparseErrorColumnStorage<@Value Record>
             builder.put(field.getKey(), ColumnUtility.makeColumnStorage(field.getValue(), beforeGet, isImmediateData));
         }
         storage = builder.build();
-        type = DataTypeValue.record(Utility.<@ExpressionIdentifier String, ColumnStorage<?>, DataType>mapValues(storage, s -> s.getType().getType()), new GetValue<@Value Record>()
+        // Records are made with their values in slot order, so we keep the storages in that order too:
+        shape = RecordShape.of(storage.keySet());
+        slotStorage = Utility.mapListI(shape.getFieldNames(), f -> Objects.requireNonNull(storage.get(f)));
+        type = DataTypeValue.record(Utility.<@ExpressionIdentifier String, ColumnStorage<?>, DataType>mapValues(storage, s -> s.getType().getType()), new RecordGetValue());
+    }
+
+    // Not a lambda or anonymous class because it implements two interfaces:
+    private class RecordGetValue implements GetValue<@Value Record>, GetRecordFields
+    {
+        @Override
+        @OnThread(Tag.Simulation)
+        public @Value Record getWithProgress(int index, @Nullable ProgressListener progressListener) throws UserException, InternalException
         {
-            @Override
-            @OnThread(Tag.Simulation)
-            public @Value Record getWithProgress(int index, @Nullable ProgressListener progressListener) throws UserException, InternalException
+            @Value Object[] values = new @Value Object[slotStorage.size()];
+            for (int i = 0; i < values.length; i++)
             {
-                ImmutableMap.Builder<@ExpressionIdentifier String, @Value Object> record = ImmutableMap.builderWithExpectedSize(fields.size());
+                values[i] = slotStorage.get(i).getType().getCollapsed(index);
+            }
+            return DataTypeUtility.value(new RecordMap(shape, values));
+        }
+
+        @Override
+        @OnThread(Tag.Any)
+        public @Nullable DataTypeValue getFieldValues(@ExpressionIdentifier String fieldName)
+        {
+            ColumnStorage<?> fieldStorage = storage.get(fieldName);
+            return fieldStorage == null ? null : fieldStorage.getType();
+        }
+
+        @Override
+        public @OnThread(Tag.Simulation) void set(int index, Either<String, @Value Record> value) throws InternalException, UserException
+        {
+            invalidateStatistics();
+            value.eitherEx_(err -> {
+                setError(index, err);
+                for (ColumnStorage<?> columnStorage : storage.values())
+                {
+                    columnStorage.getType().setCollapsed(index, Either.left(err));
+                }
+            }, record -> {
+                unsetError(index);
                 for (Entry<@ExpressionIdentifier String, ColumnStorage<?>> entry : storage.entrySet())
                 {
-                    record.put(entry.getKey(), entry.getValue().getType().getCollapsed(index));
+                    entry.getValue().getType().setCollapsed(index, Either.right(record.getField(entry.getKey())));
                 }
-                return DataTypeUtility.value(new RecordMap(record.build()));
-            }
-
-            @Override
-            public @OnThread(Tag.Simulation) void set(int index, Either<String, @Value Record> value) throws InternalException, UserException
-            {
-                value.eitherEx_(err -> {
-                    setError(index, err);
-                    for (ColumnStorage<?> columnStorage : storage.values())
-                    {
-                        columnStorage.getType().setCollapsed(index, Either.left(err));
-                    }
-                }, record -> {
-                    unsetError(index);
-                    for (Entry<@ExpressionIdentifier String, ColumnStorage<?>> entry : storage.entrySet())
-                    {
-                        entry.getValue().getType().setCollapsed(index, Either.right(record.getField(entry.getKey())));
-                    }
-                });
-            }
-        });
+            });
+            getType().dataEdited();
+        }
     }
 
     @Override
@@ -161,10 +184,13 @@ public class RecordColumnStorage extends SparseErrorColumnStorage<@Value Record>
                 
                 // Note: can't use mapList here as it contains nulls
                 ArrayList<Either<String, Object>> r = new ArrayList<>();
-                for (@Nullable Record item : items)
+                for (int i = 0; i < items.size(); i++)
                 {
+                    @Nullable Record item = items.get(i);
+                    // Null items are errors, which insertRows has already recorded for us.
+                    // The fields get the same error, as their values can be fetched directly:
                     if (item == null)
-                        r.add(Either.<String, Object>left(""));
+                        r.add(Either.<String, Object>left(Objects.requireNonNullElse(getError(index + i), "")));
                     else
                         r.add(Either.<String, Object>right(item.getField(entry.getKey())));
                 }
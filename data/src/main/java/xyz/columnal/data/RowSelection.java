@@ -0,0 +1,486 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.data;
+
+import xyz.columnal.error.InternalException;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A set of row indexes, which must be added in increasing order, that can find the
+ * n-th row in the set (select) and the position of a row in the set (rank).
+ * 
+ * Rows are split into chunks of 65536 by their upper bits, as in Roaring bitmaps.
+ * Each chunk is stored in whichever is smallest of: a sorted array of the rows,
+ * a bitmap of the rows, or a list of runs of consecutive rows.  The chunk currently
+ * being added to is kept as a bitmap until a row is added beyond it.  So a sparse
+ * selection costs about two bytes per row, a dense one about one bit per row, and
+ * a clustered one a few bytes per run of rows.
+ * 
+ * Reading is safe from multiple threads at once, as long as nothing is being added.
+ */
+@OnThread(Tag.Any)
+public final class RowSelection
+{
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    
+    // The finished chunks, in order:
+    private final ArrayList<Container> sealed = new ArrayList<>();
+    // Upper bits of each finished chunk:
+    private int[] sealedKeys = new int[4];
+    // Number of rows in all the finished chunks before this one:
+    private int[] sealedCountBefore = new int[4];
+    private int sealedTotal = 0;
+    
+    // The chunk being added to (empty if nothing added yet):
+    private BitmapContainer current = new BitmapContainer();
+    private int currentKey = -1;
+    
+    private int lastAdded = -1;
+    // The sealed chunk used by the last select, as the next is likely to be in the same one:
+    private int lastSelectChunk = 0;
+
+    /**
+     * Adds a row, which must be greater than all rows added so far.
+     */
+    public void add(int row) throws InternalException
+    {
+        if (row <= lastAdded)
+            throw new InternalException("Rows added out of order: " + row + " after " + lastAdded);
+        int key = row >>> CHUNK_BITS;
+        if (key != currentKey)
+        {
+            seal();
+            currentKey = key;
+        }
+        current.add(row & CHUNK_MASK);
+        lastAdded = row;
+    }
+    
+    // Moves the current chunk to the sealed chunks, in its most compact form.
+    private void seal()
+    {
+        if (current.cardinality() == 0)
+            return;
+        int index = sealed.size();
+        if (index == sealedKeys.length)
+        {
+            sealedKeys = Arrays.copyOf(sealedKeys, index * 2);
+            sealedCountBefore = Arrays.copyOf(sealedCountBefore, index * 2);
+        }
+        sealedKeys[index] = currentKey;
+        sealedCountBefore[index] = sealedTotal;
+        sealed.add(current.compact());
+        sealedTotal += current.cardinality();
+        current = new BitmapContainer();
+    }
+
+    /**
+     * The number of rows in the set.
+     */
+    public int size()
+    {
+        return sealedTotal + current.cardinality();
+    }
+
+    /**
+     * Gets the row at the given position in the set, i.e. the index-th smallest row.
+     */
+    public int select(int index) throws InternalException
+    {
+        if (index < 0 || index >= size())
+            throw new InternalException("Row selection index " + index + " out of bounds, size is " + size());
+        if (index >= sealedTotal)
+            return (currentKey << CHUNK_BITS) | current.select(index - sealedTotal);
+        
+        int chunk = lastSelectChunk;
+        if (chunk >= sealed.size() || index < sealedCountBefore[chunk] || index >= sealedCountBefore[chunk] + sealed.get(chunk).cardinality())
+        {
+            // Find last chunk which starts at or before index:
+            int pos = Arrays.binarySearch(sealedCountBefore, 0, sealed.size(), index);
+            // Chunks are never empty, so there are no duplicates in sealedCountBefore:
+            if (pos < 0)
+                pos = -pos - 2;
+            chunk = pos;
+            lastSelectChunk = chunk;
+        }
+        return (sealedKeys[chunk] << CHUNK_BITS) | sealed.get(chunk).select(index - sealedCountBefore[chunk]);
+    }
+
+    /**
+     * Gets the number of rows in the set which are less than the given row.
+     * If the row is in the set, this is its position.
+     */
+    public int rank(int row)
+    {
+        if (row < 0)
+            return 0;
+        int key = row >>> CHUNK_BITS;
+        if (key == currentKey)
+            return sealedTotal + current.rank(row & CHUNK_MASK);
+        else if (key > currentKey)
+            return size();
+        int pos = Arrays.binarySearch(sealedKeys, 0, sealed.size(), key);
+        if (pos >= 0)
+            return sealedCountBefore[pos] + sealed.get(pos).rank(row & CHUNK_MASK);
+        int after = -pos - 1;
+        return after < sealed.size() ? sealedCountBefore[after] : sealedTotal;
+    }
+
+    public boolean contains(int row)
+    {
+        return row >= 0 && row <= lastAdded && next(row) == row;
+    }
+
+    /**
+     * Gets the smallest row in the set which is greater than or equal to the given row,
+     * or -1 if there is none.
+     */
+    public int next(int fromRow)
+    {
+        if (fromRow > lastAdded)
+            return -1;
+        fromRow = Math.max(0, fromRow);
+        int key = fromRow >>> CHUNK_BITS;
+        int pos = Arrays.binarySearch(sealedKeys, 0, sealed.size(), key);
+        int chunk = pos >= 0 ? pos : -pos - 1;
+        int low = pos >= 0 ? fromRow & CHUNK_MASK : 0;
+        for (; chunk < sealed.size(); chunk++, low = 0)
+        {
+            int found = sealed.get(chunk).next(low);
+            if (found >= 0)
+                return (sealedKeys[chunk] << CHUNK_BITS) | found;
+        }
+        int found = current.next(key == currentKey ? fromRow & CHUNK_MASK : 0);
+        return found < 0 ? -1 : (currentKey << CHUNK_BITS) | found;
+    }
+
+    /**
+     * Makes a new selection of the rows which are in both selections.
+     */
+    public static RowSelection and(RowSelection a, RowSelection b) throws InternalException
+    {
+        RowSelection r = new RowSelection();
+        int rowA = a.next(0);
+        while (rowA >= 0)
+        {
+            int rowB = b.next(rowA);
+            if (rowB < 0)
+                break;
+            if (rowB == rowA)
+            {
+                r.add(rowA);
+                rowA = a.next(rowA + 1);
+            }
+            else
+                rowA = a.next(rowB);
+        }
+        return r;
+    }
+
+    /**
+     * Makes a new selection of the rows which are in either selection.
+     */
+    public static RowSelection or(RowSelection a, RowSelection b) throws InternalException
+    {
+        RowSelection r = new RowSelection();
+        int rowA = a.next(0);
+        int rowB = b.next(0);
+        while (rowA >= 0 || rowB >= 0)
+        {
+            if (rowB < 0 || (rowA >= 0 && rowA < rowB))
+            {
+                r.add(rowA);
+                rowA = a.next(rowA + 1);
+            }
+            else if (rowA < 0 || rowB < rowA)
+            {
+                r.add(rowB);
+                rowB = b.next(rowB + 1);
+            }
+            else
+            {
+                r.add(rowA);
+                rowA = a.next(rowA + 1);
+                rowB = b.next(rowB + 1);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * The rows of one chunk, as values in the range 0 to 65535.
+     */
+    @OnThread(Tag.Any)
+    private static abstract class Container
+    {
+        public abstract int cardinality();
+
+        // The index-th smallest value, where index is known to be valid:
+        public abstract int select(int index);
+
+        // The number of values less than the given value:
+        public abstract int rank(int value);
+
+        // The smallest value >= the given value, or -1 if none:
+        public abstract int next(int value);
+    }
+
+    @OnThread(Tag.Any)
+    private static final class ArrayContainer extends Container
+    {
+        private final char[] values;
+
+        private ArrayContainer(char[] values)
+        {
+            this.values = values;
+        }
+
+        @Override
+        public int cardinality()
+        {
+            return values.length;
+        }
+
+        @Override
+        public int select(int index)
+        {
+            return values[index];
+        }
+
+        @Override
+        public int rank(int value)
+        {
+            int pos = Arrays.binarySearch(values, (char) value);
+            return pos >= 0 ? pos : -pos - 1;
+        }
+
+        @Override
+        public int next(int value)
+        {
+            int pos = rank(value);
+            return pos < values.length ? values[pos] : -1;
+        }
+    }
+
+    @OnThread(Tag.Any)
+    private static final class RunContainer extends Container
+    {
+        // First value in each run:
+        private final char[] starts;
+        // Number of values in each run, minus one (so that a full run fits in a char):
+        private final char[] lengthsMinusOne;
+        // Number of values in all the runs before each run:
+        private final int[] countBefore;
+
+        private RunContainer(char[] starts, char[] lengthsMinusOne)
+        {
+            this.starts = starts;
+            this.lengthsMinusOne = lengthsMinusOne;
+            this.countBefore = new int[starts.length];
+            int count = 0;
+            for (int i = 0; i < starts.length; i++)
+            {
+                countBefore[i] = count;
+                count += lengthsMinusOne[i] + 1;
+            }
+        }
+
+        @Override
+        public int cardinality()
+        {
+            int last = starts.length - 1;
+            return last < 0 ? 0 : countBefore[last] + lengthsMinusOne[last] + 1;
+        }
+
+        @Override
+        public int select(int index)
+        {
+            int pos = Arrays.binarySearch(countBefore, index);
+            if (pos < 0)
+                pos = -pos - 2;
+            return starts[pos] + (index - countBefore[pos]);
+        }
+
+        // Index of the last run starting at or before value, or -1 if none:
+        private int findRun(int value)
+        {
+            int pos = Arrays.binarySearch(starts, (char) value);
+            return pos >= 0 ? pos : -pos - 2;
+        }
+
+        @Override
+        public int rank(int value)
+        {
+            int run = findRun(value);
+            if (run < 0)
+                return 0;
+            return countBefore[run] + Math.min(value - starts[run], lengthsMinusOne[run] + 1);
+        }
+
+        @Override
+        public int next(int value)
+        {
+            int run = findRun(value);
+            if (run >= 0 && value <= starts[run] + lengthsMinusOne[run])
+                return value;
+            return run + 1 < starts.length ? starts[run + 1] : -1;
+        }
+    }
+
+    @OnThread(Tag.Any)
+    private static final class BitmapContainer extends Container
+    {
+        private static final int WORDS = CHUNK_SIZE / 64;
+        // Words are grouped in blocks to speed up select:
+        private static final int WORDS_PER_BLOCK = 64;
+        
+        private final long[] words = new long[WORDS];
+        // Number of values in each block of words:
+        private final int[] blockCounts = new int[WORDS / WORDS_PER_BLOCK];
+        private int cardinality = 0;
+        
+        private void add(int value)
+        {
+            words[value >>> 6] |= 1L << value;
+            blockCounts[(value >>> 6) / WORDS_PER_BLOCK] += 1;
+            cardinality += 1;
+        }
+
+        @Override
+        public int cardinality()
+        {
+            return cardinality;
+        }
+
+        @Override
+        public int select(int index)
+        {
+            int block = 0;
+            while (index >= blockCounts[block])
+            {
+                index -= blockCounts[block];
+                block += 1;
+            }
+            int word = block * WORDS_PER_BLOCK;
+            while (true)
+            {
+                int count = Long.bitCount(words[word]);
+                if (index < count)
+                    break;
+                index -= count;
+                word += 1;
+            }
+            // Remove the lowest bits until the one we want is the lowest:
+            long bits = words[word];
+            for (int i = 0; i < index; i++)
+            {
+                bits &= bits - 1;
+            }
+            return word * 64 + Long.numberOfTrailingZeros(bits);
+        }
+
+        @Override
+        public int rank(int value)
+        {
+            int word = value >>> 6;
+            int block = word / WORDS_PER_BLOCK;
+            int count = 0;
+            for (int b = 0; b < block; b++)
+            {
+                count += blockCounts[b];
+            }
+            for (int w = block * WORDS_PER_BLOCK; w < word; w++)
+            {
+                count += Long.bitCount(words[w]);
+            }
+            return count + Long.bitCount(words[word] & ((1L << value) - 1));
+        }
+
+        @Override
+        public int next(int value)
+        {
+            int word = value >>> 6;
+            long bits = words[word] & (-1L << value);
+            while (bits == 0)
+            {
+                word += 1;
+                if (word == WORDS)
+                    return -1;
+                bits = words[word];
+            }
+            return word * 64 + Long.numberOfTrailingZeros(bits);
+        }
+        
+        // Gets the smallest equivalent container; may be this one.
+        private Container compact()
+        {
+            int runs = 0;
+            int prev = -2;
+            for (int v = next(0); v >= 0; v = v + 1 < CHUNK_SIZE ? next(v + 1) : -1)
+            {
+                if (v != prev + 1)
+                    runs += 1;
+                prev = v;
+            }
+            // Approximate sizes in bytes:
+            long arrayBytes = 2L * cardinality;
+            long runBytes = 8L * runs;
+            long bitmapBytes = 8L * WORDS;
+            if (runBytes <= arrayBytes && runBytes < bitmapBytes)
+            {
+                char[] starts = new char[runs];
+                char[] lengthsMinusOne = new char[runs];
+                int run = -1;
+                prev = -2;
+                for (int v = next(0); v >= 0; v = v + 1 < CHUNK_SIZE ? next(v + 1) : -1)
+                {
+                    if (v != prev + 1)
+                    {
+                        run += 1;
+                        starts[run] = (char) v;
+                    }
+                    else
+                        lengthsMinusOne[run] += 1;
+                    prev = v;
+                }
+                return new RunContainer(starts, lengthsMinusOne);
+            }
+            else if (arrayBytes < bitmapBytes)
+            {
+                char[] values = new char[cardinality];
+                int i = 0;
+                for (int v = next(0); v >= 0; v = v + 1 < CHUNK_SIZE ? next(v + 1) : -1)
+                {
+                    values[i++] = (char) v;
+                }
+                return new ArrayContainer(values);
+            }
+            else
+                return this;
+        }
+    }
+}
@@ -49,6 +49,9 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
     private HashMap<Integer, String> errorEntries = new HashMap<>();
     // Max of errorEntries.keySet() or -1 if empty
     private int latestError = -1;
+    // Statistics of the rows [0, statistics.getRowCount()), made on first request.
+    // Rows added at the end are added to it as needed, any other change discards it:
+    private ColumnStatistics.@Nullable Accumulator statistics;
 
     protected SparseErrorColumnStorage(boolean isImmediateData)
     {
@@ -67,6 +70,22 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
             latestError = row;
     }
 
+    protected final boolean hasErrorInRange(int fromIncl, int toExcl)
+    {
+        if (fromIncl > latestError)
+            return false;
+        if (toExcl - fromIncl < errorEntries.size())
+        {
+            for (int i = fromIncl; i < toExcl; i++)
+            {
+                if (errorEntries.containsKey(i))
+                    return true;
+            }
+            return false;
+        }
+        return errorEntries.keySet().stream().anyMatch(i -> i >= fromIncl && i < toExcl);
+    }
+
     private void recalculateLatestError(@UnknownInitialization(SparseErrorColumnStorage.class) SparseErrorColumnStorage<T> this)
     {
         latestError = errorEntries.keySet().stream().mapToInt(i -> i).max().orElse(-1);
@@ -79,6 +98,56 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
             recalculateLatestError();
     }
     
+    /**
+     * Gets the statistics of all the values stored so far.  Only rows added since
+     * the last call are fetched, unless the storage has been changed other than
+     * by adding rows at the end, in which case all rows are fetched again.
+     */
+    @OnThread(Tag.Simulation)
+    public final ColumnStatistics getStatistics() throws InternalException
+    {
+        ColumnStatistics.@Nullable Accumulator accumulator = statistics;
+        if (accumulator == null)
+            statistics = accumulator = new ColumnStatistics.Accumulator(getType().getType());
+        int filled = filled();
+        try
+        {
+            for (int row = accumulator.getRowCount(); row < filled; row++)
+            {
+                if (getError(row) != null)
+                {
+                    accumulator.addError();
+                    continue;
+                }
+                @Value Object value;
+                try
+                {
+                    value = getType().getCollapsed(row);
+                }
+                catch (UserException e)
+                {
+                    accumulator.addError();
+                    continue;
+                }
+                accumulator.addValue(value);
+            }
+        }
+        catch (UserException e)
+        {
+            throw new InternalException("Unexpected user exception calculating column statistics", e);
+        }
+        return accumulator.getStatistics();
+    }
+
+    /**
+     * Must be called by subclasses when they change existing rows other than via
+     * insertRows, removeRows or GetValue.set (which call it themselves).
+     */
+    protected final void invalidateStatistics(@UnknownInitialization(SparseErrorColumnStorage.class) SparseErrorColumnStorage<T> this)
+    {
+        statistics = null;
+    }
+
     private final HashMap<Integer, String> mapErrors(Function<Integer, @Nullable Integer> rowChange)
     {
         // Need to be careful here not to overwrite keys which are swapping:
@@ -135,6 +204,9 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
     public final SimulationRunnable insertRows(int index, List<Either<String, T>> itemsErr) throws InternalException
     {
         int itemsSize = itemsErr.size();
+        // Rows added at the end can be added to the statistics later, but not rows added before others:
+        if (index < filled())
+            invalidateStatistics();
         if (index <= latestError)
             mapErrors(i -> i < index ? i : i + itemsSize);
         
@@ -152,9 +224,12 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
         }
         
         SimulationRunnable revert = _insertRows(index, items);
+        getType().dataEdited();
         return () -> {
             revert.run();
             mapErrors(i -> i < index ? i : (i >= index + itemsSize ? i - itemsSize : null));
+            invalidateStatistics();
+            getType().dataEdited();
         };
     }
     
@@ -164,10 +239,14 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
     {
         SimulationRunnable revert = _removeRows(index, count);
         HashMap<Integer, String> removed = mapErrors(i -> i < index ? i : (i < index + count ? null : i - count));
+        invalidateStatistics();
+        getType().dataEdited();
         return () -> {
             mapErrors(i -> i < index ? i : i + count);
             removed.forEach(this::setError);
             revert.run();
+            invalidateStatistics();
+            getType().dataEdited();
         };
     }
     
@@ -204,6 +283,8 @@ public abstract class SparseErrorColumnStorage<T> implements ColumnStorage<T>
         {
             value.eitherEx_(err -> {setError(index, err); _set(index, null);},
                 v -> {errorEntries.remove(index); _set(index, v);});
+            invalidateStatistics();
+            getType().dataEdited();
         }
 
         @OnThread(Tag.Simulation)
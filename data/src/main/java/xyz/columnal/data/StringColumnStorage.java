@@ -140,6 +140,7 @@ public class StringColumnStorage extends SparseErrorColumnStorage<String> implem
         else
         {
             values.set(index, pool.pool(value));
+            invalidateStatistics();
         }
     }
 
@@ -38,6 +38,7 @@ import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.fx.FXPlatformConsumer;
+import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.TranslationUtility;
 import xyz.columnal.utility.Workers;
@@ -58,12 +59,20 @@ public class ExporterManager
     private static final ExporterManager SINGLETON = new ExporterManager();
 
     private final List<Exporter> registeredExporters = new ArrayList<>();
+    // Given the table to export, gives an equivalent table which may be quicker to calculate.
+    // Registered from outside, as the exporters can't depend on the transformations:
+    private @Nullable SimulationFunction<Table, Table> planner;
 
     public void registerExporter(Exporter Exporter)
     {
         registeredExporters.add(Exporter);
     }
 
+    public void registerPlanner(SimulationFunction<Table, Table> planner)
+    {
+        this.planner = planner;
+    }
+
     public void chooseAndExportFile(DimmableParent parent, Table table)
     {
         new PickExporterDialog().showAndWait().ifPresent(exporter -> {
@@ -75,7 +84,8 @@ public class ExporterManager
             if (file != null)
             {
                 final File fileNonNull = file;
-                Workers.onWorkerThread("Export to " + file.getAbsolutePath(), Workers.Priority.SAVE, () -> FXUtility.alertOnError_(TranslationUtility.getString("error.exporting"), () -> exporter.exportData(fileNonNull, table)));
+                final @Nullable SimulationFunction<Table, Table> plannerFinal = planner;
+                Workers.onWorkerThread("Export to " + file.getAbsolutePath(), Workers.Priority.SAVE, () -> FXUtility.alertOnError_(TranslationUtility.getString("error.exporting"), () -> exporter.exportData(fileNonNull, plannerFinal == null ? table : plannerFinal.apply(table))));
             }
         });
     }
@@ -182,4 +182,9 @@ public class AddSubtractExpression extends NaryOpTotalExpression
     {
         return visitor.addSubtract(this, expressions, ops);
     }
+
+    public ImmutableList<AddSubtractOp> getOps()
+    {
+        return ops;
+    }
 }
@@ -62,10 +62,27 @@ public class ArrayExpression extends Expression
     private final ImmutableList<@Recorded Expression> items;
     private @Nullable TypeExp elementType;
     private @MonotonicNonNull List<TypeExp> _test_originalTypes;
+    // If all the items are literals (or records or lists of literals), the value
+    // is always the same, so we only make it once.  This lets indexes of the list,
+    // and other information derived from its content, be cached too.
+    private final boolean allLiterals;
+    // Made on first evaluation, which may be on several threads at once:
+    private volatile @Nullable ConstantList constantValue;
 
     public ArrayExpression(ImmutableList<@Recorded Expression> items)
     {
         this.items = items;
+        this.allLiterals = !items.isEmpty() && items.stream().allMatch(ArrayExpression::isConstant);
+    }
+
+    private static boolean isConstant(Expression expression)
+    {
+        if (expression instanceof RecordExpression)
+            return ((RecordExpression) expression).getMembers().stream().allMatch(m -> isConstant(m.getSecond()));
+        else if (expression instanceof ArrayExpression)
+            return ((ArrayExpression) expression).allLiterals;
+        else
+            return expression instanceof Literal;
     }
 
     @Override
@@ -130,6 +147,23 @@ public class ArrayExpression extends Expression
     @OnThread(Tag.Simulation)
     public ValueResult calculateValue(EvaluateState state) throws EvaluationException, InternalException
     {
+        // If we are recording an explanation, we need each item's result:
+        if (allLiterals && !state.recordExplanation())
+        {
+            @Nullable ConstantList constant = constantValue;
+            if (constant == null)
+            {
+                ImmutableList.Builder<@Value Object> constantItems = ImmutableList.builderWithExpectedSize(items.size());
+                for (Expression item : items)
+                {
+                    constantItems.add(item.calculateValue(state).value);
+                }
+                constant = new ConstantList(constantItems.build());
+                constantValue = constant;
+            }
+            return result(DataTypeUtility.value(constant), state);
+        }
+        
         ImmutableList.Builder<ValueResult> valuesBuilder = ImmutableList.builderWithExpectedSize(items.size());
         for (Expression item : items)
         {
@@ -232,4 +266,37 @@ public class ArrayExpression extends Expression
     {
         return visitor.list(this, items);
     }
+
+    /**
+     * The value of an array expression which only contains literals.  Since it never
+     * changes, it is its own identity for the purposes of caching indexes of the content.
+     */
+    private static class ConstantList extends ListEx
+    {
+        private final ImmutableList<@Value Object> items;
+
+        public ConstantList(ImmutableList<@Value Object> items)
+        {
+            this.items = items;
+        }
+
+        @Override
+        public int size()
+        {
+            return items.size();
+        }
+
+        @Override
+        public @Value Object get(int index)
+        {
+            return items.get(index);
+        }
+
+        @Override
+        @OnThread(Tag.Any)
+        public Object getColumnIdentity()
+        {
+            return this;
+        }
+    }
 }
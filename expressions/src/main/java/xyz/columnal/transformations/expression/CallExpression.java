@@ -24,6 +24,7 @@ import annotation.identifier.qual.ExpressionIdentifier;
 import annotation.qual.Value;
 import annotation.recorded.qual.Recorded;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import xyz.columnal.log.Log;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -55,9 +56,12 @@ import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.TaggedValue;
 import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.Utility.ListEx;
+import xyz.columnal.utility.Utility.ListExList;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.Random;
@@ -70,8 +74,19 @@ import java.util.stream.Stream;
  */
 public class CallExpression extends Expression
 {
+    // Functions which take a list (as their first parameter) and reduce it,
+    // which can be calculated with the select/apply each calls that make the list:
+    private static final ImmutableSet<ImmutableList<String>> FUSABLE_REDUCTIONS = ImmutableSet.of(
+        ImmutableList.of("number", "sum"),
+        ImmutableList.of("list", "list length"),
+        ImmutableList.of("listprocess", "any"));
+    private static final ImmutableList<String> SELECT = ImmutableList.of("listprocess", "select");
+    private static final ImmutableList<String> APPLY_EACH = ImmutableList.of("listprocess", "apply each");
+    
     private final @Recorded Expression function;
     private final ImmutableList<@Recorded Expression> arguments;
+    // Set during type-checking, if this is a reduction of a chain of select/apply each calls:
+    private @Nullable FusedPipeline fusedPipeline;
 
     public CallExpression(@Recorded Expression function, ImmutableList<@Recorded Expression> args)
     {
@@ -105,6 +120,7 @@ public class CallExpression extends Expression
     @Override
     public @Nullable CheckedExp check(@Recorded CallExpression this, ColumnLookup dataLookup, TypeState state, ExpressionKind kind, LocationInfo locationInfo, ErrorAndTypeRecorder onError) throws UserException, InternalException
     {
+        fusedPipeline = null;
         ImmutableList.Builder<CheckedExp> paramTypesBuilder = ImmutableList.builderWithExpectedSize(arguments.size());
         
         if (!(function instanceof IdentExpression))
@@ -237,9 +253,47 @@ public class CallExpression extends Expression
             return null;
         }
         
+        // The function definitions are only known once the function and arguments are checked:
+        fusedPipeline = recogniseFusedPipeline();
         return onError.recordType(this, state, returnType);
     }
 
+    // Recognises e.g. sum(apply each(select(xs, f), g)), which can be calculated in one pass over xs
+    private @Nullable FusedPipeline recogniseFusedPipeline()
+    {
+        @Nullable ImmutableList<@ExpressionIdentifier String> reduction = getFunctionFullName(function);
+        if (reduction == null || !FUSABLE_REDUCTIONS.contains(reduction) || arguments.isEmpty())
+            return null;
+        
+        // Found outermost first, but applied innermost first:
+        ArrayList<FusedStage> stages = new ArrayList<>();
+        @Recorded Expression list = arguments.get(0);
+        while (list instanceof CallExpression)
+        {
+            CallExpression call = (CallExpression) list;
+            @Nullable ImmutableList<@ExpressionIdentifier String> name = getFunctionFullName(call.function);
+            boolean select = SELECT.equals(name);
+            if ((!select && !APPLY_EACH.equals(name)) || call.arguments.size() != 2)
+                break;
+            stages.add(0, new FusedStage(select, call.arguments.get(1)));
+            list = call.arguments.get(0);
+        }
+        if (stages.isEmpty())
+            return null;
+        return new FusedPipeline(list, ImmutableList.copyOf(stages));
+    }
+
+    private static @Nullable ImmutableList<@ExpressionIdentifier String> getFunctionFullName(Expression function)
+    {
+        if (function instanceof IdentExpression)
+        {
+            @Nullable StandardFunctionDefinition functionDefinition = ((IdentExpression) function).getFunctionDefinition();
+            if (functionDefinition != null)
+                return functionDefinition.getFullName();
+        }
+        return null;
+    }
+
     private @Nullable Pair<@Nullable TableId, ColumnId> getColumn(@Recorded Expression expression)
     {
         return expression.visit(new ExpressionVisitorFlat<@Nullable Pair<@Nullable TableId, ColumnId>>()
@@ -269,6 +323,22 @@ public class CallExpression extends Expression
     @Override
     public ValueResult calculateValue(EvaluateState state) throws EvaluationException, InternalException
     {
+        @Nullable FusedPipeline pipeline = fusedPipeline;
+        // Explanations need each call's own result, so we only fuse when not recording:
+        if (pipeline != null && !state.recordExplanation())
+        {
+            try
+            {
+                return result(calculateFused(pipeline, state), state);
+            }
+            catch (UserException e)
+            {
+                // Calculate again unfused, so the error is the same one we would have given
+                // (fused, a later stage may fail on an early item before an earlier stage fails on a later item).
+                // Functions don't have side effects, so calling them again is harmless.
+            }
+        }
+        
         ValueFunction functionValue = Utility.cast(fetchSubExpression(function, state, ImmutableList.builder()).value, ValueFunction.class);
 
         ImmutableList.Builder<ValueResult> paramValueResultsBuilder = ImmutableList.builderWithExpectedSize(arguments.size()); 
@@ -330,6 +400,80 @@ public class CallExpression extends Expression
         }
     }
 
+    /**
+     * Calculates the reduction of the pipeline in one pass over the source list, without making
+     * the intermediate lists.  Like the unfused calls, it is all calculated now, on this thread,
+     * and each stage's function is called once for each item which reaches it, in list order.
+     * But the stages are interleaved item by item, rather than each finishing the list before the next.
+     */
+    @OnThread(Tag.Simulation)
+    private @Value Object calculateFused(FusedPipeline pipeline, EvaluateState state) throws InternalException, UserException
+    {
+        // Calculated in the same order as the unfused calls would be:
+        ImmutableList.Builder<ValueResult> subResults = ImmutableList.builder();
+        ValueFunction reduction = Utility.cast(fetchSubExpression(function, state, subResults).value, ValueFunction.class);
+        ListEx source = Utility.cast(fetchSubExpression(pipeline.source, state, subResults).value, ListEx.class);
+        ValueFunction[] stageFunctions = new ValueFunction[pipeline.stages.size()];
+        for (int s = 0; s < stageFunctions.length; s++)
+        {
+            stageFunctions[s] = Utility.cast(fetchSubExpression(pipeline.stages.get(s).function, state, subResults).value, ValueFunction.class);
+        }
+        @Value Object[] reductionArgs = new @Value Object[arguments.size()];
+        for (int i = 1; i < arguments.size(); i++)
+        {
+            reductionArgs[i] = fetchSubExpression(arguments.get(i), state, subResults).value;
+        }
+        
+        int size = source.size();
+        @Value Object[] items = new @Value Object[size];
+        int count = 0;
+        nextItem: for (int i = 0; i < size; i++)
+        {
+            @Value Object item = source.get(i);
+            for (int s = 0; s < stageFunctions.length; s++)
+            {
+                @Value Object stageResult = stageFunctions[s].call(new @Value Object[] {item});
+                if (!pipeline.stages.get(s).select)
+                    item = stageResult;
+                else if (!Utility.cast(stageResult, Boolean.class))
+                    continue nextItem;
+            }
+            items[count++] = item;
+        }
+        reductionArgs[0] = new ListExList(Arrays.asList(count == size ? items : Arrays.copyOf(items, count)));
+        return reduction.call(reductionArgs);
+    }
+
+    /**
+     * A reduction of a list made by a chain of select and apply each calls.
+     */
+    private static class FusedPipeline
+    {
+        // The list passed to the innermost call:
+        private final @Recorded Expression source;
+        // In the order they are applied:
+        private final ImmutableList<FusedStage> stages;
+
+        private FusedPipeline(@Recorded Expression source, ImmutableList<FusedStage> stages)
+        {
+            this.source = source;
+            this.stages = stages;
+        }
+    }
+
+    private static class FusedStage
+    {
+        // True if select (so the function is a test), false if apply each:
+        private final boolean select;
+        private final @Recorded Expression function;
+
+        private FusedStage(boolean select, @Recorded Expression function)
+        {
+            this.select = select;
+            this.function = function;
+        }
+    }
+
     @Override
     public @OnThread(Tag.Simulation) ValueResult matchAsPattern(@Value Object value, EvaluateState state) throws InternalException, EvaluationException
     {
@@ -27,6 +27,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.id.ColumnId;
+import xyz.columnal.data.datatype.DataTypeValue;
 import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.data.unit.UnitManager;
 import xyz.columnal.error.InternalException;
@@ -44,6 +45,8 @@ import threadchecker.Tag;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.Record;
+import xyz.columnal.utility.Utility.RecordMap;
+import xyz.columnal.utility.Utility.RecordShape;
 
 import java.util.Objects;
 import java.util.Random;
@@ -57,6 +60,11 @@ public class FieldAccessExpression extends Expression
 {
     private final @Recorded Expression lhsRecord;
     private final @ExpressionIdentifier String fieldName;
+    // The record shape we last saw, and the slot of our field in it.
+    // Record types can still be open after type checking, so we can't
+    // know the slot until we see a record.  Kept as one object so that
+    // concurrent evaluations never see a shape with another shape's slot.
+    private volatile @Nullable Pair<RecordShape, Integer> cachedSlot;
 
     public FieldAccessExpression(@Recorded Expression lhsRecord, @ExpressionIdentifier String fieldName)
     {
@@ -111,13 +119,51 @@ public class FieldAccessExpression extends Expression
     @Override
     public @OnThread(Tag.Simulation) ValueResult calculateValue(EvaluateState state) throws EvaluationException, InternalException
     {
+        if (!state.recordExplanation() && lhsRecord instanceof IdentExpression)
+        {
+            // If the record is a column which stores its fields separately,
+            // we can read the field directly without making the whole record:
+            @Nullable DataTypeValue recordColumn = ((IdentExpression) lhsRecord).getResolvedColumnValues();
+            @Nullable DataTypeValue fieldColumn = recordColumn == null ? null : recordColumn.getRecordField(fieldName);
+            if (fieldColumn != null)
+            {
+                try
+                {
+                    return result(fieldColumn.getCollapsed(state.getRowIndex()), state);
+                }
+                catch (UserException e)
+                {
+                    // Same as if the column reference itself had failed:
+                    throw new EvaluationException(e, lhsRecord, ExecutionType.VALUE, state, ImmutableList.of());
+                }
+            }
+        }
+        
         ImmutableList.Builder<ValueResult> subResults = ImmutableList.builderWithExpectedSize(1);
         ValueResult lhsResult = fetchSubExpression(lhsRecord, state, subResults);
         @Value Record record = Utility.cast(lhsResult.value, Record.class);
 
         if (fieldName == null)
             throw new InternalException("Field is not single name despite being after type-check: " + fieldName.toString());
-        @Value Object result = record.getField(fieldName);
+        @Value Object result;
+        if (record instanceof RecordMap)
+        {
+            RecordMap recordMap = (RecordMap) record;
+            @Nullable Pair<RecordShape, Integer> slot = cachedSlot;
+            if (slot == null || slot.getFirst() != recordMap.getShape())
+            {
+                int slotIndex = recordMap.getShape().getSlot(fieldName);
+                if (slotIndex < 0)
+                    throw new InternalException("Record unexpectedly lacking field: \"" + fieldName + "\"");
+                slot = new Pair<>(recordMap.getShape(), slotIndex);
+                cachedSlot = slot;
+            }
+            result = recordMap.getSlotValue(slot.getSecond());
+        }
+        else
+        {
+            result = record.getField(fieldName);
+        }
         return new ValueResult(result, state)
         {
             @Override
@@ -465,6 +465,33 @@ public class IdentExpression extends NonOperatorExpression
         return resolution != null ? resolution.getResolvedFunctionDefinition() : null;
     }
 
+    /**
+     * Only valid to call after type-checking!  Before that we can't know.
+     * If this resolved to a column, gets the table it was found in, and the column name.
+     */
+    public @Nullable Pair<TableId, ColumnId> getResolvedColumn()
+    {
+        return resolution != null ? resolution.getResolvedColumn() : null;
+    }
+
+    /**
+     * Only valid to call after type-checking!  Before that we can't know.
+     * Is this a reference to a variable (e.g. a lambda parameter or group count)?
+     */
+    public boolean isResolvedVariable()
+    {
+        return resolution != null && resolution.isVariable();
+    }
+
+    /**
+     * Only valid to call after type-checking!  If this resolved to a column,
+     * gets the column's values, indexed by the row index of the evaluation state.
+     */
+    public @Nullable DataTypeValue getResolvedColumnValues()
+    {
+        return resolution != null ? resolution.getResolvedColumnValues() : null;
+    }
+
     private static interface Resolution
     {
         public default boolean isDeclarationInMatch()
@@ -491,6 +518,16 @@ public class IdentExpression extends NonOperatorExpression
             return null;
         }
 
+        public default @Nullable Pair<TableId, ColumnId> getResolvedColumn()
+        {
+            return null;
+        }
+
+        public default @Nullable DataTypeValue getResolvedColumnValues()
+        {
+            return null;
+        }
+
         public @Nullable CheckedExp checkType(@Recorded IdentExpression identExpression, TypeState state, ExpressionKind expressionKind, ErrorAndTypeRecorder onError) throws InternalException;
     }
     
@@ -543,6 +580,18 @@ public class IdentExpression extends NonOperatorExpression
             return false;
         }
 
+        @Override
+        public Pair<TableId, ColumnId> getResolvedColumn()
+        {
+            return new Pair<>(col.tableId, columnName);
+        }
+
+        @Override
+        public DataTypeValue getResolvedColumnValues()
+        {
+            return column;
+        }
+
         private @ExpressionIdentifier String getFoundNamespace()
         {
             return NAMESPACE_COLUMN;
@@ -684,6 +733,19 @@ public class IdentExpression extends NonOperatorExpression
                     {
                         return dataTypeValue.getCollapsed(index);
                     }
+
+                    @Override
+                    public boolean getLongs(int fromIncl, int toExcl, long[] dest) throws InternalException, UserException
+                    {
+                        return dataTypeValue.getLongs(fromIncl, toExcl, dest);
+                    }
+
+                    @Override
+                    @OnThread(Tag.Any)
+                    public Object getColumnIdentity()
+                    {
+                        return dataTypeValue;
+                    }
                 }
 
                 @Override
@@ -24,9 +24,13 @@ import annotation.qual.Value;
 import annotation.recorded.qual.Recorded;
 import annotation.units.CanonicalLocation;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.DataTypeUtility.ComparableValue;
+import xyz.columnal.data.datatype.TypeManager.TagInfo;
 import xyz.columnal.data.unit.UnitManager;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
@@ -41,10 +45,13 @@ import xyz.columnal.styled.StyledString;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.adt.Pair;
+import xyz.columnal.utility.TaggedValue;
 import xyz.columnal.utility.Utility;
 
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
@@ -67,12 +74,19 @@ public class MatchExpression extends NonOperatorExpression
         private final CanonicalSpan caseLocation;
         private final ImmutableList<Pattern> patterns;
         private final @Recorded Expression outcome;
+        // If there are several patterns, and they are all literals without guards,
+        // this clause is just a membership test, so we make a hash set of the values.
+        // The set is made on first evaluation, which may be on several threads at once
+        // (e.g. a parallel filter), so it is only published via the volatile field once complete:
+        private final boolean literalsOnly;
+        private volatile @Nullable ImmutableSet<ComparableValue> literalValues;
 
         public MatchClause(CanonicalSpan caseLocation, ImmutableList<Pattern> patterns, @Recorded Expression outcome)
         {
             this.caseLocation = caseLocation;
             this.patterns = patterns;
             this.outcome = outcome;
+            this.literalsOnly = patterns.size() > 1 && patterns.stream().allMatch(p -> p.guard == null && p.pattern instanceof Literal);
         }
         
         public static MatchClause unrecorded(ImmutableList<Pattern> patterns, @Recorded Expression outcome)
@@ -128,6 +142,24 @@ public class MatchExpression extends NonOperatorExpression
         @OnThread(Tag.Simulation)
         public ValueResult matches(@Value Object value, EvaluateState state) throws EvaluationException, InternalException
         {
+            // If we are recording an explanation, we need each pattern's result:
+            if (literalsOnly && !state.recordExplanation())
+            {
+                @Nullable ImmutableSet<ComparableValue> values = literalValues;
+                if (values == null)
+                {
+                    ImmutableSet.Builder<ComparableValue> building = ImmutableSet.builderWithExpectedSize(patterns.size());
+                    for (Pattern p : patterns)
+                    {
+                        building.add(new ComparableValue(p.pattern.calculateValue(state).value));
+                    }
+                    values = building.build();
+                    literalValues = values;
+                }
+                // Literals don't declare any variables, so state is unchanged either way:
+                return result(values.contains(new ComparableValue(value)) ? OptionalInt.of(0) : OptionalInt.empty(), state, ImmutableList.of());
+            }
+            
             ImmutableList.Builder<ValueResult> patternsSoFar = ImmutableList.builderWithExpectedSize(patterns.size());
             for (int i = 0; i < patterns.size(); i++)
             {
@@ -342,6 +374,39 @@ public class MatchExpression extends NonOperatorExpression
     private final @Recorded Expression expression;
     private final ImmutableList<MatchClause> clauses;
     private final CanonicalSpan endLocation;
+    // Made on first evaluation (after type checking), see makeDispatch.  Evaluation
+    // may be on several threads at once, so it is published via a volatile field:
+    private volatile @Nullable Dispatch dispatch;
+
+    /**
+     * A table to find which clauses could possibly match a given value,
+     * so that we don't need to try every clause in turn.  Clauses are always
+     * tried in order, so the first matching clause still wins.
+     */
+    private static class Dispatch
+    {
+        private static final int[] NO_CLAUSES = new int[0];
+
+        // For each literal pattern value, the indexes of clauses with that literal as a pattern:
+        private final HashMap<ComparableValue, int[]> byLiteral;
+        // For each tag index, the indexes of clauses with a pattern with that tag, e.g. Some(x)
+        private final HashMap<Integer, int[]> byTag;
+        // The indexes of the clauses which might match any value (e.g. variables,
+        // or patterns with guards) and so must always be tried:
+        private final int[] always;
+
+        private Dispatch(HashMap<ComparableValue, int[]> byLiteral, HashMap<Integer, int[]> byTag, int[] always)
+        {
+            this.byLiteral = byLiteral;
+            this.byTag = byTag;
+            this.always = always;
+        }
+
+        private boolean isUseful(int clauseCount)
+        {
+            return always.length < clauseCount;
+        }
+    }
 
     public MatchExpression(CanonicalSpan matchLocation, @Recorded Expression expression, ImmutableList<MatchClause> clauses, CanonicalSpan endLocation)
     {
@@ -368,6 +433,24 @@ public class MatchExpression extends NonOperatorExpression
         // It's type checked so can just copy first clause:
         ValueResult originalResult = fetchSubExpression(expression, state, subItems);
         @Value Object value = originalResult.value;
+        
+        // If we are recording an explanation, we need the result of every clause we skip: 
+        if (!state.recordExplanation())
+        {
+            @Nullable Dispatch d = dispatch;
+            if (d == null)
+            {
+                d = makeDispatch(state);
+                dispatch = d;
+            }
+            if (d.isUseful(clauses.size()))
+            {
+                @Nullable ValueResult viaDispatch = calculateViaDispatch(d, value, state, subItems);
+                if (viaDispatch != null)
+                    return viaDispatch;
+            }
+        }
+        
         for (MatchClause clause : clauses)
         {
             ValueResult patternMatch;
@@ -389,6 +472,119 @@ public class MatchExpression extends NonOperatorExpression
         throw new EvaluationException(new UserException("No matching clause found in expression: \"" + save(SaveDestination.TO_STRING, BracketedStatus.NEED_BRACKETS, TableAndColumnRenames.EMPTY) + "\""), this, ExecutionType.MATCH, state, subItems.build());
     }
 
+    // Only tries the clauses which could possibly match, in order.  Returns null
+    // if the value can't be looked up, in which case all clauses should be tried.
+    @OnThread(Tag.Simulation)
+    private @Nullable ValueResult calculateViaDispatch(Dispatch dispatch, @Value Object value, EvaluateState state, ImmutableList.Builder<ValueResult> subItems) throws EvaluationException, InternalException
+    {
+        int[] literalClauses = Dispatch.NO_CLAUSES;
+        if (!dispatch.byLiteral.isEmpty())
+        {
+            // ComparableValue can't throw from hashCode, so if a list or record value
+            // contains an error, it hashes to a fixed bucket and would silently miss the
+            // literal clauses.  Instead we try every clause in order as usual, which gives
+            // the error from the first clause that needs to look at the value:
+            if (!(value instanceof Number || value instanceof String || value instanceof Boolean || value instanceof TemporalAccessor))
+            {
+                try
+                {
+                    Utility.hashValue(value);
+                }
+                catch (UserException e)
+                {
+                    return null;
+                }
+            }
+            literalClauses = dispatch.byLiteral.getOrDefault(new ComparableValue(value), Dispatch.NO_CLAUSES);
+        }
+        int[] tagClauses = value instanceof TaggedValue ? dispatch.byTag.getOrDefault(((TaggedValue) value).getTagIndex(), Dispatch.NO_CLAUSES) : Dispatch.NO_CLAUSES;
+        int[] alwaysClauses = dispatch.always;
+        // Merge the three ascending lists, so we try the candidate clauses in order:
+        int nextLiteral = 0, nextTag = 0, nextAlways = 0;
+        while (true)
+        {
+            int clauseIndex = Math.min(nextLiteral < literalClauses.length ? literalClauses[nextLiteral] : Integer.MAX_VALUE,
+                Math.min(nextTag < tagClauses.length ? tagClauses[nextTag] : Integer.MAX_VALUE,
+                    nextAlways < alwaysClauses.length ? alwaysClauses[nextAlways] : Integer.MAX_VALUE));
+            if (clauseIndex == Integer.MAX_VALUE)
+                break;
+            // A clause may be in more than one list:
+            if (nextLiteral < literalClauses.length && literalClauses[nextLiteral] == clauseIndex)
+                nextLiteral += 1;
+            if (nextTag < tagClauses.length && tagClauses[nextTag] == clauseIndex)
+                nextTag += 1;
+            if (nextAlways < alwaysClauses.length && alwaysClauses[nextAlways] == clauseIndex)
+                nextAlways += 1;
+
+            MatchClause clause = clauses.get(clauseIndex);
+            ValueResult patternMatch;
+            try
+            {
+                patternMatch = clause.matches(value, state);
+                subItems.add(patternMatch);
+            }
+            catch (EvaluationException e)
+            {
+                throw new EvaluationException(e, this, ExecutionType.MATCH, state, subItems.build());
+            }
+            if (Utility.cast(patternMatch.value, Boolean.class))
+            {
+                ValueResult clauseOutcomeResult = fetchSubExpression(clause.outcome, patternMatch.evaluateState, subItems);
+                return result(clauseOutcomeResult.value, state, subItems.build());
+            }
+        }
+        throw new EvaluationException(new UserException("No matching clause found in expression: \"" + save(SaveDestination.TO_STRING, BracketedStatus.NEED_BRACKETS, TableAndColumnRenames.EMPTY) + "\""), this, ExecutionType.MATCH, state, subItems.build());
+    }
+
+    /**
+     * Sorts the clauses by what they could match.  A guard-free literal pattern can only match
+     * that value, and a guard-free tag pattern (e.g. None, or Some(x)) can only match that tag.
+     * Any other pattern might match anything, so its clause must always be tried.
+     */
+    @OnThread(Tag.Simulation)
+    private Dispatch makeDispatch(EvaluateState state) throws EvaluationException, InternalException
+    {
+        HashMap<ComparableValue, ArrayList<Integer>> byLiteral = new HashMap<>();
+        HashMap<Integer, ArrayList<Integer>> byTag = new HashMap<>();
+        ArrayList<Integer> always = new ArrayList<>();
+        for (int clauseIndex = 0; clauseIndex < clauses.size(); clauseIndex++)
+        {
+            for (Pattern p : clauses.get(clauseIndex).patterns)
+            {
+                ArrayList<Integer> addTo = always;
+                if (p.guard == null && p.pattern instanceof Literal)
+                {
+                    addTo = byLiteral.computeIfAbsent(new ComparableValue(p.pattern.calculateValue(state).value), k -> new ArrayList<>());
+                }
+                else if (p.guard == null)
+                {
+                    @Nullable TagInfo tag = getPatternTag(p.pattern);
+                    if (tag != null)
+                        addTo = byTag.computeIfAbsent(tag.tagIndex, k -> new ArrayList<>());
+                }
+                // Avoid adding the clause twice to the same list:
+                if (addTo.isEmpty() || addTo.get(addTo.size() - 1) != clauseIndex)
+                    addTo.add(clauseIndex);
+            }
+        }
+        HashMap<ComparableValue, int[]> literalArrays = new HashMap<>();
+        byLiteral.forEach((k, v) -> literalArrays.put(k, Ints.toArray(v)));
+        HashMap<Integer, int[]> tagArrays = new HashMap<>();
+        byTag.forEach((k, v) -> tagArrays.put(k, Ints.toArray(v)));
+        return new Dispatch(literalArrays, tagArrays, Ints.toArray(always));
+    }
+    
+    // If the pattern is a tag, or a tag with inner patterns, gets the tag.  Otherwise null.
+    private static @Nullable TagInfo getPatternTag(Expression pattern)
+    {
+        if (pattern instanceof IdentExpression)
+            return ((IdentExpression) pattern).getResolvedConstructor();
+        else if (pattern instanceof CallExpression && ((CallExpression) pattern).getFunction() instanceof IdentExpression)
+            return ((IdentExpression)((CallExpression) pattern).getFunction()).getResolvedConstructor();
+        else
+            return null;
+    }
+
     @Override
     public String save(SaveDestination saveDestination, BracketedStatus surround, TableAndColumnRenames renames)
     {
@@ -40,6 +40,7 @@ import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.Record;
 import xyz.columnal.utility.Utility.RecordMap;
+import xyz.columnal.utility.Utility.RecordShape;
 
 import java.util.HashMap;
 import java.util.Objects;
@@ -53,10 +54,24 @@ public class RecordExpression extends Expression
     // Has to be list of pairs to maintain the same order:
     // Also, duplicates are a type error not a syntax error, so duplicates are possible here.
     private final ImmutableList<Pair<@ExpressionIdentifier String, @Recorded Expression>> members;
+    // The shape of the resulting record, and the slot in it for each member:
+    private final RecordShape shape;
+    private final int[] memberSlots;
 
     public RecordExpression(ImmutableList<Pair<@ExpressionIdentifier String, @Recorded Expression>> members)
     {
         this.members = members;
+        this.shape = RecordShape.of(Utility.mapList(members, m -> m.getFirst()));
+        this.memberSlots = new int[members.size()];
+        for (int i = 0; i < members.size(); i++)
+        {
+            memberSlots[i] = shape.getSlot(members.get(i).getFirst());
+        }
+    }
+
+    ImmutableList<Pair<@ExpressionIdentifier String, @Recorded Expression>> getMembers()
+    {
+        return members;
     }
 
     @Override
@@ -87,15 +102,15 @@ public class RecordExpression extends Expression
     public @OnThread(Tag.Simulation) ValueResult calculateValue(EvaluateState state) throws EvaluationException, InternalException
     {
         ImmutableList.Builder<ValueResult> valuesBuilder = ImmutableList.builderWithExpectedSize(members.size());
-        // If it typechecked, assume no duplicate fields
-        HashMap<@ExpressionIdentifier String, @Value Object> fieldValues = new HashMap<>();
+        // If it typechecked, assume no duplicate fields, so every slot gets filled:
+        @Value Object[] fieldValues = new @Value Object[shape.size()];
 
-        for (Pair<@ExpressionIdentifier String, @Recorded Expression> member : members)
+        for (int i = 0; i < members.size(); i++)
         {
-            fieldValues.put(member.getFirst(), fetchSubExpression(member.getSecond(), state, valuesBuilder).value);
+            fieldValues[memberSlots[i]] = fetchSubExpression(members.get(i).getSecond(), state, valuesBuilder).value;
         }
         
-        return explanation(DataTypeUtility.value(new RecordMap(fieldValues)), ExecutionType.VALUE, state, valuesBuilder.build(), ImmutableList.of(), true);
+        return explanation(DataTypeUtility.value(new RecordMap(shape, fieldValues)), ExecutionType.VALUE, state, valuesBuilder.build(), ImmutableList.of(), true);
     }
 
     @Override
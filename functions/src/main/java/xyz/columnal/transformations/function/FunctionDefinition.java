@@ -31,6 +31,7 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
+import xyz.columnal.data.unit.UnitManager;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.jellytype.JellyType;
@@ -173,35 +174,54 @@ public abstract class FunctionDefinition implements StandardFunctionDefinition
 
     private static TypeMatcher parseFunctionType(String functionName, List<String> typeArgs, List<String> constraints, List<String> unitArgs, String functionType)
     {
-        return typeManager -> {
-            try
+        return new TypeMatcher()
+        {
+            // The parsed signature only depends on the units, so we parse it once and
+            // re-use it as a template, making fresh type variables for each type check.
+            private volatile @Nullable Pair<UnitManager, JellyType> parsed = null;
+            
+            private JellyType getJellyType(TypeManager typeManager) throws UserException, InternalException
+            {
+                Pair<UnitManager, JellyType> cached = parsed;
+                if (cached != null && cached.getFirst() == typeManager.getUnitManager())
+                    return cached.getSecond();
+                JellyType jellyType = JellyType.parse(functionType, typeManager);
+                parsed = new Pair<>(typeManager.getUnitManager(), jellyType);
+                return jellyType;
+            }
+            
+            @Override
+            public Pair<TypeExp, Map<String, Either<MutUnitVar, MutVar>>> makeParamAndReturnType(TypeManager typeManager) throws InternalException
             {
-                Map<String, Either<MutUnitVar, MutVar>> typeVars = new HashMap<>();
-                for (String typeArg : typeArgs)
+                try
                 {
-                    TypeClassRequirements typeClassRequirements = TypeClassRequirements.empty();
-                    for (String constraint : constraints)
+                    Map<String, Either<MutUnitVar, MutVar>> typeVars = new HashMap<>();
+                    for (String typeArg : typeArgs)
                     {
-                        if (constraint.endsWith(" " + typeArg))
+                        TypeClassRequirements typeClassRequirements = TypeClassRequirements.empty();
+                        for (String constraint : constraints)
                         {
-                            typeClassRequirements = TypeClassRequirements.union(typeClassRequirements,
-                                TypeClassRequirements.require(StringUtils.removeEnd(constraint, " " + typeArg), functionName));
+                            if (constraint.endsWith(" " + typeArg))
+                            {
+                                typeClassRequirements = TypeClassRequirements.union(typeClassRequirements,
+                                    TypeClassRequirements.require(StringUtils.removeEnd(constraint, " " + typeArg), functionName));
+                            }
                         }
+
+                        typeVars.put(typeArg, Either.right(new MutVar(null)));
+                    }
+                    for (String unitArg : unitArgs)
+                    {
+                        typeVars.put(unitArg, Either.left(new MutUnitVar()));
                     }
 
-                    typeVars.put(typeArg, Either.right(new MutVar(null)));
+                    return new Pair<>(getJellyType(typeManager).makeTypeExp(ImmutableMap.copyOf(typeVars)), typeVars);
                 }
-                for (String unitArg : unitArgs)
+                catch (UserException | InternalException e)
                 {
-                    typeVars.put(unitArg, Either.left(new MutUnitVar()));
+                    // It's us that wrote the type, so user exceptions become internal exceptions:
+                    throw new InternalException("Error in built-in function " + functionName, e);
                 }
-                
-                return new Pair<>(JellyType.parse(functionType, typeManager).makeTypeExp(ImmutableMap.copyOf(typeVars)), typeVars);
-            }
-            catch (UserException | InternalException e)
-            {
-                // It's us that wrote the type, so user exceptions become internal exceptions:
-                throw new InternalException("Error in built-in function " + functionName, e);
             }
         };
     }
@@ -21,6 +21,8 @@
 package xyz.columnal.transformations.function;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
 import xyz.columnal.log.Log;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.unit.UnitManager;
@@ -69,6 +71,8 @@ import xyz.columnal.transformations.function.text.StringSplit;
 import xyz.columnal.utility.Utility;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -77,7 +81,52 @@ import java.util.stream.Stream;
  */
 public class FunctionList
 {
+    // The function definitions are immutable once constructed, so we build them once
+    // per UnitManager and share them.  Note that weakKeys makes an identity hash map,
+    // which is what we want here.
+    private static final Map<UnitManager, Registry> registries = new MapMaker().weakKeys().makeMap();
+    
+    private static class Registry
+    {
+        private final ImmutableList<FunctionDefinition> allFunctions;
+        // Indexed by name, doc key and full scoped name:
+        private final ImmutableMap<String, FunctionDefinition> byName;
+
+        private Registry(ImmutableList<FunctionDefinition> allFunctions)
+        {
+            this.allFunctions = allFunctions;
+            // Earlier functions take priority, to match the old linear search:
+            HashMap<String, FunctionDefinition> index = new HashMap<>();
+            for (FunctionDefinition functionDefinition : allFunctions)
+            {
+                index.putIfAbsent(functionDefinition.getName(), functionDefinition);
+                index.putIfAbsent(functionDefinition.getDocKey(), functionDefinition);
+                index.putIfAbsent(functionDefinition.getFullName().stream().collect(Collectors.joining("\\")), functionDefinition);
+            }
+            this.byName = ImmutableMap.copyOf(index);
+        }
+    }
+    
+    private static Registry getRegistry(UnitManager unitManager) throws InternalException
+    {
+        Registry registry = registries.get(unitManager);
+        if (registry == null)
+        {
+            // Two threads may race to make it, but the results are equivalent so it doesn't matter who wins:
+            registry = new Registry(makeAllFunctions(unitManager));
+            Registry prev = registries.putIfAbsent(unitManager, registry);
+            if (prev != null)
+                registry = prev;
+        }
+        return registry;
+    }
+    
     public static ImmutableList<FunctionDefinition> getAllFunctions(UnitManager unitManager) throws InternalException
+    {
+        return getRegistry(unitManager).allFunctions;
+    }
+    
+    private static ImmutableList<FunctionDefinition> makeAllFunctions(UnitManager unitManager) throws InternalException
     {
         return Utility.<FunctionDefinition>concatStreams(Arrays.<FunctionDefinition>asList(
             new Absolute(),
@@ -159,12 +208,7 @@ public class FunctionList
 
     public static @Nullable FunctionDefinition lookup(UnitManager mgr, String functionName) throws InternalException
     {
-        for (FunctionDefinition functionDefinition : getAllFunctions(mgr))
-        {
-            if (functionDefinition.getName().equals(functionName) || functionDefinition.getDocKey().equals(functionName) || functionDefinition.getFullName().stream().collect(Collectors.joining("\\")).equals(functionName))
-                return functionDefinition;
-        }
-        return null;
+        return getRegistry(mgr).byName.get(functionName);
     }
 
     public static FunctionLookup getFunctionLookup(UnitManager unitManager)
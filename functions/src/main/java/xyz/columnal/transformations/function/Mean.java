@@ -22,14 +22,12 @@ package xyz.columnal.transformations.function;
 
 import annotation.qual.Value;
 import xyz.columnal.data.datatype.DataType;
-import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
-import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.ListEx;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
@@ -54,16 +52,11 @@ public class Mean extends SingleNumericSummaryFunction
             public @Value Object _call() throws UserException, InternalException
             {
                 ListEx list = arg(0, ListEx.class);
-                int size = list.size();
-                if (size == 0)
+                if (list.size() == 0)
                     throw new UserException("Cannot calculate average of empty list");
-                @Value Number average = DataTypeUtility.value(0L);
-                for (int i = 0; i < size; i++)
-                {
-                    // From http://stackoverflow.com/questions/1346824/is-there-any-way-to-find-arithmetic-mean-better-than-sum-n
-                    average = Utility.addSubtractNumbers(average, Utility.divideNumbers(Utility.addSubtractNumbers(Utility.valueNumber(list.get(i)), average, false), DataTypeUtility.value(i+1)), true);
-                }
-                return average;
+                NumberReduction total = new NumberReduction();
+                total.addAll(list);
+                return total.getAverage();
             }
         };
     }
@@ -0,0 +1,241 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.transformations.function;
+
+import annotation.qual.Value;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.Utility.ListEx;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Reduction kernels for numeric summary functions like sum, average, minimum and maximum.
+ * 
+ * Totals are kept exactly: integers are summed in a long until that overflows,
+ * decimals are summed as a scaled long (i.e. a long count of 10^-scale) while that
+ * fits, and only after that do we fall back to an exact BigDecimal.  Rounding
+ * only happens once, at the end.
+ * 
+ * Lists which can supply their items in bulk as primitive longs (i.e. number columns)
+ * are read that way, which avoids boxing every item.
+ */
+@OnThread(Tag.Simulation)
+public class NumberReduction
+{
+    // How many items to fetch at once from lists which support bulk fetch:
+    private static final int CHUNK_SIZE = 4096;
+    // Powers of ten which fit in a long:
+    private static final long[] POWERS_OF_TEN = new long[19];
+    static
+    {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+    
+    // The total is longTotal * 10^-scale, unless bigTotal is non-null,
+    // in which case it is bigTotal.
+    private long longTotal = 0;
+    private int scale = 0;
+    private @Nullable BigDecimal bigTotal = null;
+    // Have we seen any BigDecimal?  If so, result is a BigDecimal:
+    private boolean anyDecimal = false;
+    private int count = 0;
+
+    public void add(long n)
+    {
+        count += 1;
+        if (bigTotal == null)
+        {
+            try
+            {
+                longTotal = Math.addExact(longTotal, scale == 0 ? n : Math.multiplyExact(n, POWERS_OF_TEN[scale]));
+                return;
+            }
+            catch (ArithmeticException e)
+            {
+                bigTotal = BigDecimal.valueOf(longTotal, scale);
+            }
+        }
+        bigTotal = bigTotal.add(BigDecimal.valueOf(n));
+    }
+    
+    public void add(@Value Number n)
+    {
+        if (!(n instanceof BigDecimal))
+        {
+            add(n.longValue());
+            return;
+        }
+        count += 1;
+        anyDecimal = true;
+        BigDecimal bd = (BigDecimal) n;
+        if (bigTotal == null)
+        {
+            if (addScaled(bd))
+                return;
+            bigTotal = BigDecimal.valueOf(longTotal, scale);
+        }
+        bigTotal = bigTotal.add(bd);
+    }
+
+    // Returns true if successful, false if we need to switch to BigDecimal
+    private boolean addScaled(BigDecimal bd)
+    {
+        int itemScale = Math.max(0, bd.scale());
+        if (itemScale >= POWERS_OF_TEN.length || bd.unscaledValue().bitLength() >= 63)
+            return false;
+        try
+        {
+            long unscaled = bd.scale() < 0 ? bd.setScale(0).longValueExact() : bd.unscaledValue().longValue();
+            if (itemScale > scale)
+            {
+                longTotal = Math.multiplyExact(longTotal, POWERS_OF_TEN[itemScale - scale]);
+                scale = itemScale;
+            }
+            longTotal = Math.addExact(longTotal, Math.multiplyExact(unscaled, POWERS_OF_TEN[scale - itemScale]));
+            return true;
+        }
+        catch (ArithmeticException e)
+        {
+            // Note that we may have rescaled longTotal before the exception,
+            // but that's fine as scale is also updated to match.
+            return false;
+        }
+    }
+    
+    public int getCount()
+    {
+        return count;
+    }
+    
+    public @Value Number getTotal()
+    {
+        if (bigTotal != null)
+            return DataTypeUtility.value(bigTotal.round(MathContext.DECIMAL128));
+        else if (anyDecimal)
+            return DataTypeUtility.value(BigDecimal.valueOf(longTotal, scale));
+        else
+            return DataTypeUtility.value(longTotal);
+    }
+    
+    public @Value Number getAverage() throws UserException
+    {
+        if (count == 0)
+            throw new UserException("Cannot calculate average of empty list");
+        // Just one division, at the end:
+        if (bigTotal != null)
+            return Utility.divideNumbers(DataTypeUtility.value(bigTotal), DataTypeUtility.value(count));
+        return Utility.divideNumbers(getTotal(), DataTypeUtility.value(count));
+    }
+
+    /**
+     * Adds all the items in the given list of numbers.
+     */
+    public void addAll(ListEx list) throws InternalException, UserException
+    {
+        int size = list.size();
+        long[] chunk = new long[Math.min(size, CHUNK_SIZE)];
+        for (int start = 0; start < size; start += CHUNK_SIZE)
+        {
+            int end = Math.min(size, start + CHUNK_SIZE);
+            if (list.getLongs(start, end, chunk))
+            {
+                for (int i = 0; i < end - start; i++)
+                {
+                    add(chunk[i]);
+                }
+            }
+            else
+            {
+                for (int i = start; i < end; i++)
+                {
+                    add(Utility.valueNumber(list.get(i)));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Finds the minimum (or maximum) in a non-empty list of numbers.  If there
+     * are several equal extreme items, the earliest is returned.
+     */
+    public static @Value Number extreme(ListEx list, boolean maximum) throws InternalException, UserException
+    {
+        int size = list.size();
+        if (size == 0)
+            throw new InternalException("Extreme of empty list");
+        // Best so far, as a long, valid if bestNumber is null:
+        long bestLong = 0;
+        @Nullable @Value Number bestNumber = null;
+        boolean haveBest = false;
+        long[] chunk = new long[Math.min(size, CHUNK_SIZE)];
+        for (int start = 0; start < size; start += CHUNK_SIZE)
+        {
+            int end = Math.min(size, start + CHUNK_SIZE);
+            if (list.getLongs(start, end, chunk))
+            {
+                for (int i = 0; i < end - start; i++)
+                {
+                    long l = chunk[i];
+                    if (!haveBest)
+                    {
+                        bestLong = l;
+                        haveBest = true;
+                    }
+                    else if (bestNumber == null ? (maximum ? l > bestLong : l < bestLong) : isBetter(DataTypeUtility.value(l), bestNumber, maximum))
+                    {
+                        bestLong = l;
+                        bestNumber = null;
+                    }
+                }
+            }
+            else
+            {
+                for (int i = start; i < end; i++)
+                {
+                    @Value Number n = Utility.valueNumber(list.get(i));
+                    if (!haveBest || isBetter(n, bestNumber == null ? DataTypeUtility.value(bestLong) : bestNumber, maximum))
+                    {
+                        bestNumber = n;
+                        haveBest = true;
+                    }
+                }
+            }
+        }
+        return bestNumber != null ? bestNumber : DataTypeUtility.value(bestLong);
+    }
+
+    private static boolean isBetter(@Value Number candidate, @Value Number best, boolean maximum)
+    {
+        int cmp = Utility.compareNumbers(candidate, best);
+        return maximum ? cmp > 0 : cmp < 0;
+    }
+}
@@ -22,14 +22,12 @@ package xyz.columnal.transformations.function;
 
 import annotation.qual.Value;
 import xyz.columnal.data.datatype.DataType;
-import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
-import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.ListEx;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
@@ -56,16 +54,9 @@ public class Sum extends SingleNumericSummaryFunction
         @Override
         public @Value Object _call() throws UserException, InternalException
         {
-            // If there are non-integers this will get widened.  And if not, it will stay Integer
-            // which will be faster:
-            @Value Number total = DataTypeUtility.value(Integer.valueOf(0));
-            ListEx list = arg(0, ListEx.class);
-            int size = list.size();
-            for (int i = 0; i < size; i++)
-            {
-                total = Utility.addSubtractNumbers(total, Utility.valueNumber(list.get(i)), true);
-            }
-            return total;
+            NumberReduction total = new NumberReduction();
+            total.addAll(arg(0, ListEx.class));
+            return total.getTotal();
         }
     }
 }
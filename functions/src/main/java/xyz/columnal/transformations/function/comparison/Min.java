@@ -27,6 +27,7 @@ import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.transformations.function.FunctionDefinition;
+import xyz.columnal.transformations.function.NumberReduction;
 import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.Utility;
@@ -61,6 +62,9 @@ public class Min extends FunctionDefinition
             else
             {
                 @Value Object min = list.get(0);
+                if (min instanceof Number)
+                    return NumberReduction.extreme(list, false);
+
                 for (int i = 1; i < list.size(); i++)
                 {
                     @Value Object val = list.get(i);
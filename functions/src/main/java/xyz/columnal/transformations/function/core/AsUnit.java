@@ -21,7 +21,6 @@
 package xyz.columnal.transformations.function.core;
 
 import annotation.qual.Value;
-import org.sosy_lab.common.rationals.Rational;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.TypeManager;
@@ -32,13 +31,11 @@ import xyz.columnal.transformations.function.FunctionDefinition;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.adt.Either;
-import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
 
 public class AsUnit extends FunctionDefinition
 {
@@ -55,15 +52,8 @@ public class AsUnit extends FunctionDefinition
             Unit dest = paramTypes.apply("u").getLeft("Variable u should be unit but was type");
             Unit orig = paramTypes.apply("v").getLeft("Variable v should be unit but was type");
 
-            Pair<Rational, Unit> destToCanon = typeManager.getUnitManager().canonicalise(dest);
-            Pair<Rational, Unit> origToCanon = typeManager.getUnitManager().canonicalise(orig);
-            
-            if (!destToCanon.getSecond().equals(origToCanon.getSecond()))
-            {
-                throw new UserException("No mapping from " + orig + " to " + dest + " because " + orig + " reduces to " + origToCanon.getSecond() + " whereas " + dest + " reduces to " + destToCanon.getSecond());
-            }
-            
-            return new Instance(origToCanon.getFirst().times(destToCanon.getFirst().reciprocal()));
+            // Cached by the unit manager, so this is cheap for each row:
+            return new Instance(typeManager.getUnitManager().getConversionFactor(orig, dest));
         }
         catch (InternalException | UserException e)
         {
@@ -82,9 +72,9 @@ public class AsUnit extends FunctionDefinition
     {
         private final @Value BigDecimal scaleFactor;
 
-        private Instance(Rational scaleFactor)
+        private Instance(BigDecimal scaleFactor)
         {
-            this.scaleFactor = DataTypeUtility.value(new BigDecimal(scaleFactor.getNum()).divide(new BigDecimal(scaleFactor.getDen()), MathContext.DECIMAL128));
+            this.scaleFactor = DataTypeUtility.value(scaleFactor);
         }
 
         @Override
@@ -22,8 +22,10 @@ package xyz.columnal.transformations.function.list;
 
 import annotation.funcdoc.qual.FuncDocKey;
 import annotation.qual.Value;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.ListIndex;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
@@ -59,6 +61,10 @@ public class InList extends FunctionDefinition
         {
             ListEx list = Utility.cast(arg(0), ListEx.class);
             @Value Object target = arg(1);
+            // Columns and constant lists have a cached hash index:
+            @Nullable ListIndex index = ListIndex.getColumnIndex(list);
+            if (index != null)
+                return DataTypeUtility.value(index.contains(target));
             for (int i = 0; i < list.size(); i++)
             {
                 if (Utility.compareValues(list.get(i), target) == 0)
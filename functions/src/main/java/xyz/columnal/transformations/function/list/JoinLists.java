@@ -21,6 +21,9 @@
 package xyz.columnal.transformations.function.list;
 
 import annotation.qual.Value;
+import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.TypeManager;
@@ -54,46 +57,125 @@ public class JoinLists extends FunctionDefinition
         @Override
         public @OnThread(Tag.Simulation) @Value Object _call() throws InternalException, UserException
         {
-            ListEx listOfLists = arg(0, ListEx.class);
-            return DataTypeUtility.value(new ListEx()
+            return DataTypeUtility.value(new JoinedList(arg(0, ListEx.class)));
+        }
+    }
+
+    /**
+     * The concatenation of a list of lists.  On first access we fetch all the
+     * sub-lists and record the offset at which each one starts, after which
+     * get is a binary search (or a direct hit, when accessing sequentially).
+     */
+    private static class JoinedList extends ListEx
+    {
+        private final ListEx listOfLists;
+        private ListEx @MonotonicNonNull [] subLists;
+        // starts[i] is the index in the joined list of the first item
+        // in subLists[i].  There is an extra item at the end, which is the total size.
+        private int @MonotonicNonNull [] starts;
+        // The sub-list which was last accessed, as it's likely the next access is in the same one:
+        private int lastSubList = 0;
+
+        public JoinedList(ListEx listOfLists)
+        {
+            this.listOfLists = listOfLists;
+        }
+
+        @EnsuresNonNull({"subLists", "starts"})
+        private void calculateStarts() throws InternalException, UserException
+        {
+            if (subLists != null && starts != null)
+                return;
+            int count = listOfLists.size();
+            ListEx[] lists = new ListEx[count];
+            int[] listStarts = new int[count + 1];
+            for (int i = 0; i < count; i++)
+            {
+                lists[i] = Utility.cast(listOfLists.get(i), ListEx.class);
+                listStarts[i + 1] = listStarts[i] + lists[i].size();
+            }
+            subLists = lists;
+            starts = listStarts;
+        }
+
+        @Override
+        public int size() throws InternalException, UserException
+        {
+            calculateStarts();
+            return starts[starts.length - 1];
+        }
+
+        // Finds the index of the sub-list containing the given valid index
+        @RequiresNonNull("starts")
+        private int findSubList(int index)
+        {
+            // Read once, as another thread may be updating it:
+            int last = lastSubList;
+            if (last < subListCount() && starts[last] <= index && index < starts[last + 1])
+                return last;
+            // Find the last start which is <= index.  Empty lists have
+            // the same start as the next list, so we must find the last:
+            int low = 0;
+            int high = subListCount() - 1;
+            while (low < high)
             {
-                private int cachedSize = -1;
-                
-                @Override
-                public int size() throws InternalException, UserException
+                int mid = (low + high + 1) >>> 1;
+                if (starts[mid] <= index)
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+            lastSubList = low;
+            return low;
+        }
+
+        @RequiresNonNull("starts")
+        private int subListCount()
+        {
+            return starts.length - 1;
+        }
+
+        @Override
+        public @Value Object get(int index) throws InternalException, UserException
+        {
+            calculateStarts();
+            if (index < 0 || index >= size())
+                // Add one to convert back to user index:
+                throw new UserException("Element index " + (index + 1) + " beyond end of list, which is of size " + size());
+            int subList = findSubList(index);
+            return subLists[subList].get(index - starts[subList]);
+        }
+
+        @Override
+        public boolean getLongs(int fromIncl, int toExcl, long[] dest) throws InternalException, UserException
+        {
+            calculateStarts();
+            if (fromIncl < 0 || toExcl > size())
+                return false;
+            // Ask each sub-list in turn for its part of the range:
+            int destIndex = 0;
+            int cur = fromIncl;
+            while (cur < toExcl)
+            {
+                int subList = findSubList(cur);
+                int subStart = starts[subList];
+                int end = Math.min(toExcl, starts[subList + 1]);
+                if (destIndex == 0)
                 {
-                    if (cachedSize < 0)
-                    {
-                        cachedSize = 0;
-                        for (int i = 0; i < listOfLists.size(); i++)
-                        {
-                            cachedSize += Utility.cast(listOfLists.get(i), ListEx.class).size();
-                        }
-                    }
-                    return cachedSize;
+                    if (!subLists[subList].getLongs(cur - subStart, end - subStart, dest))
+                        return false;
                 }
-
-                @Override
-                public @Value Object get(int index) throws InternalException, UserException
+                else
                 {
-                    // We could cache the individual list sizes.
-                    for (int i = 0; i < listOfLists.size(); i++)
-                    {
-                        ListEx subList = Utility.cast(listOfLists.get(i), ListEx.class);
-                        int subListSize = subList.size(); 
-                        if (index < subListSize)
-                        {
-                            return subList.get(index);
-                        }
-                        else
-                        {
-                            index -= subListSize;
-                        }
-                    }
-                    // Add one to convert back to user index:
-                    throw new UserException("Element index " + (index + 1) + " beyond end of list, which is of size " + size());
+                    long[] part = new long[end - cur];
+                    if (!subLists[subList].getLongs(cur - subStart, end - subStart, part))
+                        return false;
+                    System.arraycopy(part, 0, dest, destIndex, part.length);
                 }
-            });
+                destIndex += end - cur;
+                cur = end;
+            }
+            return true;
         }
     }
 }
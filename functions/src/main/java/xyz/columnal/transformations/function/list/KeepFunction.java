@@ -21,8 +21,8 @@
 package xyz.columnal.transformations.function.list;
 
 import annotation.qual.Value;
-import com.google.common.collect.ImmutableList;
 import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
@@ -35,9 +35,10 @@ import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.ListEx;
-import xyz.columnal.utility.Utility.ListExList;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
+import java.util.Arrays;
+
 public class KeepFunction extends FunctionDefinition
 {
     public KeepFunction() throws InternalException
@@ -54,20 +55,58 @@ public class KeepFunction extends FunctionDefinition
             @OnThread(Tag.Simulation)
             public @Value Object call2(ListEx list, ValueFunction keep) throws InternalException, UserException
             {
-                // We could copy or share here.  My guess is that usually
-                // the argument will be a column, so share is the better
-                // implementation.  However, copy is simpler.
-
-                ImmutableList.Builder<@Value Object> items = ImmutableList.builder();
-                for (int i = 0; i < list.size(); i++)
+                // We share rather than copy: the result is a view of the
+                // kept items of the original list, which is usually a column.
+                // The predicate must still be called on every item now,
+                // so that any error is reported by this call.
+                // (If the result is only summed, counted or searched, CallExpression
+                // skips this and does the select as part of a single pass.)
+                int size = list.size();
+                int[] keptIndexes = new int[size];
+                int kept = 0;
+                for (int i = 0; i < size; i++)
                 {
                     @Value Object x = list.get(i);
                     if (Utility.cast(keep.call(new @Value Object[] {x}), Boolean.class))
-                        items.add(x);
+                        keptIndexes[kept++] = i;
                 }
                 
-                return new ListExList(items.build());
+                if (kept == size)
+                    return DataTypeUtility.value(list);
+                else if (kept == 0)
+                    return ListEx.empty();
+                else
+                    return DataTypeUtility.value(new KeptList(list, Arrays.copyOf(keptIndexes, kept)));
             }
         };
     }
+
+    /**
+     * A view of some items of another list, by their index in that list.
+     */
+    private static class KeptList extends ListEx
+    {
+        private final ListEx original;
+        private final int[] keptIndexes;
+
+        public KeptList(ListEx original, int[] keptIndexes)
+        {
+            this.original = original;
+            this.keptIndexes = keptIndexes;
+        }
+
+        @Override
+        public int size() throws InternalException, UserException
+        {
+            return keptIndexes.length;
+        }
+
+        @Override
+        public @Value Object get(int index) throws InternalException, UserException
+        {
+            if (index < 0 || index >= keptIndexes.length)
+                throw new InternalException("Accessing element " + index + " of list of size " + keptIndexes.length);
+            return original.get(keptIndexes[index]);
+        }
+    }
 }
@@ -21,7 +21,6 @@
 package xyz.columnal.transformations.function.list;
 
 import annotation.qual.Value;
-import com.google.common.collect.ImmutableList;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
@@ -37,6 +36,8 @@ import xyz.columnal.utility.Utility.ListEx;
 import xyz.columnal.utility.Utility.ListExList;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
+import java.util.Arrays;
+
 public class MapFunction extends FunctionDefinition
 {
     public MapFunction() throws InternalException
@@ -53,14 +54,17 @@ public class MapFunction extends FunctionDefinition
             @OnThread(Tag.Simulation)
             public @Value Object call2(ListEx list, ValueFunction f) throws InternalException, UserException
             {
-                ImmutableList.Builder<@Value Object> items = ImmutableList.builderWithExpectedSize(list.size());
-                for (int i = 0; i < list.size(); i++)
+                // All items are calculated now, so that any error is reported by this call,
+                // but they go straight into the array which backs the result:
+                int size = list.size();
+                @Value Object[] items = new @Value Object[size];
+                for (int i = 0; i < size; i++)
                 {
                     @Value Object x = list.get(i);
-                    items.add(f.call(new @Value Object[] {x}));
+                    items[i] = f.call(new @Value Object[] {x});
                 }
                 
-                return new ListExList(items.build());
+                return new ListExList(Arrays.asList(items));
             }
         };
     }
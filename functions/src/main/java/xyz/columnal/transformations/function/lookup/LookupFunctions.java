@@ -22,8 +22,10 @@ package xyz.columnal.transformations.function.lookup;
 
 import annotation.qual.Value;
 import com.google.common.collect.ImmutableList;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.ListIndex;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
@@ -136,8 +138,29 @@ public class LookupFunctions
 
     // Gets the next index, or empty if successfully reached end of list and found no more:
     @OnThread(Tag.Simulation)
-    private static SimulationSupplier<OptionalInt> lookupIndexes(ListEx targetList, @Value Object item)
+    private static SimulationSupplier<OptionalInt> lookupIndexes(ListEx targetList, @Value Object item) throws InternalException, UserException
     {
+        // If the list is a column, we can use a hash index which gets re-used
+        // across all rows and all lookups on that column:
+        @Nullable ListIndex columnIndex = ListIndex.getColumnIndex(targetList);
+        if (columnIndex != null)
+        {
+            int[] positions = columnIndex.getPositions(item);
+            return new SimulationSupplier<OptionalInt>()
+            {
+                int nextPosition = 0;
+
+                @Override
+                public OptionalInt get() throws InternalException, UserException
+                {
+                    if (nextPosition < positions.length)
+                        return OptionalInt.of(positions[nextPosition++]);
+                    else
+                        return OptionalInt.empty();
+                }
+            };
+        }
+        
         return new SimulationSupplier<OptionalInt>()
         {
             int nextToCheck = 0;
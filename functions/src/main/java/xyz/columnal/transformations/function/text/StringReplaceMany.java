@@ -21,8 +21,16 @@
 package xyz.columnal.transformations.function.text;
 
 import annotation.qual.Value;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.MapMaker;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.DataTypeValue;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
@@ -35,6 +43,15 @@ import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.ListEx;
 import xyz.columnal.utility.Utility.Record;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 public class StringReplaceMany extends FunctionDefinition
 {
     public StringReplaceMany() throws InternalException
@@ -48,6 +65,13 @@ public class StringReplaceMany extends FunctionDefinition
         return new Instance();
     }
 
+    // Compiled matchers, keyed by the list of find and replace strings (alternating):
+    private static final Cache<ImmutableList<String>, Replacer> replacerCache = CacheBuilder.newBuilder().maximumSize(50).build();
+    // Compiled matchers for lists which are constant or whole columns, keyed by the list's identity.
+    // Most calls pass the same such list for every row, so this saves looking at its content each time.
+    // Note that weakKeys makes an identity hash map, which is what we want for list identities:
+    private static final Map<Object, IdentifiedReplacer> replacersByIdentity = new MapMaker().weakKeys().makeMap();
+
     private static class Instance extends ValueFunction
     {
         @Override
@@ -55,41 +79,182 @@ public class StringReplaceMany extends FunctionDefinition
         {
             ListEx replacements = arg(0, ListEx.class);
             @Value String whole = arg(1, String.class);
-            String[] finds = new String[replacements.size()];
+            return getReplacer(replacements).replaceAll(whole);
+        }
+
+        @OnThread(Tag.Simulation)
+        private static Replacer getReplacer(ListEx replacements) throws InternalException, UserException
+        {
+            @Nullable Object identity = replacements.getColumnIdentity();
+            if (identity == null)
+                return getReplacerByContent(replacements);
+            // Constant lists are never edited:
+            long editVersion = identity instanceof DataTypeValue ? ((DataTypeValue) identity).getEditVersion() : 0;
+            @Nullable IdentifiedReplacer cached = replacersByIdentity.get(identity);
+            if (cached != null && cached.editVersion == editVersion && cached.size == replacements.size())
+                return cached.replacer;
+            Replacer replacer = getReplacerByContent(replacements);
+            replacersByIdentity.put(identity, new IdentifiedReplacer(editVersion, replacements.size(), replacer));
+            return replacer;
+        }
+
+        @OnThread(Tag.Simulation)
+        private static Replacer getReplacerByContent(ListEx replacements) throws InternalException, UserException
+        {
+            ImmutableList.Builder<String> findsAndReplaces = ImmutableList.builderWithExpectedSize(replacements.size() * 2);
+            for (int i = 0; i < replacements.size(); i++)
+            {
+                Record record = Utility.cast(replacements.get(i), Record.class);
+                findsAndReplaces.add(Utility.cast(record.getField("find"), String.class));
+                findsAndReplaces.add(Utility.cast(record.getField("replace"), String.class));
+            }
+            ImmutableList<String> key = findsAndReplaces.build();
+            Replacer replacer = replacerCache.getIfPresent(key);
+            if (replacer == null)
+            {
+                replacer = new Replacer(key);
+                replacerCache.put(key, replacer);
+            }
+            return replacer;
+        }
+    }
+
+    private static class IdentifiedReplacer
+    {
+        private final long editVersion;
+        private final int size;
+        private final Replacer replacer;
+
+        private IdentifiedReplacer(long editVersion, int size, Replacer replacer)
+        {
+            this.editVersion = editVersion;
+            this.size = size;
+            this.replacer = replacer;
+        }
+    }
+
+    /**
+     * A trie of all the find strings, which lets us find which
+     * (if any) of the find strings occurs at a given position by
+     * walking the trie, rather than checking each find string in turn.
+     */
+    private static class Replacer
+    {
+        private static class Node
+        {
+            // Sorted, for binary search:
+            private final char[] childChars;
+            private final Node[] children;
+            // Index of the find string which ends here, or Integer.MAX_VALUE if none:
+            private final int findIndex;
+            // Lowest find index anywhere in this node or its descendants:
+            private final int minFindIndex;
+
+            private Node(TreeMap<Character, Node> children, int findIndex)
+            {
+                this.childChars = new char[children.size()];
+                this.children = new Node[children.size()];
+                int min = findIndex;
+                int i = 0;
+                for (Entry<Character, Node> child : children.entrySet())
+                {
+                    childChars[i] = child.getKey();
+                    this.children[i] = child.getValue();
+                    min = Math.min(min, child.getValue().minFindIndex);
+                    i += 1;
+                }
+                this.findIndex = findIndex;
+                this.minFindIndex = min;
+            }
+
+            private @Nullable Node getChild(char c)
+            {
+                int i = Arrays.binarySearch(childChars, c);
+                return i < 0 ? null : children[i];
+            }
+        }
+
+        private final Node root;
+        private final String[] finds;
+        private final String[] replaces;
+
+        public Replacer(ImmutableList<String> findsAndReplaces)
+        {
+            String[] finds = new String[findsAndReplaces.size() / 2];
             String[] replaces = new String[finds.length];
             for (int i = 0; i < finds.length; i++)
             {
-                Record record = Utility.cast(replacements.get(i), Record.class);
-                finds[i] = Utility.cast(record.getField("find"), String.class);
-                replaces[i] = Utility.cast(record.getField("replace"), String.class);
+                finds[i] = findsAndReplaces.get(2 * i);
+                replaces[i] = findsAndReplaces.get(2 * i + 1);
             }
-            // Quite naive implementation, could be sped up:
-            StringBuilder stringBuilder = new StringBuilder();
+            this.finds = finds;
+            this.replaces = replaces;
+            // Empty find strings never match:
+            this.root = build(finds, 0, IntStream.range(0, finds.length).filter(i -> !finds[i].isEmpty()).boxed().collect(Collectors.toList()));
+        }
+
+        // Builds the node for the given depth, for the given (non-empty) list of find indexes
+        // which all share the same prefix up to that depth.
+        private static Node build(String[] finds, int depth, List<Integer> findIndexes)
+        {
+            int endingHere = Integer.MAX_VALUE;
+            TreeMap<Character, List<Integer>> byNextChar = new TreeMap<>();
+            for (Integer findIndex : findIndexes)
+            {
+                String find = finds[findIndex];
+                if (find.length() == depth)
+                    // If there are duplicates, the earliest wins:
+                    endingHere = Math.min(endingHere, findIndex);
+                else
+                    byNextChar.computeIfAbsent(find.charAt(depth), c -> new ArrayList<>()).add(findIndex);
+            }
+            TreeMap<Character, Node> children = new TreeMap<>();
+            byNextChar.forEach((c, indexes) -> children.put(c, build(finds, depth + 1, indexes)));
+            return new Node(children, endingHere);
+        }
+
+        /**
+         * Replaces all occurrences.  At each position, we use the earliest
+         * find string in the list which matches there (not necessarily the longest)
+         * and then carry on after the end of that match.
+         */
+        public @Value String replaceAll(@Value String whole)
+        {
+            StringBuilder stringBuilder = null;
             int beginSegment = 0;
             int charIndex = 0;
-            nextChar: while (charIndex < whole.length())
+            while (charIndex < whole.length())
             {
-                for (int findIndex = 0; findIndex < finds.length; findIndex++)
+                // Walk the trie to find the earliest listed find which matches here:
+                int best = Integer.MAX_VALUE;
+                Node node = root;
+                for (int i = charIndex; i < whole.length() && node.minFindIndex < best; i++)
+                {
+                    @Nullable Node next = node.getChild(whole.charAt(i));
+                    if (next == null)
+                        break;
+                    node = next;
+                    best = Math.min(best, node.findIndex);
+                }
+                
+                if (best == Integer.MAX_VALUE)
+                {
+                    charIndex++;
+                }
+                else
                 {
-                    String find = finds[findIndex];
-                    if (whole.startsWith(find, charIndex))
-                    {
-                        if (beginSegment < charIndex)
-                        {
-                            stringBuilder.append(whole, beginSegment, charIndex);
-                        }
-                        stringBuilder.append(replaces[findIndex]);
-                        charIndex += find.length();
-                        beginSegment = charIndex;
-                        continue nextChar;
-                    }
+                    if (stringBuilder == null)
+                        stringBuilder = new StringBuilder();
+                    stringBuilder.append(whole, beginSegment, charIndex);
+                    stringBuilder.append(replaces[best]);
+                    charIndex += finds[best].length();
+                    beginSegment = charIndex;
                 }
-                charIndex++;
             }
-            if (beginSegment == 0) // Replaced nothing, return original
+            if (stringBuilder == null) // Replaced nothing, return original
                 return whole;
             else
-                return DataTypeUtility.value(stringBuilder.append(whole, beginSegment, charIndex).toString());
+                return DataTypeUtility.value(stringBuilder.append(whole, beginSegment, whole.length()).toString());
         }
     }
 }
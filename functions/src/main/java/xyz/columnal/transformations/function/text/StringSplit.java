@@ -37,7 +37,7 @@ import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.utility.Utility.ListEx;
 
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
 public class StringSplit extends FunctionDefinition
 {
@@ -54,28 +54,108 @@ public class StringSplit extends FunctionDefinition
             @Override
             public @OnThread(Tag.Simulation) @Value Object call2(@Value String text, @Value String separator) throws InternalException, UserException
             {
-                String[] split;
                 if (separator.isEmpty())
-                    split = text.codePoints().mapToObj(n -> Utility.codePointToString(n)).toArray(String[]::new);
+                    return DataTypeUtility.value(new CodePointList(text));
                 else
-                    split = text.split(Pattern.quote(separator), -1);
-                return DataTypeUtility.value(new ListEx() {
-
-                    @Override
-                    public int size() throws InternalException, UserException
-                    {
-                        return split.length;
-                    }
-
-                    @Override
-                    public @Value Object get(int index) throws InternalException, UserException
-                    {
-                        if (index < 0 || index >= split.length)
-                            throw new UserException("Invalid list index: " + index);
-                        return DataTypeUtility.value(split[index]);
-                    }
-                });
+                    return DataTypeUtility.value(new SplitList(text, separator));
             }
         };
     }
+
+    /**
+     * The pieces of a text between occurrences of a (non-empty) separator.  The
+     * separator is matched literally, and the pieces are only found as far as
+     * needed, so fetching the first few items of a long text doesn't split the rest.
+     */
+    private static class SplitList extends ListEx
+    {
+        private final String text;
+        private final String separator;
+        // pieceStarts[i] is the position in text of the start of piece i, for i < found
+        private int[] pieceStarts = new int[8];
+        private int found = 0;
+        // Position to search for the next separator from, or -1 if we've reached the end:
+        private int searchFrom = 0;
+
+        public SplitList(String text, String separator)
+        {
+            this.text = text;
+            this.separator = separator;
+        }
+
+        // Finds pieces until we know of at least count of them, or we reach the end.
+        private void findUpTo(int count)
+        {
+            while (found < count && searchFrom >= 0)
+            {
+                if (found == pieceStarts.length)
+                    pieceStarts = Arrays.copyOf(pieceStarts, pieceStarts.length * 2);
+                pieceStarts[found++] = searchFrom;
+                int next = text.indexOf(separator, searchFrom);
+                searchFrom = next < 0 ? -1 : next + separator.length();
+            }
+        }
+
+        @Override
+        public int size() throws InternalException, UserException
+        {
+            findUpTo(Integer.MAX_VALUE);
+            return found;
+        }
+
+        @Override
+        public @Value Object get(int index) throws InternalException, UserException
+        {
+            if (index >= 0 && index < Integer.MAX_VALUE)
+                findUpTo(index + 1);
+            if (index < 0 || index >= found)
+                throw new UserException("Invalid list index: " + index);
+            // The piece ends where the separator before the next piece starts, or at the end of the text:
+            int end = index + 1 < found ? pieceStarts[index + 1] - separator.length() : (searchFrom < 0 ? text.length() : text.indexOf(separator, pieceStarts[index]));
+            return DataTypeUtility.value(text.substring(pieceStarts[index], end));
+        }
+
+        @Override
+        public boolean isInMemory()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Each code point of a text as a separate item.
+     */
+    private static class CodePointList extends ListEx
+    {
+        private final String text;
+        private final int size;
+
+        public CodePointList(String text)
+        {
+            this.text = text;
+            this.size = text.codePointCount(0, text.length());
+        }
+
+        @Override
+        public int size() throws InternalException, UserException
+        {
+            return size;
+        }
+
+        @Override
+        public @Value Object get(int index) throws InternalException, UserException
+        {
+            if (index < 0 || index >= size)
+                throw new UserException("Invalid list index: " + index);
+            // If there are no surrogate pairs, indexes match char positions:
+            int start = size == text.length() ? index : text.offsetByCodePoints(0, index);
+            return DataTypeUtility.value(Utility.codePointToString(text.codePointAt(start)));
+        }
+
+        @Override
+        public boolean isInMemory()
+        {
+            return true;
+        }
+    }
 }
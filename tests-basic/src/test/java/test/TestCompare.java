@@ -66,6 +66,19 @@ public class TestCompare
         less(o(i(1)), o(d(1.01)));
     }
 
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testHashConsistentWithCompare() throws InternalException, UserException
+    {
+        equal(o(i(2), s("hello")), o(i(2), s("hello")));
+        equal(o(i(2)), o(by(2)));
+        equal(o(l(2)), o(i(2)));
+        equal(o(d(1.0)), o(i(1)));
+        equal(o(DataTypeUtility.value(new BigDecimal("100.000"))), o(l(100)));
+        equal(o(DataTypeUtility.value(new BigDecimal("0.500"))), o(d(0.5)));
+        equal(o(DataTypeUtility.value(new BigDecimal("-0.00"))), o(i(0)));
+    }
+
     private @Value BigDecimal d(double v)
     {
         return DataTypeUtility.value(new BigDecimal(v));
@@ -98,6 +111,10 @@ public class TestCompare
     {
         assertEquals(0, Utility.compareLists(a, b));
         assertEquals(0, Utility.compareLists(b, a));
+        for (int i = 0; i < a.size(); i++)
+        {
+            assertEquals(Utility.hashValue(a.get(i)), Utility.hashValue(b.get(i)));
+        }
     }
 
     @OnThread(Tag.Simulation)
@@ -145,6 +145,25 @@ public class TestUnit
         assertEquals(new Pair<>(Rational.of("1"), Unit._test_make(m ,1)), mgr.canonicalise(mgr.loadUse("m^3/(m^2)")));
     }
 
+    @Test
+    public void testConversionCache() throws InternalException, UserException
+    {
+        UnitManager userMgr = new UnitManager();
+        assertEquals(0, new BigDecimal("100").compareTo(userMgr.getConversionFactor(userMgr.loadUse("m"), userMgr.loadUse("cm"))));
+        // Cached result must be the same:
+        assertEquals(0, new BigDecimal("100").compareTo(userMgr.getConversionFactor(userMgr.loadUse("m"), userMgr.loadUse("cm"))));
+        assertThrows(UserException.class, () -> userMgr.getConversionFactor(userMgr.loadUse("m"), userMgr.loadUse("s")));
+
+        // Cache must be cleared when user units change:
+        assertThrows(UserException.class, () -> userMgr.loadUse("wibble"));
+        userMgr.loadUserUnits("@UNIT wibble \"Test\" = 5 * m");
+        assertEquals(new Pair<>(Rational.of("5"), Unit._test_make(userMgr.getDeclared("m"), 1)), userMgr.canonicalise(userMgr.loadUse("wibble")));
+        assertEquals(0, new BigDecimal("500").compareTo(userMgr.getConversionFactor(userMgr.loadUse("wibble"), userMgr.loadUse("cm"))));
+        userMgr.clearAllUser();
+        userMgr.loadUserUnits("@UNIT wibble \"Test\" = 2 * m");
+        assertEquals(0, new BigDecimal("200").compareTo(userMgr.getConversionFactor(userMgr.loadUse("wibble"), userMgr.loadUse("cm"))));
+    }
+
     @Test
     public void parseFail()
     {
@@ -20,22 +20,35 @@
 
 package test.functions;
 
+import annotation.funcdoc.qual.FuncDocKey;
+import annotation.identifier.qual.ExpressionIdentifier;
 import annotation.qual.Value;
 import com.google.common.collect.ImmutableList;
 import com.pholser.junit.quickcheck.From;
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.checkerframework.checker.i18n.qual.Localized;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.Test;
 import org.junit.runner.RunWith;
+import test.DummyManager;
 import xyz.columnal.data.TBasicUtil;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataType.SpecificDataTypeVisitor;
 import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.TypeManager;
+import xyz.columnal.data.unit.Unit;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.transformations.function.list.Count;
+import xyz.columnal.transformations.expression.EvaluateState;
+import xyz.columnal.transformations.expression.Expression;
+import xyz.columnal.transformations.expression.TypeState;
+import xyz.columnal.transformations.expression.function.FunctionLookup;
+import xyz.columnal.transformations.expression.function.StandardFunctionDefinition;
 import xyz.columnal.transformations.function.FunctionDefinition;
+import xyz.columnal.transformations.function.FunctionList;
 import xyz.columnal.transformations.function.list.GetElement;
 import xyz.columnal.transformations.function.comparison.Max;
 import xyz.columnal.transformations.function.comparison.Min;
@@ -43,12 +56,22 @@ import test.gen.GenRandom;
 import test.gen.GenValueList;
 import threadchecker.OnThread;
 import threadchecker.Tag;
+import xyz.columnal.typeExp.MutVar;
+import xyz.columnal.typeExp.TypeExp;
+import xyz.columnal.typeExp.units.MutUnitVar;
+import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.adt.Pair;
+import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.Utility;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
 import java.util.Random;
+import java.util.stream.Collectors;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.*;
@@ -179,6 +202,195 @@ public class PropListFunctions
         }
     }
 
+    @Property(trials = 100)
+    @OnThread(Tag.Simulation)
+    public void propFusedPipeline(@From(GenRandom.class) Random r) throws Throwable
+    {
+        List<Integer> xs = new ArrayList<>();
+        int length = r.nextInt(20);
+        for (int i = 0; i < length; i++)
+        {
+            xs.add(r.nextInt(11) - 5);
+        }
+        String list = xs.stream().map(x -> Integer.toString(x)).collect(Collectors.joining(", ", "[", "]"));
+        // abs and round record each call, so we can check the pipeline is done in one pass,
+        // calling each function once for each item reaching it, in order:
+        String selectThenApply = "@call function\\\\apply each(@call function\\\\select(" + list + ", (@call function\\\\abs(?) > 2)), function\\\\round)";
+        String applyThenSelect = "@call function\\\\select(@call function\\\\apply each(" + list + ", function\\\\round), (@call function\\\\abs(?) > 2))";
+        List<String> selectThenApplyCalls = new ArrayList<>();
+        List<String> applyThenSelectCalls = new ArrayList<>();
+        int sum = 0;
+        int count = 0;
+        boolean anyFour = false;
+        for (int x : xs)
+        {
+            selectThenApplyCalls.add("abs " + x);
+            applyThenSelectCalls.add("round " + x);
+            applyThenSelectCalls.add("abs " + x);
+            if (Math.abs(x) > 2)
+            {
+                selectThenApplyCalls.add("round " + x);
+                sum += x;
+                count += 1;
+                anyFour |= x == 4;
+            }
+        }
+
+        checkFused("@call function\\\\sum(", selectThenApply, ")", sum, selectThenApplyCalls);
+        checkFused("@call function\\\\list length(", applyThenSelect, ")", count, applyThenSelectCalls);
+        checkFused("@call function\\\\any(", selectThenApply, ", (? = 4))", anyFour, selectThenApplyCalls);
+    }
+
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testFusedPipelineError() throws Throwable
+    {
+        // Fused, the element call fails on 3 before the division fails on 0, but the error
+        // should be the division, as it is when the select is done on the whole list first:
+        String pipeline = "@call function\\\\apply each(@call function\\\\select([3, 0], ((10 / ?) > 1)), (@call function\\\\element([5, 6], ?)))";
+        String fusedError = getError("@call function\\\\sum(" + pipeline + ")");
+        String unfusedError = getError("@call function\\\\sum(@if true @then " + pipeline + " @else [] @endif)");
+        assertEquals(unfusedError, fusedError);
+        assertTrue(fusedError, fusedError.toLowerCase().contains("zero"));
+    }
+
+    // Checks the result and the recorded calls of the reduction (prefix, pipeline, suffix),
+    // and that the result is the same when it's not fused:
+    @OnThread(Tag.Simulation)
+    private static void checkFused(String prefix, String pipeline, String suffix, Object expected, List<String> expectedCalls) throws UserException, InternalException
+    {
+        List<String> calls = new ArrayList<>();
+        @Value Object fused = runRecording(prefix + pipeline + suffix, calls);
+        assertEquals(expectedCalls, calls);
+        // An if around the pipeline stops it being fused:
+        @Value Object unfused = runRecording(prefix + "@if true @then " + pipeline + " @else [] @endif" + suffix, new ArrayList<>());
+        if (expected instanceof Boolean)
+        {
+            assertEquals(expected, fused);
+            assertEquals(expected, unfused);
+        }
+        else
+        {
+            assertEquals(0, Utility.compareValues(DataTypeUtility.value((Integer) expected), fused));
+            assertEquals(0, Utility.compareValues(fused, unfused));
+        }
+    }
+
+    @OnThread(Tag.Simulation)
+    private static String getError(String expressionSrc) throws InternalException
+    {
+        try
+        {
+            runRecording(expressionSrc, new ArrayList<>());
+            fail("Expected error from " + expressionSrc);
+            return "";
+        }
+        catch (UserException e)
+        {
+            return e.getLocalizedMessage();
+        }
+    }
+
+    // Like TFunctionUtil.runExpression, but calls to abs and round are recorded in calls
+    @SuppressWarnings("recorded")
+    @OnThread(Tag.Simulation)
+    private static @Value Object runRecording(String expressionSrc, List<String> calls) throws UserException, InternalException
+    {
+        DummyManager mgr = TFunctionUtil.managerWithTestTypes().getFirst();
+        FunctionLookup standard = FunctionList.getFunctionLookup(mgr.getUnitManager());
+        FunctionLookup recording = new FunctionLookup()
+        {
+            @Override
+            public @Nullable StandardFunctionDefinition lookup(String functionName) throws InternalException
+            {
+                @Nullable StandardFunctionDefinition found = standard.lookup(functionName);
+                if (found != null && (found.getName().equals("abs") || found.getName().equals("round")))
+                    return new RecordingFunction(found, calls);
+                return found;
+            }
+
+            @Override
+            public ImmutableList<StandardFunctionDefinition> getAllFunctions() throws InternalException
+            {
+                return standard.getAllFunctions();
+            }
+        };
+        Expression expression = TFunctionUtil.parseExpression(expressionSrc, mgr.getTypeManager(), recording);
+        assertNotNull(expression.checkExpression(TFunctionUtil.dummyColumnLookup(), TypeState.withRowNumber(mgr.getTypeManager(), recording), TFunctionUtil.excOnError()));
+        return expression.calculateValue(new EvaluateState(mgr.getTypeManager(), OptionalInt.empty())).value;
+    }
+
+    private static class RecordingFunction implements StandardFunctionDefinition
+    {
+        private final StandardFunctionDefinition original;
+        private final List<String> calls;
+
+        public RecordingFunction(StandardFunctionDefinition original, List<String> calls)
+        {
+            this.original = original;
+            this.calls = calls;
+        }
+
+        @Override
+        @OnThread(Tag.Simulation)
+        public ValueFunction getInstance(TypeManager typeManager, SimulationFunction<String, Either<Unit, DataType>> paramTypes) throws InternalException, UserException
+        {
+            ValueFunction instance = original.getInstance(typeManager, paramTypes);
+            return new ValueFunction()
+            {
+                @Override
+                @OnThread(Tag.Simulation)
+                protected @Value Object _call() throws InternalException, UserException
+                {
+                    calls.add(original.getName() + " " + Utility.cast(arg(0), Number.class).intValue());
+                    return instance.call(new @Value Object[] {arg(0)});
+                }
+            };
+        }
+
+        @Override
+        public @ExpressionIdentifier String getName()
+        {
+            return original.getName();
+        }
+
+        @Override
+        public ImmutableList<@ExpressionIdentifier String> getFullName()
+        {
+            return original.getFullName();
+        }
+
+        @Override
+        public Pair<TypeExp, Map<String, Either<MutUnitVar, MutVar>>> getType(TypeManager typeManager) throws InternalException
+        {
+            return original.getType(typeManager);
+        }
+
+        @Override
+        public @FuncDocKey String getDocKey()
+        {
+            return original.getDocKey();
+        }
+
+        @Override
+        public @Localized String getMiniDescription()
+        {
+            return original.getMiniDescription();
+        }
+
+        @Override
+        public ImmutableList<String> getParamNames()
+        {
+            return original.getParamNames();
+        }
+
+        @Override
+        public ImmutableList<String> getSynonyms()
+        {
+            return original.getSynonyms();
+        }
+    }
+
     private DataType getInnerType(DataType listType) throws InternalException
     {
         return listType.apply(new SpecificDataTypeVisitor<DataType>() {
@@ -20,9 +20,11 @@
 
 package test.functions;
 
+import annotation.identifier.qual.ExpressionIdentifier;
 import annotation.qual.Value;
 import com.google.common.base.CharMatcher;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.pholser.junit.quickcheck.From;
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
@@ -43,9 +45,14 @@ import test.gen.type.GenTypeAndValueGen.TypeAndValueGen;
 import test.gen.UnicodeStringGenerator;
 import threadchecker.OnThread;
 import threadchecker.Tag;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.Utility.ListEx;
+import xyz.columnal.utility.Utility.RecordMap;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.transformations.expression.function.ValueFunction;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.*;
@@ -111,6 +118,121 @@ public class PropStringFunctions
         }
     }
 
+    @Property(trials = 200)
+    @OnThread(Tag.Simulation)
+    public void propReplaceMany(@From(GenRandom.class) Random r) throws Throwable
+    {
+        // A small alphabet, so that finds often share prefixes and overlap:
+        List<Pair<String, String>> findsAndReplaces = new ArrayList<>();
+        int count = r.nextInt(6);
+        for (int i = 0; i < count; i++)
+        {
+            findsAndReplaces.add(new Pair<>(randomText(r, "abc", r.nextInt(4)), randomText(r, "XYZ", r.nextInt(3))));
+        }
+        
+        // Compare against checking each find in turn, at each position:
+        for (int i = 0; i < 10; i++)
+        {
+            String whole = randomText(r, "abcd", r.nextInt(20));
+            StringBuilder expected = new StringBuilder();
+            int pos = 0;
+            while (pos < whole.length())
+            {
+                @Nullable Pair<String, String> match = null;
+                for (Pair<String, String> findAndReplace : findsAndReplaces)
+                {
+                    // Empty finds never match:
+                    if (!findAndReplace.getFirst().isEmpty() && whole.startsWith(findAndReplace.getFirst(), pos))
+                    {
+                        match = findAndReplace;
+                        break;
+                    }
+                }
+                if (match == null)
+                {
+                    expected.append(whole.charAt(pos));
+                    pos += 1;
+                }
+                else
+                {
+                    expected.append(match.getSecond());
+                    pos += match.getFirst().length();
+                }
+            }
+            assertEquals(whole + " with " + findsAndReplaces, expected.toString(), replaceMany(findsAndReplaces, whole, r.nextBoolean()));
+        }
+    }
+
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testReplaceMany() throws Throwable
+    {
+        // The leftmost match wins, even if listed later:
+        assertEquals("1c", replaceMany(ImmutableList.of(new Pair<>("bc", "2"), new Pair<>("ab", "1")), "abc", false));
+        // At the same position, the first listed wins, even if shorter:
+        assertEquals("1b", replaceMany(ImmutableList.of(new Pair<>("a", "1"), new Pair<>("ab", "2")), "ab", false));
+        assertEquals("2", replaceMany(ImmutableList.of(new Pair<>("ab", "2"), new Pair<>("a", "1")), "ab", true));
+        // We carry on after the end of each match:
+        assertEquals("11a", replaceMany(ImmutableList.of(new Pair<>("aa", "1")), "aaaaa", true));
+        // Empty finds never match:
+        assertEquals("abc", replaceMany(ImmutableList.of(new Pair<>("", "1")), "abc", false));
+        assertEquals("a2", replaceMany(ImmutableList.of(new Pair<>("", "1"), new Pair<>("bc", "2")), "abc", true));
+    }
+
+    @OnThread(Tag.Simulation)
+    private static String replaceMany(List<Pair<String, String>> findsAndReplaces, String whole, boolean constantList) throws Throwable
+    {
+        @SuppressWarnings("nullness") // Will throw if null
+        @NonNull FunctionDefinition replaceMany = FunctionList.lookup(DummyManager.make().getUnitManager(), "replace many");
+        DataType recordType = DataType.record(ImmutableMap.of("find", DataType.TEXT, "replace", DataType.TEXT));
+        @Nullable Pair<ValueFunction, DataType> checked = TFunctionUtil.typeCheckFunction(replaceMany, ImmutableList.of(DataType.array(recordType), DataType.TEXT));
+        assertNotNull(checked);
+        if (checked == null)
+            return "";
+        ImmutableList<@Value Object> items = Utility.<Pair<String, String>, @Value Object>mapListI(findsAndReplaces, p -> DataTypeUtility.value(new RecordMap(ImmutableMap.<@ExpressionIdentifier String, @Value Object>of("find", v(p.getFirst()), "replace", v(p.getSecond())))));
+        ListEx list = DataTypeUtility.value(items);
+        if (constantList)
+        {
+            // Like a list literal, which is its own identity so that what is derived from it can be cached:
+            list = new ListEx()
+            {
+                @Override
+                public int size()
+                {
+                    return items.size();
+                }
+
+                @Override
+                public @Value Object get(int index)
+                {
+                    return items.get(index);
+                }
+
+                @Override
+                @OnThread(Tag.Any)
+                public Object getColumnIdentity()
+                {
+                    return items;
+                }
+            };
+        }
+        // Call twice, as the second may use a cached replacer:
+        @Value Object first = checked.getFirst().call(new @Value Object[] {DataTypeUtility.value(list), v(whole)});
+        @Value Object second = checked.getFirst().call(new @Value Object[] {DataTypeUtility.value(list), v(whole)});
+        assertEquals(first, second);
+        return (String)second;
+    }
+
+    private static String randomText(Random r, String alphabet, int length)
+    {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            s.append(alphabet.charAt(r.nextInt(alphabet.length())));
+        }
+        return s.toString();
+    }
+
     // Shortcut method
     private static @Value String v(String s)
     {
@@ -0,0 +1,48 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test.functions;
+
+import org.junit.Test;
+import xyz.columnal.data.unit.UnitManager;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.transformations.function.FunctionDefinition;
+import xyz.columnal.transformations.function.FunctionList;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestFunctionList
+{
+    @Test
+    public void testLookup() throws InternalException, UserException
+    {
+        UnitManager mgr = new UnitManager();
+        // Registry should be shared between calls for the same UnitManager:
+        assertSame(FunctionList.getAllFunctions(mgr), FunctionList.getAllFunctions(mgr));
+        for (FunctionDefinition functionDefinition : FunctionList.getAllFunctions(mgr))
+        {
+            assertSame(functionDefinition, FunctionList.lookup(mgr, functionDefinition.getDocKey()));
+            assertSame(functionDefinition, FunctionList.lookup(mgr, functionDefinition.getScopedName()));
+        }
+        assertNull(FunctionList.lookup(mgr, "not a function"));
+    }
+}
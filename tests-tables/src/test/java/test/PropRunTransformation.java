@@ -32,28 +32,44 @@ import org.junit.Assert;
 import org.junit.runner.RunWith;
 import test.functions.TFunctionUtil;
 import xyz.columnal.data.Column;
+import xyz.columnal.data.ColumnUtility;
+import xyz.columnal.data.ImmediateDataSource;
+import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.id.ColumnId;
 import xyz.columnal.data.TBasicUtil;
 import xyz.columnal.data.RecordSet;
+import xyz.columnal.data.Table;
 import xyz.columnal.id.TableId;
 import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
 import xyz.columnal.transformations.Aggregate;
+import xyz.columnal.transformations.Check;
+import xyz.columnal.transformations.Check.CheckType;
 import xyz.columnal.transformations.Concatenate;
 import xyz.columnal.transformations.Concatenate.IncompleteColumnHandling;
 import xyz.columnal.transformations.Filter;
 import xyz.columnal.transformations.HideColumns;
+import xyz.columnal.transformations.Join;
+import xyz.columnal.transformations.QueryPlan;
 import xyz.columnal.transformations.Sort;
 import xyz.columnal.transformations.Sort.Direction;
 import xyz.columnal.transformations.Calculate;
 import xyz.columnal.transformations.expression.CallExpression;
+import xyz.columnal.transformations.expression.AddSubtractExpression;
+import xyz.columnal.transformations.expression.AddSubtractExpression.AddSubtractOp;
+import xyz.columnal.transformations.expression.BooleanLiteral;
 import xyz.columnal.transformations.expression.ComparisonExpression;
 import xyz.columnal.transformations.expression.ComparisonExpression.ComparisonOperator;
 import xyz.columnal.transformations.expression.Expression;
+import xyz.columnal.transformations.expression.DivideExpression;
 import xyz.columnal.transformations.expression.IdentExpression;
+import xyz.columnal.transformations.expression.IfThenElseExpression;
 import xyz.columnal.transformations.expression.NumericLiteral;
+import xyz.columnal.transformations.expression.TimesExpression;
+import xyz.columnal.transformations.expression.TypeState;
+import xyz.columnal.transformations.expression.function.FunctionLookup;
 import xyz.columnal.transformations.function.FunctionList;
 import test.gen.GenImmediateData;
 import test.gen.GenRandom;
@@ -61,12 +77,14 @@ import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.IdentifierUtility;
 import xyz.columnal.utility.adt.Pair;
+import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.Utility;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -79,6 +97,7 @@ import java.util.stream.Stream;
 
 import static org.hamcrest.Matchers.comparesEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -131,6 +150,179 @@ public class PropRunTransformation
         Assert.assertEquals(TTableUtil.getRowFreq(src), TTableUtil.getRowFreq(sort.getData()));
     }
 
+    @Property
+    @OnThread(Tag.Simulation)
+    public void testSortSpilled(@From(GenImmediateData.class) GenImmediateData.ImmediateData_Mgr srcTable, @From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        // Sort by a couple of arbitrary columns, in memory and then in short runs spilled to disk.
+        // The sort is stable, so both should give exactly the same order:
+        RecordSet src = srcTable.data().getData();
+        ImmutableList.Builder<Pair<ColumnId, Direction>> sortBy = ImmutableList.builder();
+        for (int i = 0; i < 2; i++)
+        {
+            sortBy.add(new Pair<>(src.getColumns().get(r.nextInt(src.getColumns().size())).getName(), r.nextBoolean() ? Direction.ASCENDING : Direction.DESCENDING));
+        }
+        Sort inMemory = new Sort(srcTable.mgr, TFunctionUtil.ILD, srcTable.data().getId(), sortBy.build());
+        List<List<@Value Object>> expected = TTableUtil.streamFlattened(inMemory.getData()).<List<@Value Object>>map(p -> p.getSecond()).toList();
+
+        long originalBudget = Sort.setMemoryBudget(1 + r.nextInt(2000));
+        try
+        {
+            Sort spilled = new Sort(srcTable.mgr, TFunctionUtil.ILD, srcTable.data().getId(), sortBy.build());
+            assertEquals(expected, TTableUtil.streamFlattened(spilled.getData()).<List<@Value Object>>map(p -> p.getSecond()).toList());
+        }
+        finally
+        {
+            Sort.setMemoryBudget(originalBudget);
+        }
+    }
+
+    @Property(trials = 5)
+    @OnThread(Tag.Simulation)
+    public void testSortLargeStable(@From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        // Enough rows that the sort is split up and merged in parallel, with few distinct
+        // keys so that there are long runs of ties which must stay in their original order:
+        int length = 8193 + r.nextInt(40000);
+        int distinct = 1 + r.nextInt(20);
+        boolean presorted = r.nextInt(3) == 0;
+        List<Integer> keys = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < length; i++)
+        {
+            // Sometimes already in order, so that merges of ordered halves are skipped:
+            keys.add(presorted ? (int)((long)i * distinct / length) : r.nextInt(distinct));
+            indexes.add(i);
+        }
+        DummyManager mgr = new DummyManager();
+        TableId srcId = new TableId("Src");
+        TTableUtil.recordTable(mgr, srcId, length, ImmutableList.of(TTableUtil.intColumn(new ColumnId("K"), keys), TTableUtil.intColumn(new ColumnId("I"), indexes)));
+
+        Direction direction = r.nextBoolean() ? Direction.ASCENDING : Direction.DESCENDING;
+        RecordSet sorted = new Sort(mgr, TFunctionUtil.ILD, srcId, ImmutableList.of(new Pair<>(new ColumnId("K"), direction))).getData();
+        assertEquals(length, sorted.getLength());
+        DataTypeValue sortedKeys = sorted.getColumn(new ColumnId("K")).getType();
+        DataTypeValue sortedIndexes = sorted.getColumn(new ColumnId("I")).getType();
+        boolean[] seen = new boolean[length];
+        int prevKey = 0;
+        int prevIndex = -1;
+        for (int i = 0; i < length; i++)
+        {
+            @SuppressWarnings("units")
+            @TableDataRowIndex int row = i;
+            int key = Utility.cast(sortedKeys.getCollapsed(row), Number.class).intValue();
+            int index = Utility.cast(sortedIndexes.getCollapsed(row), Number.class).intValue();
+            assertTrue("Row " + index + " present once", !seen[index]);
+            seen[index] = true;
+            if (i > 0)
+            {
+                int cmp = direction == Direction.ASCENDING ? Integer.compare(prevKey, key) : Integer.compare(key, prevKey);
+                assertTrue("Keys in order at " + i, cmp <= 0);
+                if (cmp == 0)
+                    assertTrue("Ties in original order at " + i, prevIndex < index);
+            }
+            prevKey = key;
+            prevIndex = index;
+        }
+    }
+
+    @Property(trials = 50)
+    @OnThread(Tag.Simulation)
+    public void testFilterPushdown(@From(GenImmediateData.class) GenImmediateData.ImmediateData_Mgr srcTable, @From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        // Filter after a sort and a calculation, comparing two source columns of the same type
+        // (or one column with itself), which should be moved before both:
+        List<Column> columns = srcTable.data().getData().getColumns();
+        Column target = columns.get(r.nextInt(columns.size()));
+        Column other = target;
+        for (Column c : columns)
+        {
+            if (c != target && c.getType().getType().equals(target.getType().getType()))
+                other = c;
+        }
+        Sort sort = new Sort(srcTable.mgr, TFunctionUtil.ILD, srcTable.data().getId(), ImmutableList.of(new Pair<>(target.getName(), r.nextBoolean() ? Direction.ASCENDING : Direction.DESCENDING)));
+        srcTable.mgr.record(sort);
+        Calculate calculate = new Calculate(srcTable.mgr, TFunctionUtil.ILD, sort.getId(), ImmutableMap.of(new ColumnId("Pushdown Calc"), new NumericLiteral(1, null)));
+        srcTable.mgr.record(calculate);
+        Filter filter = new Filter(srcTable.mgr, TFunctionUtil.ILD, calculate.getId(),
+            new ComparisonExpression(Arrays.asList(IdentExpression.column(target.getName()), IdentExpression.column(other.getName())), ImmutableList.of(ComparisonOperator.LESS_THAN_OR_EQUAL_TO)));
+        srcTable.mgr.record(filter);
+
+        QueryPlan plan = QueryPlan.plan(filter);
+        assertEquals("Calculate " + calculate.getId().getRaw() + " (Sort " + sort.getId().getRaw() + " (Filter " + filter.getId().getRaw() + " (" + srcTable.data().getId().getRaw() + ")))", plan.describe());
+        Table planned = plan.execute();
+        assertEquals(filter.getData().getColumnIds(), planned.getData().getColumnIds());
+        assertEquals(TTableUtil.streamFlattened(filter.getData()).<List<@Value Object>>map(p -> p.getSecond()).toList(), TTableUtil.streamFlattened(planned.getData()).<List<@Value Object>>map(p -> p.getSecond()).toList());
+    }
+
+    @Property(trials = 50)
+    @OnThread(Tag.Simulation)
+    public void testJoinFilterPushdown(@From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        // Tables P(K, A, X) and S(K, B, X) joined on K, so the join's output has
+        // columns P K, A, P X, S K, B and S X, with the clashing names renamed:
+        DummyManager mgr = new DummyManager();
+        TableId primaryId = new TableId("P");
+        TableId secondaryId = new TableId("S");
+        ColumnId key = new ColumnId("K");
+        List<List<Integer>> primaryRows = new ArrayList<>();
+        int primaryLength = r.nextInt(30);
+        for (int i = 0; i < primaryLength; i++)
+        {
+            // A is never 3 in a row which can be matched:
+            int a = r.nextInt(9);
+            primaryRows.add(ImmutableList.of(r.nextInt(5), a >= 3 ? a + 1 : a, r.nextInt(10)));
+        }
+        // A row which never matches, where dividing by A - 3 gives an error:
+        primaryRows.add(r.nextInt(primaryRows.size() + 1), ImmutableList.of(99, 3, r.nextInt(10)));
+        List<List<Integer>> secondaryRows = new ArrayList<>();
+        int secondaryLength = r.nextInt(30);
+        for (int i = 0; i < secondaryLength; i++)
+        {
+            secondaryRows.add(ImmutableList.of(r.nextInt(5), r.nextInt(10), r.nextInt(10)));
+        }
+        TTableUtil.recordTable(mgr, primaryId, primaryRows.size(), ImmutableList.of(
+            TTableUtil.intColumn(key, Utility.mapList(primaryRows, row -> row.get(0))),
+            TTableUtil.intColumn(new ColumnId("A"), Utility.mapList(primaryRows, row -> row.get(1))),
+            TTableUtil.intColumn(new ColumnId("X"), Utility.mapList(primaryRows, row -> row.get(2)))));
+        TTableUtil.recordTable(mgr, secondaryId, secondaryRows.size(), ImmutableList.of(
+            TTableUtil.intColumn(key, Utility.mapList(secondaryRows, row -> row.get(0))),
+            TTableUtil.intColumn(new ColumnId("B"), Utility.mapList(secondaryRows, row -> row.get(1))),
+            TTableUtil.intColumn(new ColumnId("X"), Utility.mapList(secondaryRows, row -> row.get(2)))));
+        Join inner = mgr.record(new Join(mgr, TFunctionUtil.ILD, primaryId, secondaryId, false, ImmutableList.of(new Pair<>(key, key))));
+        Join left = mgr.record(new Join(mgr, TFunctionUtil.ILD, primaryId, secondaryId, true, ImmutableList.of(new Pair<>(key, key))));
+
+        Expression primaryOnly = new ComparisonExpression(Arrays.asList(IdentExpression.column(new ColumnId("P X")), IdentExpression.column(new ColumnId("A"))), ImmutableList.of(ComparisonOperator.LESS_THAN_OR_EQUAL_TO));
+        Expression secondaryOnly = new ComparisonExpression(Arrays.asList(IdentExpression.column(new ColumnId("S X")), IdentExpression.column(new ColumnId("B"))), ImmutableList.of(ComparisonOperator.LESS_THAN_OR_EQUAL_TO));
+        Expression bothSides = new ComparisonExpression(Arrays.asList(IdentExpression.column(new ColumnId("P X")), IdentExpression.column(new ColumnId("S X"))), ImmutableList.of(ComparisonOperator.LESS_THAN_OR_EQUAL_TO));
+        // Fine after the join, but an error on the unmatched row if done before:
+        Expression errorIfMoved = new ComparisonExpression(Arrays.asList(new DivideExpression(new NumericLiteral(10, null), new AddSubtractExpression(Arrays.asList(IdentExpression.column(new ColumnId("A")), new NumericLiteral(3, null)), Arrays.asList(AddSubtractOp.SUBTRACT))), new NumericLiteral(0, null)), ImmutableList.of(ComparisonOperator.GREATER_THAN));
+
+        // Filters using one side go to that side, renamed back to that side's column names:
+        checkJoinPushdown(mgr, inner, primaryOnly, "Join %J (Filter %F (P), S)", false);
+        checkJoinPushdown(mgr, left, primaryOnly, "Join %J (Filter %F (P), S)", false);
+        checkJoinPushdown(mgr, inner, secondaryOnly, "Join %J (P, Filter %F (S))", false);
+        // Filtering the secondary side would change which primary rows are unmatched, so the filter stays:
+        checkJoinPushdown(mgr, left, secondaryOnly, "Filter %F (Join %J (P, S))", false);
+        checkJoinPushdown(mgr, inner, bothSides, "Filter %F (Join %J (P, S))", false);
+        // If the moved filter has an error, we must use the original filter:
+        checkJoinPushdown(mgr, inner, errorIfMoved, "Join %J (Filter %F (P), S)", true);
+    }
+
+    // Checks the plan for a filter of the join, where %J and %F in expectedPlan are the join and filter ids
+    @OnThread(Tag.Simulation)
+    private static void checkJoinPushdown(DummyManager mgr, Join join, Expression filterExpression, String expectedPlan, boolean expectOriginal) throws UserException, InternalException
+    {
+        Filter filter = mgr.record(new Filter(mgr, TFunctionUtil.ILD, join.getId(), filterExpression));
+        QueryPlan plan = QueryPlan.plan(filter);
+        assertEquals(expectedPlan.replace("%J", join.getId().getRaw()).replace("%F", filter.getId().getRaw()), plan.describe());
+        Table planned = plan.execute();
+        if (expectOriginal)
+            assertSame(filter, planned);
+        assertEquals(filter.getData().getColumnIds(), planned.getData().getColumnIds());
+        assertEquals(TTableUtil.streamFlattened(filter.getData()).<List<@Value Object>>map(p -> p.getSecond()).toList(), TTableUtil.streamFlattened(planned.getData()).<List<@Value Object>>map(p -> p.getSecond()).toList());
+    }
+
     @Property
     @OnThread(Tag.Simulation)
     public void testFilter(@From(GenImmediateData.class) GenImmediateData.ImmediateData_Mgr srcTable, @From(GenRandom.class) Random r) throws UserException, InternalException
@@ -227,6 +419,87 @@ public class PropRunTransformation
         }
     }
 
+    @Property(trials = 5)
+    @OnThread(Tag.Simulation)
+    public void testFilterLargeReordered(@From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        // Enough rows for the filter to go parallel where it can, filtering on a calculated
+        // column which is read directly, then through a sort, then through a concatenation:
+        int length = 3 * 4096 + r.nextInt(20000);
+        List<Integer> values = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < length; i++)
+        {
+            values.add(r.nextInt(1000));
+            indexes.add(i);
+        }
+        DummyManager mgr = new DummyManager();
+        TableId srcId = new TableId("Src");
+        TTableUtil.recordTable(mgr, srcId, length, ImmutableList.of(TTableUtil.intColumn(new ColumnId("V"), values), TTableUtil.intColumn(new ColumnId("I"), indexes)));
+        Calculate calculate = mgr.record(new Calculate(mgr, TFunctionUtil.ILD, srcId, doubleV()));
+        Calculate calculateAgain = mgr.record(new Calculate(mgr, TFunctionUtil.ILD, srcId, doubleV()));
+        Sort sort = mgr.record(new Sort(mgr, TFunctionUtil.ILD, calculate.getId(), ImmutableList.of(new Pair<>(new ColumnId("V"), Direction.ASCENDING))));
+        Concatenate concatenate = mgr.record(new Concatenate(mgr, TFunctionUtil.ILD, ImmutableList.of(calculate.getId(), calculateAgain.getId()), IncompleteColumnHandling.DEFAULT, false));
+        
+        // Keep rows where V < 500, i.e. D < 1000:
+        List<Integer> kept = Utility.filterList(indexes, i -> values.get(i) < 500);
+        List<Integer> sortedKept = new ArrayList<>(kept);
+        // A stable sort, like Sort:
+        sortedKept.sort(Comparator.comparing(values::get));
+        ImmutableMap<TableId, List<Integer>> expected = ImmutableMap.of(calculate.getId(), kept, sort.getId(), sortedKept, concatenate.getId(), Utility.concatI(kept, kept));
+        for (Entry<TableId, List<Integer>> source : expected.entrySet())
+        {
+            Filter filter = mgr.record(new Filter(mgr, TFunctionUtil.ILD, source.getKey(),
+                new ComparisonExpression(Arrays.asList(IdentExpression.column(new ColumnId("D")), new NumericLiteral(1000, null)), ImmutableList.of(ComparisonOperator.LESS_THAN))));
+            assertEquals("Filtering " + source.getKey().getRaw(), source.getValue(), getInts(filter.getData(), new ColumnId("I")));
+        }
+    }
+
+    @Property(trials = 5)
+    @OnThread(Tag.Simulation)
+    public void testCheckLargeReordered(@From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        // Enough rows for the check to go parallel where it can, checking a calculated
+        // column which is read directly, then through a sort:
+        int length = 3 * 4096 + r.nextInt(20000);
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < length; i++)
+        {
+            values.add(r.nextInt(1000));
+        }
+        DummyManager mgr = new DummyManager();
+        TableId srcId = new TableId("Src");
+        TTableUtil.recordTable(mgr, srcId, length, ImmutableList.of(TTableUtil.intColumn(new ColumnId("V"), values)));
+        Calculate calculate = mgr.record(new Calculate(mgr, TFunctionUtil.ILD, srcId, doubleV()));
+        // Sorted, the deciding rows are at the end, well past the first block:
+        Sort sort = mgr.record(new Sort(mgr, TFunctionUtil.ILD, calculate.getId(), ImmutableList.of(new Pair<>(new ColumnId("V"), Direction.ASCENDING))));
+        
+        int threshold = 2 * (996 + r.nextInt(5));
+        boolean allBelow = values.stream().allMatch(v -> 2 * v < threshold);
+        boolean anyAbove = values.stream().anyMatch(v -> 2 * v > threshold);
+        for (TableId source : ImmutableList.of(calculate.getId(), sort.getId()))
+        {
+            Check all = mgr.record(new Check(mgr, TFunctionUtil.ILD, source, CheckType.ALL_ROWS,
+                new ComparisonExpression(Arrays.asList(IdentExpression.column(new ColumnId("D")), new NumericLiteral(DataTypeUtility.value(threshold), null)), ImmutableList.of(ComparisonOperator.LESS_THAN))));
+            assertEquals("All below in " + source.getRaw(), allBelow, all.getResult());
+            Check any = mgr.record(new Check(mgr, TFunctionUtil.ILD, source, CheckType.ANY_ROW,
+                new ComparisonExpression(Arrays.asList(IdentExpression.column(new ColumnId("D")), new NumericLiteral(DataTypeUtility.value(threshold), null)), ImmutableList.of(ComparisonOperator.GREATER_THAN))));
+            assertEquals("Any above in " + source.getRaw(), anyAbove, any.getResult());
+        }
+    }
+
+    // D = V * 2
+    private static ImmutableMap<ColumnId, Expression> doubleV()
+    {
+        return ImmutableMap.of(new ColumnId("D"), new TimesExpression(ImmutableList.of(IdentExpression.column(new ColumnId("V")), new NumericLiteral(2, null))));
+    }
+
+    @OnThread(Tag.Simulation)
+    private static List<Integer> getInts(RecordSet recordSet, ColumnId columnId) throws UserException, InternalException
+    {
+        return TTableUtil.streamFlattened(recordSet.getColumn(columnId)).map(v -> TBasicUtil.checkedToRuntime(() -> Utility.cast(v, Number.class).intValue())).toList();
+    }
+
     private ComparisonOperator invert(ComparisonOperator op)
     {
         switch (op)
@@ -274,6 +547,107 @@ public class PropRunTransformation
         MatcherAssert.assertThat(TTableUtil.toString(numericColumn.get()), Utility.toBigDecimal(Utility.valueNumber(summaryRS.getColumns().get(0).getType().getCollapsed(0))), comparesEqualTo(bdSum(numericColumn.get().getLength(), numericColumn.get().getType())));
     }
 
+    @Property(trials = 100)
+    @OnThread(Tag.Simulation)
+    public void testStreamingSummaries(@From(GenRandom.class) Random r) throws InternalException, UserException
+    {
+        // Whole numbers (including ones near the long limits) mixed with decimals and errors,
+        // so the one-pass summaries must overflow and report errors the same as the general path:
+        int length = r.nextInt(60);
+        List<Either<String, @Value Object>> groups = new ArrayList<>();
+        List<Either<String, @Value Object>> numbers = new ArrayList<>();
+        for (int i = 0; i < length; i++)
+        {
+            groups.add(Either.right(DataTypeUtility.value("G" + r.nextInt(4))));
+            switch (r.nextInt(8))
+            {
+                case 0:
+                    numbers.add(Either.left("Error " + i));
+                    break;
+                case 1:
+                case 2:
+                    numbers.add(Either.right(DataTypeUtility.value(BigDecimal.valueOf(r.nextInt(2000) - 1000, 1 + r.nextInt(3)))));
+                    break;
+                case 3:
+                    numbers.add(Either.right(DataTypeUtility.value(r.nextBoolean() ? Long.MAX_VALUE - r.nextInt(5) : Long.MIN_VALUE + r.nextInt(5))));
+                    break;
+                default:
+                    numbers.add(Either.right(DataTypeUtility.value(r.nextInt(200) - 100)));
+                    break;
+            }
+        }
+        DummyManager mgr = new DummyManager();
+        TableId srcId = new TableId("Src");
+        TTableUtil.recordTable(mgr, srcId, length, ImmutableList.of(
+            ColumnUtility.makeImmediateColumn(DataType.TEXT, new ColumnId("G"), groups, DataTypeUtility.value("")),
+            ColumnUtility.makeImmediateColumn(DataType.NUMBER, new ColumnId("N"), numbers, DataTypeUtility.value(0))));
+
+        FunctionLookup functions = FunctionList.getFunctionLookup(mgr.getUnitManager());
+        ImmutableList<Pair<ColumnId, Expression>> streamed = makeSummaries(functions);
+        // Wrapped in an if, the summaries are not recognised, so are evaluated once per group:
+        ImmutableList<Pair<ColumnId, Expression>> thenSummaries = makeSummaries(functions);
+        ImmutableList<Pair<ColumnId, Expression>> elseSummaries = makeSummaries(functions);
+        ImmutableList.Builder<Pair<ColumnId, Expression>> general = ImmutableList.builder();
+        for (int i = 0; i < thenSummaries.size(); i++)
+        {
+            general.add(new Pair<>(thenSummaries.get(i).getFirst(), IfThenElseExpression.unrecorded(new BooleanLiteral(true), thenSummaries.get(i).getSecond(), elseSummaries.get(i).getSecond())));
+        }
+
+        RecordSet streamedRS = new Aggregate(mgr, TFunctionUtil.ILD, srcId, streamed, ImmutableList.of(new ColumnId("G"))).getData();
+        RecordSet generalRS = new Aggregate(mgr, TFunctionUtil.ILD, srcId, general.build(), ImmutableList.of(new ColumnId("G"))).getData();
+        assertEquals(generalRS.getLength(), streamedRS.getLength());
+        assertEquals(generalRS.getColumnIds(), streamedRS.getColumnIds());
+        for (Column generalColumn : generalRS.getColumns())
+        {
+            Column streamedColumn = streamedRS.getColumn(generalColumn.getName());
+            for (int row = 0; row < generalRS.getLength(); row++)
+            {
+                String desc = generalColumn.getName().getRaw() + " row " + row + " of " + numbers;
+                Either<String, @Value Object> expected = getOrError(generalColumn, row);
+                Either<String, @Value Object> actual = getOrError(streamedColumn, row);
+                assertEquals(desc, expected.isLeft(), actual.isLeft());
+                if (expected.isLeft())
+                    assertEquals(desc, expected.getLeft("Expected"), actual.getLeft("Actual"));
+                else
+                    assertEquals(desc + " " + expected + " vs " + actual, 0, Utility.compareValues(expected.getRight("Expected"), actual.getRight("Actual")));
+            }
+        }
+    }
+
+    // Summaries of column N that StreamingSummaries recognises
+    private static ImmutableList<Pair<ColumnId, Expression>> makeSummaries(FunctionLookup functions)
+    {
+        return ImmutableList.of(
+            new Pair<>(new ColumnId("Sum"), new CallExpression(functions, "sum", IdentExpression.column(new ColumnId("N")))),
+            new Pair<>(new ColumnId("Average"), new CallExpression(functions, "average", IdentExpression.column(new ColumnId("N")))),
+            new Pair<>(new ColumnId("Min"), new CallExpression(functions, "minimum", IdentExpression.column(new ColumnId("N")))),
+            new Pair<>(new ColumnId("Max"), new CallExpression(functions, "maximum", IdentExpression.column(new ColumnId("N")))),
+            new Pair<>(new ColumnId("Count"), new CallExpression(functions, "list length", IdentExpression.column(new ColumnId("N")))),
+            new Pair<>(new ColumnId("Mean"), new DivideExpression(new CallExpression(functions, "sum", IdentExpression.column(new ColumnId("N"))), IdentExpression.load(TypeState.GROUP_COUNT))),
+            new Pair<>(new ColumnId("Range"), new AddSubtractExpression(ImmutableList.of(
+                new CallExpression(functions, "maximum", IdentExpression.column(new ColumnId("N"))),
+                new CallExpression(functions, "minimum", IdentExpression.column(new ColumnId("N"))),
+                new NumericLiteral(1, null)), ImmutableList.of(AddSubtractOp.SUBTRACT, AddSubtractOp.ADD))),
+            new Pair<>(new ColumnId("Scaled"), new TimesExpression(ImmutableList.of(
+                new NumericLiteral(DataTypeUtility.value(new BigDecimal("0.5")), null),
+                new CallExpression(functions, "average", IdentExpression.column(new ColumnId("N"))),
+                IdentExpression.load(TypeState.GROUP_COUNT))))
+        );
+    }
+
+    @OnThread(Tag.Simulation)
+    private static Either<String, @Value Object> getOrError(Column column, int row) throws InternalException
+    {
+        try
+        {
+            return Either.right(column.getType().getCollapsed(row));
+        }
+        catch (UserException e)
+        {
+            return Either.left(e.getLocalizedMessage());
+        }
+    }
+
     @OnThread(Tag.Simulation)
     private BigDecimal bdSum(int length, DataTypeValue type) throws UserException, InternalException
     {
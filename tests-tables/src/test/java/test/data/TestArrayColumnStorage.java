@@ -0,0 +1,226 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package test.data;
+
+import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import test.gen.GenRandom;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.ArrayColumnStorage;
+import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.InvalidImmediateValueException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.Utility.ListEx;
+import xyz.columnal.utility.adt.Either;
+import xyz.columnal.utility.function.simulation.SimulationRunnable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(JUnitQuickcheck.class)
+public class TestArrayColumnStorage
+{
+    @Property(trials = 100)
+    @OnThread(Tag.Simulation)
+    public void propInsertRemoveUndo(@From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        ArrayColumnStorage storage = new ArrayColumnStorage(DataType.NUMBER, null, true);
+        List<Either<String, List<Integer>>> expected = new ArrayList<>();
+        // Each undo, with the content it should restore:
+        List<SimulationRunnable> undos = new ArrayList<>();
+        List<List<Either<String, List<Integer>>>> beforeUndos = new ArrayList<>();
+
+        for (int op = 0; op < 30; op++)
+        {
+            List<Either<String, List<Integer>>> before = new ArrayList<>(expected);
+            int index = r.nextInt(expected.size() + 1);
+            switch (r.nextInt(4))
+            {
+                case 0:
+                {
+                    List<Either<String, List<Integer>>> rows = new ArrayList<>();
+                    int count = 1 + r.nextInt(4);
+                    for (int i = 0; i < count; i++)
+                    {
+                        rows.add(r.nextInt(5) == 0 ? Either.left("Error " + r.nextInt(100)) : Either.right(makeItems(r, r.nextInt(6))));
+                    }
+                    undos.add(storage.insertRows(index, Utility.<Either<String, List<Integer>>, Either<String, ListEx>>mapList(rows, row -> row.map(items -> makeList(r, items)))));
+                    beforeUndos.add(before);
+                    expected.addAll(index, rows);
+                    break;
+                }
+                case 1:
+                    if (index < expected.size())
+                    {
+                        int count = 1 + r.nextInt(Math.min(3, expected.size() - index));
+                        undos.add(storage.removeRows(index, count));
+                        beforeUndos.add(before);
+                        expected.subList(index, index + count).clear();
+                    }
+                    break;
+                case 2:
+                    if (index < expected.size())
+                    {
+                        // Sometimes long lists, to make plenty of unused items and thus compaction:
+                        List<Integer> items = makeItems(r, r.nextInt(3) == 0 ? 400 : r.nextInt(6));
+                        storage.getType().setCollapsed(index, Either.right(makeList(r, items)));
+                        expected.set(index, Either.right(items));
+                        // Can't undo past an edit, as it has no undo:
+                        undos.clear();
+                        beforeUndos.clear();
+                    }
+                    break;
+                default:
+                    if (!undos.isEmpty())
+                    {
+                        undos.remove(undos.size() - 1).run();
+                        expected = beforeUndos.remove(beforeUndos.size() - 1);
+                    }
+                    break;
+            }
+            checkContent(expected, storage);
+        }
+    }
+
+    @Test
+    @OnThread(Tag.Simulation)
+    public void testLayout() throws UserException, InternalException
+    {
+        ArrayColumnStorage storage = new ArrayColumnStorage(DataType.NUMBER, null, true);
+        ListEx inMemory = DataTypeUtility.value(ImmutableList.<@Value Object>of(DataTypeUtility.value(1), DataTypeUtility.value(2)));
+        ListEx other = new NotInMemoryList(ImmutableList.of(3, 4));
+        storage.insertRows(0, ImmutableList.of(Either.<String, ListEx>right(inMemory), Either.<String, ListEx>right(other)));
+        // In-memory lists are copied into the items storage, others are kept as they are:
+        assertNotSame(inMemory, storage.getType().getCollapsed(0));
+        assertSame(other, storage.getType().getCollapsed(1));
+        checkContent(ImmutableList.of(items(1, 2), items(3, 4)), storage);
+
+        // A view fetched before rows are edited (and the items compacted) should keep its content:
+        ListEx firstView = Utility.cast(storage.getType().getCollapsed(0), ListEx.class);
+        for (int i = 0; i < 10; i++)
+        {
+            storage.getType().setCollapsed(0, Either.right(DataTypeUtility.value(Utility.<Integer, @Value Object>mapList(makeItems(new Random(i), 500), n -> DataTypeUtility.value(n)))));
+        }
+        storage.getType().setCollapsed(0, Either.right(DataTypeUtility.value(ImmutableList.<@Value Object>of(DataTypeUtility.value(5)))));
+        checkContent(ImmutableList.of(items(5), items(3, 4)), storage);
+        assertEquals(2, firstView.size());
+        assertEquals(1, Utility.cast(firstView.get(0), Number.class).intValue());
+        assertEquals(2, Utility.cast(firstView.get(1), Number.class).intValue());
+
+        // Storing a view back (as undo does) must give the same content:
+        storage.getType().setCollapsed(1, Either.right(firstView));
+        checkContent(ImmutableList.of(items(5), items(1, 2)), storage);
+    }
+
+    private static Either<String, List<Integer>> items(Integer... items)
+    {
+        return Either.right(ImmutableList.copyOf(items));
+    }
+
+    private static List<Integer> makeItems(Random r, int length)
+    {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < length; i++)
+        {
+            items.add(r.nextInt(1000));
+        }
+        return items;
+    }
+
+    // Makes either an in-memory list, which will be copied, or one which is stored as-is:
+    private static ListEx makeList(Random r, List<Integer> items)
+    {
+        if (r.nextBoolean())
+            return DataTypeUtility.value(Utility.<Integer, @Value Object>mapList(items, n -> DataTypeUtility.value(n)));
+        else
+            return new NotInMemoryList(items);
+    }
+
+    @OnThread(Tag.Simulation)
+    private static void checkContent(List<Either<String, List<Integer>>> expected, ArrayColumnStorage storage) throws UserException, InternalException
+    {
+        assertEquals(expected.size(), storage.filled());
+        for (int row = 0; row < expected.size(); row++)
+        {
+            Either<String, List<Integer>> expectedRow = expected.get(row);
+            if (expectedRow.isLeft())
+            {
+                try
+                {
+                    storage.getType().getCollapsed(row);
+                    throw new AssertionError("Expected error in row " + row);
+                }
+                catch (InvalidImmediateValueException e)
+                {
+                    assertEquals("Row " + row, expectedRow.getLeft("Row"), e.getInvalid());
+                }
+            }
+            else
+            {
+                List<Integer> expectedItems = expectedRow.getRight("Row");
+                ListEx actual = Utility.cast(storage.getType().getCollapsed(row), ListEx.class);
+                assertEquals("Row " + row, expectedItems.size(), actual.size());
+                for (int i = 0; i < expectedItems.size(); i++)
+                {
+                    assertEquals("Row " + row + " item " + i, expectedItems.get(i).intValue(), Utility.cast(actual.get(i), Number.class).intValue());
+                }
+            }
+        }
+    }
+
+    // A list which is not in memory, e.g. a view of another column, so won't be copied:
+    private static class NotInMemoryList extends ListEx
+    {
+        private final List<Integer> items;
+
+        public NotInMemoryList(List<Integer> items)
+        {
+            this.items = items;
+        }
+
+        @Override
+        public int size()
+        {
+            return items.size();
+        }
+
+        @Override
+        public @Value Object get(int index)
+        {
+            return DataTypeUtility.value(items.get(index));
+        }
+    }
+}
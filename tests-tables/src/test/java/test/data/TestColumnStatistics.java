@@ -0,0 +1,196 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package test.data;
+
+import annotation.qual.Value;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.runner.RunWith;
+import test.gen.GenRandom;
+import test.gen.type.GenTypeAndValueGen;
+import test.gen.type.GenTypeAndValueGen.TypeAndValueGen;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.Column;
+import xyz.columnal.data.ColumnStatistics;
+import xyz.columnal.data.ColumnUtility;
+import xyz.columnal.data.EditableRecordSet;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.id.ColumnId;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.adt.Either;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnitQuickcheck.class)
+public class TestColumnStatistics
+{
+    @Property(trials = 200)
+    @OnThread(Tag.Simulation)
+    public void propStatistics(@From(GenTypeAndValueGen.class) TypeAndValueGen typeAndValueGen, @From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        List<Either<String, @Value Object>> values = new ArrayList<>();
+        int length = r.nextInt(40);
+        for (int i = 0; i < length; i++)
+        {
+            if (r.nextInt(8) == 0)
+                values.add(Either.left("Error " + r.nextInt(3)));
+            // Repeat some values, to check the distinct count:
+            else if (i > 0 && r.nextInt(4) == 0)
+                values.add(values.get(r.nextInt(i)));
+            else
+                values.add(Either.right(typeAndValueGen.makeValue()));
+        }
+        @Value Object defaultValue = typeAndValueGen.makeValue();
+        @SuppressWarnings({"keyfor", "units"})
+        EditableRecordSet rs = new EditableRecordSet(Collections.singletonList(ColumnUtility.makeImmediateColumn(typeAndValueGen.getType(), new ColumnId("C0"), new ArrayList<>(values), defaultValue)), () -> length);
+        Column column = rs.getColumns().get(0);
+        checkStatistics(values, column.getStatistics());
+
+        // Make a few edits, checking after each one:
+        for (int edit = 0; edit < 4; edit++)
+        {
+            int index = r.nextInt(values.size() + 1);
+            switch (r.nextInt(3))
+            {
+                case 0:
+                    // Often at the end, which is kept up to date rather than recalculated:
+                    if (r.nextBoolean())
+                        index = values.size();
+                    int count = 1 + r.nextInt(3);
+                    rs.insertRows(index, count);
+                    for (int i = 0; i < count; i++)
+                    {
+                        values.add(index, Either.right(defaultValue));
+                    }
+                    break;
+                case 1:
+                    if (index < values.size())
+                    {
+                        rs.removeRows(index, 1);
+                        values.remove(index);
+                    }
+                    break;
+                default:
+                    if (index < values.size())
+                    {
+                        @Value Object value = typeAndValueGen.makeValue();
+                        column.getType().setCollapsed(index, Either.right(value));
+                        values.set(index, Either.right(value));
+                    }
+                    break;
+            }
+            checkStatistics(values, column.getStatistics());
+        }
+    }
+
+    @Property(trials = 50)
+    @OnThread(Tag.Simulation)
+    public void propEditVersion(@From(GenTypeAndValueGen.class) TypeAndValueGen typeAndValueGen, @From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        // Editing one column should only change the edit version of that column (and views of it):
+        int length = 1 + r.nextInt(10);
+        List<Either<String, @Value Object>> values = new ArrayList<>();
+        for (int i = 0; i < length; i++)
+        {
+            values.add(Either.right(typeAndValueGen.makeValue()));
+        }
+        @Value Object defaultValue = typeAndValueGen.makeValue();
+        @SuppressWarnings({"keyfor", "units"})
+        EditableRecordSet rs = new EditableRecordSet(List.of(
+            ColumnUtility.makeImmediateColumn(typeAndValueGen.getType(), new ColumnId("C0"), new ArrayList<>(values), defaultValue),
+            ColumnUtility.makeImmediateColumn(typeAndValueGen.getType(), new ColumnId("C1"), new ArrayList<>(values), defaultValue)), () -> length);
+        DataTypeValue edited = rs.getColumns().get(0).getType();
+        DataTypeValue other = rs.getColumns().get(1).getType();
+        DataTypeValue view = edited.copyReorder(i -> length - 1 - i);
+        long editedBefore = edited.getEditVersion();
+        long otherBefore = other.getEditVersion();
+        long viewBefore = view.getEditVersion();
+        
+        edited.setCollapsed(r.nextInt(length), Either.right(typeAndValueGen.makeValue()));
+        assertNotEquals(editedBefore, edited.getEditVersion());
+        assertNotEquals(viewBefore, view.getEditVersion());
+        assertEquals(otherBefore, other.getEditVersion());
+    }
+
+    @OnThread(Tag.Simulation)
+    private static void checkStatistics(List<Either<String, @Value Object>> values, ColumnStatistics statistics) throws UserException, InternalException
+    {
+        List<@Value Object> nonErrors = new ArrayList<>();
+        for (Either<String, @Value Object> value : values)
+        {
+            value.ifRight(nonErrors::add);
+        }
+        assertEquals(statistics.toString(), values.size(), statistics.getRowCount());
+        assertEquals(statistics.toString(), values.size() - nonErrors.size(), statistics.getErrorCount());
+
+        @Nullable @Value Object min = null;
+        @Nullable @Value Object max = null;
+        boolean sorted = true;
+        List<@Value Object> distinct = new ArrayList<>();
+        for (int i = 0; i < nonErrors.size(); i++)
+        {
+            @Value Object value = nonErrors.get(i);
+            if (min == null || Utility.compareValues(value, min) < 0)
+                min = value;
+            if (max == null || Utility.compareValues(value, max) > 0)
+                max = value;
+            if (i > 0 && Utility.compareValues(nonErrors.get(i - 1), value) > 0)
+                sorted = false;
+            boolean seen = false;
+            for (@Value Object d : distinct)
+            {
+                if (Utility.compareValues(d, value) == 0)
+                    seen = true;
+            }
+            if (!seen)
+                distinct.add(value);
+        }
+
+        @Nullable @Value Object actualMin = statistics.getMin();
+        @Nullable @Value Object actualMax = statistics.getMax();
+        if (min == null || max == null || actualMin == null || actualMax == null)
+        {
+            assertEquals(statistics.toString(), min, actualMin);
+            assertEquals(statistics.toString(), max, actualMax);
+        }
+        else
+        {
+            assertEquals(statistics.toString(), 0, Utility.compareValues(min, actualMin));
+            assertEquals(statistics.toString(), 0, Utility.compareValues(max, actualMax));
+        }
+        assertEquals(statistics.toString(), sorted, statistics.isSortedAscending());
+        // It's an estimate, but should be very close at these sizes:
+        assertTrue(statistics.toString() + " vs " + distinct.size(), Math.abs(statistics.getDistinctEstimate() - distinct.size()) <= Math.max(1, distinct.size() / 10));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package test.data;
+
+import annotation.identifier.qual.ExpressionIdentifier;
+import annotation.qual.Value;
+import com.google.common.collect.ImmutableMap;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.runner.RunWith;
+import test.gen.GenRandom;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.RecordColumnStorage;
+import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.InvalidImmediateValueException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.Utility.Record;
+import xyz.columnal.utility.Utility.RecordMap;
+import xyz.columnal.utility.adt.Either;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+@RunWith(JUnitQuickcheck.class)
+public class TestRecordColumnStorage
+{
+    @Property(trials = 100)
+    @OnThread(Tag.Simulation)
+    public void propFieldsOfErrorRows(@From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        RecordColumnStorage storage = new RecordColumnStorage(ImmutableMap.of("a", DataType.NUMBER, "b", DataType.TEXT), true);
+        List<Either<String, @Value Record>> expected = new ArrayList<>();
+        // Insert in several batches, at random positions, with some errors:
+        for (int batch = 0; batch < 5; batch++)
+        {
+            List<Either<String, @Value Record>> items = new ArrayList<>();
+            int count = r.nextInt(6);
+            for (int i = 0; i < count; i++)
+            {
+                if (r.nextInt(3) == 0)
+                    items.add(Either.left("Error " + r.nextInt(1000)));
+                else
+                    items.add(Either.right(DataTypeUtility.value(new RecordMap(ImmutableMap.<@ExpressionIdentifier String, @Value Object>of("a", DataTypeUtility.value(r.nextInt(100)), "b", DataTypeUtility.value("B" + r.nextInt(100)))))));
+            }
+            int index = r.nextInt(expected.size() + 1);
+            storage.insertRows(index, items);
+            expected.addAll(index, items);
+        }
+
+        DataTypeValue a = storage.getType().getRecordField("a");
+        DataTypeValue b = storage.getType().getRecordField("b");
+        assertNotNull(a);
+        assertNotNull(b);
+        if (a == null || b == null)
+            return;
+        for (int i = 0; i < expected.size(); i++)
+        {
+            Either<String, @Value Record> row = expected.get(i);
+            if (row.isLeft())
+            {
+                // Fields of an error row give the record's error:
+                String error = row.getLeft("Row");
+                assertEquals("Row " + i, error, getError(storage.getType(), i));
+                assertEquals("Field a of row " + i, error, getError(a, i));
+                assertEquals("Field b of row " + i, error, getError(b, i));
+            }
+            else
+            {
+                Record record = row.getRight("Row");
+                assertEquals("Field a of row " + i, 0, Utility.compareValues(record.getField("a"), a.getCollapsed(i)));
+                assertEquals("Field b of row " + i, record.getField("b"), b.getCollapsed(i));
+            }
+        }
+    }
+
+    @OnThread(Tag.Simulation)
+    private static @Nullable String getError(DataTypeValue type, int row) throws UserException, InternalException
+    {
+        try
+        {
+            type.getCollapsed(row);
+            return null;
+        }
+        catch (InvalidImmediateValueException e)
+        {
+            return e.getInvalid();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test.data;
+
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.runner.RunWith;
+import xyz.columnal.data.RowSelection;
+import xyz.columnal.error.InternalException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnitQuickcheck.class)
+public class TestRowSelection
+{
+    @Property(trials = 100)
+    public void testRowSelection(long seed) throws InternalException
+    {
+        Random r = new Random(seed);
+        TreeSet<Integer> expectedA = makeRows(r);
+        TreeSet<Integer> expectedB = makeRows(r);
+        RowSelection a = toSelection(expectedA);
+        RowSelection b = toSelection(expectedB);
+        check(expectedA, a, r);
+        check(expectedB, b, r);
+        
+        TreeSet<Integer> expectedAnd = new TreeSet<>(expectedA);
+        expectedAnd.retainAll(expectedB);
+        check(expectedAnd, RowSelection.and(a, b), r);
+        TreeSet<Integer> expectedOr = new TreeSet<>(expectedA);
+        expectedOr.addAll(expectedB);
+        check(expectedOr, RowSelection.or(a, b), r);
+    }
+
+    // Makes rows which are a mix of sparse, dense and clustered, across several chunks:
+    private static TreeSet<Integer> makeRows(Random r)
+    {
+        TreeSet<Integer> rows = new TreeSet<>();
+        int start = 0;
+        for (int part = r.nextInt(6); part >= 0; part--)
+        {
+            int length = r.nextInt(150_000);
+            int kind = r.nextInt(3);
+            for (int row = start; row < start + length; row++)
+            {
+                if ((kind == 0 && r.nextInt(100) == 0) || (kind == 1 && r.nextInt(10) != 0) || (kind == 2 && (row / 1000) % 2 == 0))
+                    rows.add(row);
+            }
+            start += length + r.nextInt(100_000);
+        }
+        return rows;
+    }
+
+    private static RowSelection toSelection(TreeSet<Integer> rows) throws InternalException
+    {
+        RowSelection selection = new RowSelection();
+        for (Integer row : rows)
+        {
+            selection.add(row);
+        }
+        return selection;
+    }
+
+    private static void check(TreeSet<Integer> expected, RowSelection actual, Random r) throws InternalException
+    {
+        assertEquals(expected.size(), actual.size());
+        List<Integer> expectedList = new ArrayList<>(expected);
+        for (int i = 0; i < expectedList.size(); i++)
+        {
+            assertEquals("Select " + i, (int)expectedList.get(i), actual.select(i));
+        }
+        int max = expected.isEmpty() ? 1000 : expected.last() + 1000;
+        for (int i = 0; i < 2000; i++)
+        {
+            int row = r.nextInt(max);
+            assertEquals("Rank " + row, expected.headSet(row).size(), actual.rank(row));
+            assertEquals("Contains " + row, expected.contains(row), actual.contains(row));
+            Integer next = expected.ceiling(row);
+            assertEquals("Next " + row, next == null ? -1 : (int)next, actual.next(row));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package test.data;
+
+import annotation.qual.Value;
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.Property;
+import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.runner.RunWith;
+import test.gen.GenRandom;
+import test.gen.type.GenTypeAndValueGen;
+import test.gen.type.GenTypeAndValueGen.TypeAndValueGen;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.ColumnUtility;
+import xyz.columnal.data.EditableRecordSet;
+import xyz.columnal.data.datatype.SortKeys;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.id.ColumnId;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.adt.Either;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnitQuickcheck.class)
+public class TestSortKeys
+{
+    @Property(trials = 200)
+    @OnThread(Tag.Simulation)
+    public void propSortKeys(@From(GenTypeAndValueGen.class) TypeAndValueGen typeAndValueGen, @From(GenRandom.class) Random r) throws UserException, InternalException
+    {
+        int length = 1 + r.nextInt(30);
+        List<@Value Object> values = new ArrayList<>();
+        for (int i = 0; i < length; i++)
+        {
+            // Repeat some values, to check equal keys:
+            values.add(i > 0 && r.nextInt(4) == 0 ? values.get(r.nextInt(i)) : typeAndValueGen.makeValue());
+        }
+        boolean descending = r.nextBoolean();
+        SortKeys.Encoder encoder = SortKeys.encoder(typeAndValueGen.getType(), descending);
+        byte[][] keys = new byte[length][];
+        for (int i = 0; i < length; i++)
+        {
+            keys[i] = encoder.encode(values.get(i));
+        }
+
+        @SuppressWarnings({"keyfor", "units"})
+        EditableRecordSet rs = new EditableRecordSet(Collections.singletonList(ColumnUtility.makeImmediateColumn(typeAndValueGen.getType(), new ColumnId("C0"), Utility.<@Value Object, Either<String, @Value Object>>mapList(values, Either::right), typeAndValueGen.makeValue())), () -> length);
+        long @Nullable [] longKeys = encoder.encodeLongs(rs.getColumns().get(0).getType(), length);
+
+        for (int a = 0; a < length; a++)
+        {
+            for (int b = 0; b < length; b++)
+            {
+                int expected = Integer.signum(Utility.compareValues(values.get(a), values.get(b))) * (descending ? -1 : 1);
+                assertEquals(values.get(a) + " vs " + values.get(b), expected, Integer.signum(Arrays.compareUnsigned(keys[a], keys[b])));
+                if (longKeys != null)
+                    assertEquals(values.get(a) + " vs " + values.get(b), expected, Long.signum(Long.compare(longKeys[a], longKeys[b])));
+            }
+        }
+    }
+}
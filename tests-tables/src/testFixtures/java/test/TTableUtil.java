@@ -21,17 +21,29 @@
 package test;
 
 import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
 import one.util.streamex.StreamEx;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.data.Column;
+import xyz.columnal.data.ColumnUtility;
+import xyz.columnal.data.EditableColumn;
+import xyz.columnal.data.EditableRecordSet;
+import xyz.columnal.data.ImmediateDataSource;
 import xyz.columnal.data.RecordSet;
 import xyz.columnal.data.Table.FullSaver;
+import xyz.columnal.data.Table.InitialLoadDetails;
 import xyz.columnal.data.TableManager;
+import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
+import xyz.columnal.id.ColumnId;
+import xyz.columnal.id.TableId;
+import xyz.columnal.utility.adt.Either;
+import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.TaggedValue;
 import xyz.columnal.utility.Utility;
@@ -53,6 +65,25 @@ import java.util.stream.Stream;
 
 public class TTableUtil
 {
+    /**
+     * Makes an in-memory table with the given columns, which should all be the given length,
+     * and records it in the manager.
+     */
+    @OnThread(Tag.Simulation)
+    public static ImmediateDataSource recordTable(TableManager mgr, TableId tableId, int length, ImmutableList<SimulationFunction<RecordSet, EditableColumn>> columns) throws InternalException, UserException
+    {
+        @SuppressWarnings({"keyfor", "units"})
+        EditableRecordSet rs = new EditableRecordSet(columns, () -> length);
+        return mgr.record(new ImmediateDataSource(mgr, new InitialLoadDetails(tableId, null, null, null), rs));
+    }
+
+    // A column of whole numbers, for recordTable
+    @OnThread(Tag.Simulation)
+    public static SimulationFunction<RecordSet, EditableColumn> intColumn(ColumnId columnId, List<Integer> values) throws InternalException, UserException
+    {
+        return ColumnUtility.makeImmediateColumn(DataType.NUMBER, columnId, Utility.<Integer, Either<String, @Value Object>>mapList(values, n -> Either.right(DataTypeUtility.value(n))), DataTypeUtility.value(0));
+    }
+
     @OnThread(Tag.Simulation)
     public static StreamEx<@Value Object> streamFlattened(Column column)
     {
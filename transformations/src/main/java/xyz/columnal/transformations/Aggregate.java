@@ -46,9 +46,10 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import xyz.columnal.data.datatype.DataType;
 import xyz.columnal.data.datatype.DataTypeUtility;
-import xyz.columnal.data.datatype.DataTypeUtility.ComparableValue;
 import xyz.columnal.data.datatype.DataTypeValue;
 import xyz.columnal.data.datatype.ListExDTV;
+import xyz.columnal.data.datatype.SortKeys;
+import xyz.columnal.data.datatype.SortKeys.BytesKey;
 import xyz.columnal.data.datatype.TypeManager;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.UserException;
@@ -74,6 +75,7 @@ import threadchecker.OnThread;
 import threadchecker.Tag;
 import xyz.columnal.utility.IdentifierUtility;
 import xyz.columnal.utility.adt.Pair;
+import xyz.columnal.utility.function.simulation.SimulationFunction;
 import xyz.columnal.utility.function.simulation.SimulationFunctionInt;
 import xyz.columnal.utility.Utility;
 
@@ -81,9 +83,11 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.OptionalInt;
-import java.util.TreeMap;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -151,14 +155,14 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
             valuesAndOccurrences = ImmutableList.of(new Pair<List<@Value Object>, Occurrences>(ImmutableList.<@Value Object>of(), new Occurrences(bitSet)));
         }
 
-        public JoinedSplit(Column column, TreeMap<ComparableValue, BitSet> valuesAndOccurrences)
+        public JoinedSplit(Column column, ImmutableList<Pair<@Value Object, BitSet>> valuesAndOccurrences)
         {
             this.columns = ImmutableList.of(column);
             ImmutableList.Builder<Pair<List<@Value Object>, Occurrences>> valOccBuilder = ImmutableList.builderWithExpectedSize(valuesAndOccurrences.size());
-            valuesAndOccurrences.forEach((ComparableValue k, BitSet v) ->
+            for (Pair<@Value Object, BitSet> valueAndOccurrences : valuesAndOccurrences)
             {
-                valOccBuilder.add(new Pair<>(ImmutableList.<@Value Object>of(k.getValue()), new Occurrences(v)));
-            });
+                valOccBuilder.add(new Pair<>(ImmutableList.<@Value Object>of(valueAndOccurrences.getFirst()), new Occurrences(valueAndOccurrences.getSecond())));
+            }
             this.valuesAndOccurrences = valOccBuilder.build();
         }
         
@@ -275,6 +279,7 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
             // It's important that our splits and record set are initialised
             // before trying to calculate these expressions:
             ColumnLookup columnLookup = getColumnLookup(theResult);
+            StreamingSummaries streamingSummaries = makeStreamingSummaries(src, srcLength, splits);
             for (Pair<ColumnId, Expression> e : summaries)
             {
                 Expression expression = e.getSecond();
@@ -288,7 +293,13 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
                     if (type == null || concrete == null)
                         throw new UserException((@NonNull StyledString) errors.getAllErrors().findFirst().orElse(StyledString.s("Unknown type error")));
                     @NonNull DataType typeFinal = concrete;
-                    column = rs -> ColumnUtility.makeCalculatedColumn(typeFinal, rs, e.getFirst(), i -> expression.calculateValue(makeEvaluateState(splits, mgr.getTypeManager(), i, false)).value, t -> addManualEditSet(e.getFirst(), t));
+                    // Common summaries are all calculated in one pass over the source;
+                    // anything else is evaluated per group:
+                    int streamingIndex = streamingSummaries.recognise(expression, srcTableId, splitBy);
+                    column = rs -> ColumnUtility.makeCalculatedColumn(typeFinal, rs, e.getFirst(), i -> {
+                        @Nullable @Value Object streamed = streamingIndex < 0 ? null : streamingSummaries.get(streamingIndex, i);
+                        return streamed != null ? streamed : expression.calculateValue(makeEvaluateState(splits, mgr.getTypeManager(), i, false)).value;
+                    }, t -> addManualEditSet(e.getFirst(), t));
                     
                 }
                 catch (UserException ex)
@@ -307,6 +318,22 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
         this.result = theResult;
     }
 
+    private static StreamingSummaries makeStreamingSummaries(RecordSet src, int srcLength, JoinedSplit splits)
+    {
+        int[] groupOfRow = new int[srcLength];
+        int[] groupSizes = new int[splits.valuesAndOccurrences.size()];
+        for (int group = 0; group < groupSizes.length; group++)
+        {
+            BitSet bitSet = splits.valuesAndOccurrences.get(group).getSecond().bitSet;
+            for (int i = bitSet.nextSetBit(0); i >= 0 && i < srcLength; i = bitSet.nextSetBit(i + 1))
+            {
+                groupOfRow[i] = group;
+                groupSizes[group] += 1;
+            }
+        }
+        return new StreamingSummaries(src, srcLength, groupOfRow, groupSizes);
+    }
+
     private static EvaluateState makeEvaluateState(JoinedSplit splits, TypeManager mgr, int rowIndex, boolean recordExplanation) throws InternalException
     {
         EvaluateState evaluateState = new EvaluateState(mgr, OptionalInt.of(rowIndex), recordExplanation);
@@ -334,9 +361,10 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
     private static class SingleSplit
     {
         private final Column column;
-        private final TreeMap<@NonNull ComparableValue, BitSet> valuesAndOccurrences;
+        // Each distinct value, in sorted order, with the indexes at which it occurs:
+        private final ImmutableList<Pair<@Value Object, BitSet>> valuesAndOccurrences;
 
-        public SingleSplit(Column column, TreeMap<@NonNull ComparableValue, BitSet> valuesAndOccurrences)
+        public SingleSplit(Column column, ImmutableList<Pair<@Value Object, BitSet>> valuesAndOccurrences)
         {
             this.column = column;
             this.valuesAndOccurrences = valuesAndOccurrences;
@@ -351,43 +379,54 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
         for (ColumnId colName : splitBy)
         {
             Column c = src.getColumn(colName);
-            //Optional<List<@NonNull ?>> fastDistinct = c.fastDistinct();
-            //if (fastDistinct.isPresent())
-            //    splits.add(new SingleSplit(c, fastDistinct.get()));
-            //else
-            //{
-                // A bit is set if the value occurred at a particular index:
-                TreeMap<ComparableValue, BitSet> r = new TreeMap<>();
-                try
-                {
-                    for (int i = 0; c.indexValid(i); i++)
-                    {
-                        int iFinal = i;
-                        r.compute(new ComparableValue(c.getType().getCollapsed(i)), (k, bs) -> {
-                            if (bs == null)
-                                bs = new BitSet();
-                            bs.set(iFinal);
-                            return bs;
-                        });
-                    }
-                    splits.add(new SingleSplit(c, r));
-                }
-                // Unwrap exceptions that occur in the comparator:
-                catch (RuntimeException e)
-                {
-                    if (e.getCause() instanceof UserException)
-                        throw (UserException)e.getCause();
-                    if (e.getCause() instanceof InternalException)
-                        throw (InternalException) e.getCause();
-                    throw new InternalException("Unexpected Runtime exception", e);
-                }
-            //}
-
+            DataTypeValue values = c.getType();
+            // Values are grouped and ordered by their sort keys, which is cheaper than comparing the values:
+            SortKeys.Encoder encoder = SortKeys.encoder(values.getType(), false);
+            long @Nullable [] longKeys = encoder.encodeLongs(values, srcLength);
+            if (longKeys != null)
+                splits.add(new SingleSplit(c, groupByKey(values, srcLength, i -> longKeys[i], Long::compare)));
+            else
+                splits.add(new SingleSplit(c, groupByKey(values, srcLength, i -> new BytesKey(encoder.encode(values.getCollapsed(i))), Comparator.<BytesKey>naturalOrder())));
         }
         // Now form cross-product:
         return crossProduct(splits, srcLength);
     }
 
+    /**
+     * Groups the rows [0, length) by the given key.  Returns each distinct value (the first to
+     * occur with its key) with the indexes at which it occurs, in order of key.
+     */
+    private static <K> ImmutableList<Pair<@Value Object, BitSet>> groupByKey(DataTypeValue values, int length, SimulationFunction<Integer, K> getKey, Comparator<K> keyOrder) throws InternalException, UserException
+    {
+        HashMap<K, Pair<@Value Object, BitSet>> groups = new HashMap<>();
+        for (int i = 0; i < length; i++)
+        {
+            K key = getKey.apply(i);
+            @Nullable Pair<@Value Object, BitSet> group = groups.get(key);
+            if (group == null)
+            {
+                group = new Pair<>(values.getCollapsed(i), new BitSet());
+                groups.put(key, group);
+            }
+            group.getSecond().set(i);
+        }
+        // There can be as many groups as rows, so order them with the same parallel sort as Sort:
+        List<K> keys = new ArrayList<>(groups.size());
+        List<Pair<@Value Object, BitSet>> unsorted = new ArrayList<>(groups.size());
+        for (Entry<K, Pair<@Value Object, BitSet>> group : groups.entrySet())
+        {
+            keys.add(group.getKey());
+            unsorted.add(group.getValue());
+        }
+        int[] order = ParallelSort.sort(keys.size(), (x, y) -> keyOrder.compare(keys.get(x), keys.get(y)), null);
+        ImmutableList.Builder<Pair<@Value Object, BitSet>> sorted = ImmutableList.builderWithExpectedSize(order.length);
+        for (int index : order)
+        {
+            sorted.add(unsorted.get(index));
+        }
+        return sorted.build();
+    }
+
     /**
      * Given a list of columns and their values and index occurrences, calculates the 
      * set of all combinations that occur at least once.
@@ -417,19 +456,19 @@ public class Aggregate extends VisitableTransformation implements SingleSourceTr
         // we add all the items with earliest value of first, thus
         // keeping the result in order of first column foremost,
         // then going by order of rest.
-        first.valuesAndOccurrences.forEach((firstVal, firstOcc) ->
+        for (Pair<@Value Object, BitSet> firstPair : first.valuesAndOccurrences)
         {
             for (Pair<List<@Value Object>, Occurrences> restPair : rest.valuesAndOccurrences)
             {
                 // BitSet is mutable, so important to clone:
-                BitSet jointOccurrence = (BitSet)firstOcc.clone();
+                BitSet jointOccurrence = (BitSet)firstPair.getSecond().clone();
                 jointOccurrence.and(restPair.getSecond().bitSet);
                 if (!jointOccurrence.isEmpty())
                 {
-                    valuesAndOccurrences.add(new Pair<>(Utility.prependToList(firstVal.getValue(), restPair.getFirst()), new Occurrences(jointOccurrence)));
+                    valuesAndOccurrences.add(new Pair<>(Utility.prependToList(firstPair.getFirst(), restPair.getFirst()), new Occurrences(jointOccurrence)));
                 }
             }
-        });
+        }
         return new JoinedSplit(Utility.prependToList(first.column, rest.columns), valuesAndOccurrences.build());
     }
 
@@ -107,10 +107,17 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
     private StyledString error = StyledString.s("");
 
     public Calculate(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, ImmutableMap<ColumnId, Expression> toCalculate) throws InternalException
+    {
+        this(mgr, initialLoadDetails, srcTableId, mgr.getSingleTableOrNull(srcTableId), toCalculate);
+    }
+
+    // Calculates from the given table, which need not be in the manager (see QueryPlan).
+    // srcTableId is only used for saving and editing.
+    Calculate(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, @Nullable Table src, ImmutableMap<ColumnId, Expression> toCalculate) throws InternalException
     {
         super(mgr, initialLoadDetails);
         this.srcTableId = srcTableId;
-        this.src = mgr.getSingleTableOrNull(srcTableId);
+        this.src = src;
         this.error = StyledString.s("Unknown error with table \"" + getId() + "\"");
         this.newColumns = toCalculate;
         if (this.src == null)
@@ -125,7 +132,8 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
         try
         {
             RecordSet srcRecordSet = this.src.getData();
-            Function<ColumnId, ColumnLookup> columnLookup = ed -> new MultipleTableLookup(getId(), mgr, srcTableId, makeEditor(ed));
+            @NonNull Table srcTable = this.src;
+            Function<ColumnId, ColumnLookup> columnLookup = ed -> MultipleTableLookup.withSourceTable(getId(), mgr, srcTable, makeEditor(ed));
             List<SimulationFunction<RecordSet, Column>> columns = new ArrayList<>();
             HashMap<ColumnId, Expression> stillToAdd = new HashMap<>(newColumns);
             for (Column c : srcRecordSet.getColumns())
@@ -148,6 +156,12 @@ public class Calculate extends VisitableTransformation implements SingleSourceTr
                         {
                             return AlteredState.UNALTERED;
                         }
+
+                        @Override
+                        public @OnThread(Tag.Any) boolean isIndexAligned()
+                        {
+                            return c.isIndexAligned();
+                        }
                     });
                 }
                 else
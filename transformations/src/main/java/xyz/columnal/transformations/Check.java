@@ -74,9 +74,13 @@ import xyz.columnal.utility.TranslationUtility;
 import xyz.columnal.utility.Utility;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.OptionalInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -185,31 +189,33 @@ public class Check extends VisitableTransformation implements SingleSourceTransf
                 Table srcTable = getManager().getSingleTableOrNull(srcTableId);
                 if (srcTable != null)
                 {
-                    int length = srcTable.getData().getLength();
-                    for (int row = 0; row < length; row++)
+                    RecordSet srcData = srcTable.getData();
+                    int length = srcData.getLength();
+                    // Try the first block on its own, as often the answer is found there:
+                    int firstBlockEnd = Math.min(length, ParallelRows.BLOCK_SIZE);
+                    int decidingRow = findDecidingRow(getManager().getTypeManager(), 0, firstBlockEnd, null);
+                    if (decidingRow < 0 && firstBlockEnd < length)
                     {
-                        ValueResult r = checkExpression.calculateValue(new EvaluateState(getManager().getTypeManager(), OptionalInt.of(row), true));
-                        boolean thisRow = Utility.cast(r.value, Boolean.class);
-                        if (thisRow && checkType == CheckType.NO_ROWS)
-                        {
-                            explanation = r.makeExplanation(null);
-                            return DataTypeUtility.value(false);
-                        }
-                        else if (!thisRow && checkType == CheckType.ALL_ROWS)
-                        {
-                            explanation = r.makeExplanation(null);
+                        @Nullable ImmutableList<ColumnId> parallelSourceColumns = ParallelRows.findSourceColumns(checkExpression, srcTableId);
+                        if (parallelSourceColumns != null && ParallelRows.canReadInParallel(srcData, parallelSourceColumns))
+                            decidingRow = findDecidingRowInParallel(srcData, parallelSourceColumns, firstBlockEnd, length);
+                        else
+                            decidingRow = findDecidingRow(getManager().getTypeManager(), firstBlockEnd, length, null);
+                    }
+                    
+                    if (decidingRow < 0)
+                    {
+                        if (checkType == CheckType.ANY_ROW)
                             return DataTypeUtility.value(false);
-                        }
-                        else if (thisRow && checkType == CheckType.ANY_ROW)
-                        {
-                            explanation = r.makeExplanation(null);
+                        else
                             return DataTypeUtility.value(true);
-                        }
                     }
-                    if (checkType == CheckType.ANY_ROW)
-                        return DataTypeUtility.value(false);
-                    else
-                        return DataTypeUtility.value(true);
+                    
+                    // Evaluate that row again, this time recording the explanation.
+                    // If the row has an error, this will throw it:
+                    ValueResult r = checkExpression.calculateValue(new EvaluateState(getManager().getTypeManager(), OptionalInt.of(decidingRow), true));
+                    explanation = r.makeExplanation(null);
+                    return DataTypeUtility.value(checkType == CheckType.ANY_ROW);
                 }
 
                 throw new UserException("Cannot find table: " + srcTableId);
@@ -222,6 +228,109 @@ public class Check extends VisitableTransformation implements SingleSourceTransf
         }
     }
 
+    /**
+     * Finds the first row in [startIncl, endExcl) which decides the result of the check
+     * (e.g. a false row for ALL_ROWS) or has an error, without recording explanations.
+     * Returns -1 if there is no such row.  If firstFound is given, we stop early once we
+     * reach a row beyond the first row found so far (by any block), and record the row if we find one.
+     */
+    @OnThread(Tag.Simulation)
+    private int findDecidingRow(TypeManager typeManager, int startIncl, int endExcl, @Nullable AtomicInteger firstFound) throws InternalException
+    {
+        for (int row = startIncl; row < endExcl; row++)
+        {
+            if (firstFound != null && row >= firstFound.get())
+                return -1;
+            boolean deciding;
+            try
+            {
+                boolean thisRow = Utility.cast(checkExpression.calculateValue(new EvaluateState(typeManager, OptionalInt.of(row))).value, Boolean.class);
+                deciding = checkType == CheckType.ALL_ROWS ? !thisRow : thisRow;
+            }
+            catch (UserException e)
+            {
+                // We will find the error again when we evaluate with an explanation:
+                deciding = true;
+            }
+            if (deciding)
+            {
+                if (firstFound != null)
+                    firstFound.accumulateAndGet(row, Math::min);
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Like findDecidingRow, but splits the rows into blocks which are evaluated in parallel.
+     * Blocks are run a batch at a time (one block per core), so that we don't
+     * calculate further ahead in the source than needed.  Once any block finds a deciding
+     * row, all blocks stop looking beyond it.
+     */
+    @OnThread(Tag.Simulation)
+    private int findDecidingRowInParallel(RecordSet srcData, ImmutableList<ColumnId> sourceColumns, int startIncl, int endExcl) throws UserException, InternalException
+    {
+        TypeManager typeManager = getManager().getTypeManager();
+        AtomicInteger firstFound = new AtomicInteger(Integer.MAX_VALUE);
+        int batchSize = ParallelRows.BLOCK_SIZE * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        for (int batchStart = startIncl; batchStart < endExcl; batchStart += batchSize)
+        {
+            int batchEnd = Math.min(endExcl, batchStart + batchSize);
+            ParallelRows.calculateAhead(srcData, sourceColumns, batchEnd);
+            
+            List<CheckBlock> blocks = new ArrayList<>();
+            for (int blockStart = batchStart; blockStart < batchEnd; blockStart += ParallelRows.BLOCK_SIZE)
+            {
+                CheckBlock block = new CheckBlock(typeManager, blockStart, Math.min(batchEnd, blockStart + ParallelRows.BLOCK_SIZE), firstFound);
+                block.fork();
+                blocks.add(block);
+            }
+            for (CheckBlock block : blocks)
+            {
+                block.join();
+                if (block.internalException != null)
+                    throw block.internalException;
+            }
+            if (firstFound.get() != Integer.MAX_VALUE)
+                return firstFound.get();
+        }
+        return -1;
+    }
+
+    private class CheckBlock extends RecursiveAction
+    {
+        private final TypeManager typeManager;
+        private final int startIncl;
+        private final int endExcl;
+        private final AtomicInteger firstFound;
+        private @Nullable InternalException internalException;
+
+        public CheckBlock(TypeManager typeManager, int startIncl, int endExcl, AtomicInteger firstFound)
+        {
+            this.typeManager = typeManager;
+            this.startIncl = startIncl;
+            this.endExcl = endExcl;
+            this.firstFound = firstFound;
+        }
+
+        // While this runs on a pool thread, the simulation thread is waiting for
+        // the result, and all lazy column calculation has already been done:
+        @Override
+        @OnThread(value = Tag.Simulation, ignoreParent = true)
+        protected void compute()
+        {
+            try
+            {
+                findDecidingRow(typeManager, startIncl, endExcl, firstFound);
+            }
+            catch (InternalException e)
+            {
+                internalException = e;
+            }
+        }
+    }
+
     @OnThread(Tag.Any)
     public ColumnLookup getColumnLookup()
     {
@@ -178,12 +178,13 @@ public class Concatenate extends VisitableTransformation
             
             
             int totalLength = 0;
-            List<Integer> ends = new ArrayList<>();
-            for (Table table : tables)
+            // The row in the concatenated table after the last row of each source table:
+            int[] ends = new int[tables.size()];
+            for (int i = 0; i < tables.size(); i++)
             {
-                int len = table.getData().getLength();
+                int len = tables.get(i).getData().getLength();
                 totalLength += len;
-                ends.add(totalLength);
+                ends[i] = totalLength;
             }
 
             List<Table> tablesFinal = tables;
@@ -202,32 +203,46 @@ public class Concatenate extends VisitableTransformation
                         {
                             if (type == null)
                             {
-                                type = addManualEditSet(getName(), DataTypeValue.copySeveral(colDetails.getValue().dataType, concatenatedRow ->
+                                ColumnDetails details = colDetails.getValue();
+                                // Resolve our column in each source table once, rather than on every access.
+                                // For each source, what to read from, which is either the source column,
+                                // the default value or the source column wrapped:
+                                DataTypeValue[] sourceValues = new DataTypeValue[tablesFinal.size()];
+                                // True if the source index is used as-is, false if always use index zero:
+                                boolean[] useRowIndex = new boolean[tablesFinal.size()];
+                                for (int srcTableIndex = 0; srcTableIndex < tablesFinal.size(); srcTableIndex++)
                                 {
-                                    for (int srcTableIndex = 0; srcTableIndex < ends.size(); srcTableIndex++)
+                                    @Nullable Column oldColumn = tablesFinal.get(srcTableIndex).getData().getColumnOrNull(colDetails.getKey());
+                                    if (oldColumn == null)
                                     {
-                                        if (concatenatedRow < ends.get(srcTableIndex))
+                                        sourceValues[srcTableIndex] = details.defaultValueWrapped;
+                                    }
+                                    else if (details.wrapValue == null)
+                                    {
+                                        try
+                                        {
+                                            sourceValues[srcTableIndex] = oldColumn.getType();
+                                        }
+                                        catch (UserException e)
                                         {
-                                            int start = srcTableIndex == 0 ? 0 : ends.get(srcTableIndex - 1);
-                                            // First one with end beyond our target must be right one:
-                                            @Nullable Column oldColumn = tablesFinal.get(srcTableIndex).getData().getColumnOrNull(colDetails.getKey());
-                                            if (oldColumn == null)
-                                            {
-                                                return new Pair<>(colDetails.getValue().defaultValueWrapped, 0);
-                                            }
-                                            else if (colDetails.getValue().wrapValue == null)
-                                            {
-                                                return new Pair<>(oldColumn.getType(), concatenatedRow - start);
-                                            }
-                                            else
-                                            {
-                                                Function<@Value Object, @Value Object> wrapValue = colDetails.getValue().wrapValue;
-                                                DataTypeValue wrapped = colDetails.getValue().dataType.fromCollapsed((i, progB) -> wrapValue.apply(oldColumn.getType().getCollapsed(concatenatedRow - start)));
-                                                return new Pair<>(wrapped, 0);
-                                            }
+                                            // Only the rows from that table are errors:
+                                            sourceValues[srcTableIndex] = details.dataType.fromCollapsed((i, progB) -> {throw e;});
                                         }
+                                        useRowIndex[srcTableIndex] = true;
                                     }
-                                    throw new InternalException("Attempting to access beyond end of concatenated tables: index" + (concatenatedRow + 1) + " but only length " + ends.get(ends.size() - 1));
+                                    else
+                                    {
+                                        Function<@Value Object, @Value Object> wrapValue = details.wrapValue;
+                                        sourceValues[srcTableIndex] = details.dataType.fromCollapsed((i, progB) -> wrapValue.apply(oldColumn.getType().getCollapsed(i)));
+                                        useRowIndex[srcTableIndex] = true;
+                                    }
+                                }
+                                SourceFinder sourceFinder = new SourceFinder(ends);
+                                type = addManualEditSet(getName(), DataTypeValue.copySeveral(details.dataType, concatenatedRow ->
+                                {
+                                    int srcTableIndex = sourceFinder.find(concatenatedRow);
+                                    int start = srcTableIndex == 0 ? 0 : ends[srcTableIndex - 1];
+                                    return new Pair<>(sourceValues[srcTableIndex], useRowIndex[srcTableIndex] ? concatenatedRow - start : 0);
                                 }));
                             }
                             return type;
@@ -250,15 +265,9 @@ public class Concatenate extends VisitableTransformation
                     @Override
                     public @OnThread(Tag.Any) DataTypeValue getType() throws InternalException, UserException
                     {
+                        SourceFinder sourceFinder = new SourceFinder(ends);
                         return addManualEditSet(getName(), DataTypeValue.text((concatenatedRow, prog) -> {
-                            for (int srcTableIndex = 0; srcTableIndex < ends.size(); srcTableIndex++)
-                            {
-                                if (concatenatedRow < ends.get(srcTableIndex))
-                                {
-                                    return DataTypeUtility.value(sources.get(srcTableIndex).getRaw());
-                                }
-                            }
-                            throw new InternalException("Attempting to access beyond end of concatenated tables: index" + (concatenatedRow + 1) + " but only length " + ends.get(ends.size() - 1));
+                            return DataTypeUtility.value(sources.get(sourceFinder.find(concatenatedRow)).getRaw());
                         }));
                     }
 
@@ -336,6 +345,56 @@ public class Concatenate extends VisitableTransformation
         return r;
     }
 
+    /**
+     * Finds which source table a concatenated row comes from, by binary search
+     * of the end rows.  Rows are usually read in order, so we first try the
+     * table of the last row found, then the table after it.
+     */
+    private static class SourceFinder
+    {
+        private final int[] ends;
+        // Only a hint, so it doesn't matter if threads race to update it:
+        private int lastFound = 0;
+
+        public SourceFinder(int[] ends)
+        {
+            this.ends = ends;
+        }
+
+        public int find(int concatenatedRow) throws InternalException
+        {
+            if (concatenatedRow < 0 || ends.length == 0 || concatenatedRow >= ends[ends.length - 1])
+                throw new InternalException("Attempting to access beyond end of concatenated tables: index" + (concatenatedRow + 1) + " but only length " + (ends.length == 0 ? 0 : ends[ends.length - 1]));
+            int last = lastFound;
+            if (contains(last, concatenatedRow))
+                return last;
+            if (last + 1 < ends.length && contains(last + 1, concatenatedRow))
+            {
+                lastFound = last + 1;
+                return last + 1;
+            }
+            // Find the first table which ends after the row.  Empty tables
+            // share their end with the table before, so we must find the first:
+            int low = 0;
+            int high = ends.length - 1;
+            while (low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] > concatenatedRow)
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            lastFound = low;
+            return low;
+        }
+
+        private boolean contains(int srcTableIndex, int concatenatedRow)
+        {
+            return concatenatedRow < ends[srcTableIndex] && (srcTableIndex == 0 || concatenatedRow >= ends[srcTableIndex - 1]);
+        }
+    }
+
     public static class Info extends TransformationInfo
     {
         public Info()
@@ -0,0 +1,271 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.transformations;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.datatype.ProgressListener;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.utility.function.simulation.SimulationFunction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts rows which have too many sort keys to hold in memory at once.
+ *
+ * Each row's key is a byte array (see SortKeys) which compares (as unsigned bytes)
+ * the same way as the original values.  Rows are sorted in runs which fit in memory,
+ * each run is written to a temporary file, and then the runs are merged back together
+ * into the sorted order of row indexes.  Only the keys are too big for memory, so the
+ * whole merge is done at once, and the files are closed and deleted before we return.
+ * The sort is stable: rows with equal keys keep their original order.
+ */
+@OnThread(Tag.Simulation)
+class ExternalSort
+{
+    // The most runs we merge at once, which bounds the number of open files.
+    // If there are more runs than this, we merge them into longer runs first:
+    private static final int MAX_MERGE_WIDTH = 128;
+
+    /**
+     * Sorts the rows [0, length) by the keys given by makeKey, in runs of
+     * the given length, and returns the rows in sorted order.  The progress is
+     * reported as each run is written.
+     */
+    public static int[] sort(int length, int runLength, SimulationFunction<Integer, byte[]> makeKey, @Nullable ProgressListener progressListener) throws InternalException, UserException
+    {
+        List<Run> runs = new ArrayList<>();
+        // All the runs we make, including those merged into longer runs, so we can tidy up on error:
+        List<Run> created = new ArrayList<>();
+        boolean complete = false;
+        try
+        {
+            for (int runStart = 0; runStart < length; runStart += runLength)
+            {
+                int start = runStart;
+                int end = Math.min(length, start + runLength);
+                byte[][] keys = new byte[end - start][];
+                for (int row = start; row < end; row++)
+                {
+                    keys[row - start] = makeKey.apply(row);
+                }
+                // The sort is stable, so equal keys stay in row order:
+                int[] order = ParallelSort.sort(end - start, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]), null);
+                Run run = new Run();
+                runs.add(run);
+                created.add(run);
+                try (DataOutputStream out = run.openForWrite())
+                {
+                    for (int offset : order)
+                    {
+                        run.write(out, start + offset, keys[offset]);
+                    }
+                }
+                if (progressListener != null)
+                    progressListener.progressUpdate((double)end / length);
+            }
+
+            while (runs.size() > MAX_MERGE_WIDTH)
+            {
+                // Merging neighbouring runs keeps the merged runs in row order, and thus keeps the sort stable:
+                List<Run> merged = new ArrayList<>();
+                for (int start = 0; start < runs.size(); start += MAX_MERGE_WIDTH)
+                {
+                    Run run = new Run();
+                    merged.add(run);
+                    created.add(run);
+                    try (DataOutputStream out = run.openForWrite())
+                    {
+                        mergeRuns(runs.subList(start, Math.min(runs.size(), start + MAX_MERGE_WIDTH)), (row, key) -> run.write(out, row, key));
+                    }
+                }
+                runs = merged;
+            }
+
+            int[] order = new int[length];
+            mergeRuns(runs, new MergeOutput()
+            {
+                private int count = 0;
+
+                @Override
+                public void add(int row, byte[] key)
+                {
+                    order[count++] = row;
+                }
+            });
+            complete = true;
+            return order;
+        }
+        catch (IOException e)
+        {
+            throw new UserException("Error using sort data on disk: " + e.getLocalizedMessage(), e);
+        }
+        finally
+        {
+            if (!complete)
+            {
+                for (Run run : created)
+                {
+                    run.delete();
+                }
+            }
+        }
+    }
+
+    // Where merged rows go: either another run, or the final order.
+    private static interface MergeOutput
+    {
+        public void add(int row, byte[] key) throws IOException;
+    }
+
+    // Merges the given runs in key order into the output, and deletes the originals.
+    private static void mergeRuns(List<Run> toMerge, MergeOutput output) throws IOException
+    {
+        PriorityQueue<RunReader> mergeHeads = new PriorityQueue<>(Math.max(1, toMerge.size()), ExternalSort::compareHeads);
+        List<RunReader> opened = new ArrayList<>();
+        try
+        {
+            for (int i = 0; i < toMerge.size(); i++)
+            {
+                RunReader reader = new RunReader(toMerge.get(i), i);
+                opened.add(reader);
+                if (reader.advance())
+                    mergeHeads.add(reader);
+            }
+            RunReader head;
+            while ((head = mergeHeads.poll()) != null)
+            {
+                output.add(head.row, head.key);
+                if (head.advance())
+                    mergeHeads.add(head);
+            }
+        }
+        finally
+        {
+            // Readers close themselves once finished, but not if we stopped early with an error:
+            for (RunReader reader : opened)
+            {
+                reader.close();
+            }
+        }
+        for (Run run : toMerge)
+        {
+            run.delete();
+        }
+    }
+
+    // Lowest key first, then earliest run (which has the earliest rows), to keep the sort stable:
+    private static int compareHeads(RunReader a, RunReader b)
+    {
+        int cmp = Arrays.compareUnsigned(a.key, b.key);
+        return cmp != 0 ? cmp : Integer.compare(a.runIndex, b.runIndex);
+    }
+
+    // A temporary file holding a sorted run of rows, each stored as row index, key length, key bytes.
+    private static class Run
+    {
+        private @Nullable File file;
+        private int count;
+
+        private DataOutputStream openForWrite() throws IOException
+        {
+            File f = File.createTempFile("columnal-sort", ".run");
+            f.deleteOnExit();
+            file = f;
+            return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        }
+
+        private void write(DataOutputStream out, int row, byte[] key) throws IOException
+        {
+            out.writeInt(row);
+            out.writeInt(key.length);
+            out.write(key);
+            count += 1;
+        }
+
+        private void delete()
+        {
+            if (file != null)
+            {
+                file.delete();
+                file = null;
+            }
+        }
+    }
+
+    private static class RunReader
+    {
+        private final int runIndex;
+        private final @Nullable DataInputStream in;
+        private int remaining;
+        // The current row and its key:
+        private int row = -1;
+        private byte[] key = new byte[0];
+
+        private RunReader(Run run, int runIndex) throws IOException
+        {
+            this.runIndex = runIndex;
+            this.remaining = run.count;
+            this.in = run.file == null ? null : new DataInputStream(new BufferedInputStream(new FileInputStream(run.file)));
+        }
+
+        // Moves to the next row of the run.  Returns false (and closes the file) if there are none left.
+        private boolean advance() throws IOException
+        {
+            if (remaining == 0 || in == null)
+            {
+                close();
+                return false;
+            }
+            remaining -= 1;
+            row = in.readInt();
+            key = new byte[in.readInt()];
+            in.readFully(key);
+            return true;
+        }
+
+        private void close()
+        {
+            try
+            {
+                if (in != null)
+                    in.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing useful we can do; the file is deleted afterwards anyway
+            }
+        }
+    }
+}
@@ -29,7 +29,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import xyz.columnal.data.CellPosition;
 import xyz.columnal.data.Column;
-import xyz.columnal.data.NumericColumnStorage;
+import xyz.columnal.data.RowSelection;
 import xyz.columnal.data.RecordSet;
 import xyz.columnal.data.SingleSourceTransformation;
 import xyz.columnal.data.Table;
@@ -44,6 +44,7 @@ import xyz.columnal.error.UserException;
 import xyz.columnal.error.expressions.ExpressionErrorException;
 import xyz.columnal.error.expressions.ExpressionErrorException.EditableExpression;
 import xyz.columnal.grammar.Versions.ExpressionVersion;
+import xyz.columnal.id.ColumnId;
 import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.id.TableId;
 import xyz.columnal.transformations.expression.BooleanLiteral;
@@ -70,11 +71,14 @@ import xyz.columnal.utility.Utility;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.Stream;
 
 /**
@@ -87,9 +91,8 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
     public static final String NAME = "filter";
     private final TableId srcTableId;
     private final @Nullable Table src;
-    // Not actually a column by itself, but holds a list of integers so reasonable to re-use:
-    // Each item is a source index in the original list
-    private final NumericColumnStorage indexMap;
+    // The source rows which we keep; the n-th item is the source row of our row n:
+    private final RowSelection indexMap;
     // Maps original row indexes to errors:
     private final HashMap<Integer, @Localized String> errorsDuringFilter = new HashMap<>();
     private final @Nullable RecordSet recordSet;
@@ -100,13 +103,23 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
     private final Expression filterExpression;
     private @MonotonicNonNull DataType type;
     private boolean typeChecked = false;
+    // If the filter expression is safe to evaluate in parallel, the source columns
+    // which it uses.  Null if we must evaluate it one row at a time.
+    private @Nullable ImmutableList<ColumnId> parallelSourceColumns;
 
     public Filter(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, Expression filterExpression) throws InternalException
+    {
+        this(mgr, initialLoadDetails, srcTableId, mgr.getSingleTableOrNull(srcTableId), filterExpression);
+    }
+
+    // Filters the given table, which need not be in the manager (see QueryPlan).
+    // It must have the id srcTableId, as that is what the expression refers to.
+    Filter(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, @Nullable Table src, Expression filterExpression) throws InternalException
     {
         super(mgr, initialLoadDetails);
         this.srcTableId = srcTableId;
-        this.src = mgr.getSingleTableOrNull(srcTableId);
-        this.indexMap = new NumericColumnStorage(false);
+        this.src = src;
+        this.indexMap = new RowSelection();
         this.filterExpression = filterExpression;
         this.error = "Unknown error";
 
@@ -117,7 +130,7 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
             {
                 List<SimulationFunction<RecordSet, Column>> columns = new ArrayList<>();
                 RecordSet data = src.getData();
-                ColumnLookup columnLookup = new MultipleTableLookup(getId(), mgr, src.getId(), null);
+                ColumnLookup columnLookup = MultipleTableLookup.withSourceTable(getId(), mgr, src, null);
                 for (Column c : data.getColumns())
                 {
                     columns.add(rs -> new Column(rs, c.getName())
@@ -132,7 +145,7 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
                                 @Nullable @Localized String error = errorsDuringFilter.get(i);
                                 if (error != null)
                                     throw new UserException(error);
-                                return DataTypeUtility.value(indexMap.getInt(i));
+                                return DataTypeUtility.value(indexMap.select(i));
                             }));
                         }
                         
@@ -149,11 +162,11 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
                     @Override
                     public boolean indexValid(int index) throws UserException, InternalException
                     {
-                        if (index < indexMap.filled())
+                        if (index < indexMap.size())
                             return true;
 
                         Utility.later(Filter.this).fillIndexMapTo(index, columnLookup, data);
-                        return index < indexMap.filled();
+                        return index < indexMap.size();
                     }
                 };
             }
@@ -194,15 +207,25 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
                     });
                 
                 type = typeFinal;
+                @Nullable ImmutableList<ColumnId> sourceColumns = ParallelRows.findSourceColumns(filterExpression, srcTableId);
+                if (sourceColumns != null && ParallelRows.canReadInParallel(recordSet, sourceColumns))
+                    parallelSourceColumns = sourceColumns;
             }
             if (type == null)
                 return;
         }
         ensureBoolean(type);
 
-        int start = indexMap.filled();
-        while (indexMap.filled() <= index && recordSet.indexValid(nextIndexToExamine))
+        int start = indexMap.size();
+        while (indexMap.size() <= index && recordSet.indexValid(nextIndexToExamine))
         {
+            // If there's at least two blocks left, it's worth going parallel:
+            if (parallelSourceColumns != null && recordSet.indexValid(nextIndexToExamine + 2 * ParallelRows.BLOCK_SIZE - 1))
+            {
+                fillIndexMapInParallel(parallelSourceColumns, recordSet);
+                continue;
+            }
+            
             boolean keep;
             try
             {
@@ -219,22 +242,121 @@ public class Filter extends VisitableTransformation implements SingleSourceTrans
             nextIndexToExamine += 1;
 
             //if (prog != null)
-                //prog.progressUpdate((double)(indexMap.filled() - start) / (double)(index - start));
+                //prog.progressUpdate((double)(indexMap.size() - start) / (double)(index - start));
         }
     }
-    
+
+    /**
+     * Evaluates the filter on the next few whole blocks of source rows in parallel,
+     * (one block per available core) and adds the results to the index map in order.
+     * We only look one batch of blocks ahead, so filtering remains lazy.
+     */
+    private void fillIndexMapInParallel(ImmutableList<ColumnId> sourceColumns, RecordSet recordSet) throws UserException, InternalException
+    {
+        int blockCount = 0;
+        while (blockCount < ForkJoinPool.getCommonPoolParallelism() && recordSet.indexValid(nextIndexToExamine + (blockCount + 1) * ParallelRows.BLOCK_SIZE - 1))
+            blockCount += 1;
+        int end = nextIndexToExamine + blockCount * ParallelRows.BLOCK_SIZE;
+        
+        ParallelRows.calculateAhead(recordSet, sourceColumns, end);
+
+        List<FilterBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < blockCount; i++)
+        {
+            FilterBlock block = new FilterBlock(getManager().getTypeManager(), nextIndexToExamine + i * ParallelRows.BLOCK_SIZE);
+            block.fork();
+            blocks.add(block);
+        }
+        // Join in order, so that the index map stays in order:
+        for (FilterBlock block : blocks)
+        {
+            block.join();
+            if (block.internalException != null)
+                throw block.internalException;
+            for (int i = block.kept.nextSetBit(0); i >= 0; i = block.kept.nextSetBit(i + 1))
+            {
+                indexMap.add(block.start + i);
+            }
+            errorsDuringFilter.putAll(block.errors);
+        }
+        nextIndexToExamine = end;
+    }
+
+    /**
+     * Evaluates the filter expression over one block of rows, recording
+     * which rows to keep and any errors.
+     */
+    private class FilterBlock extends RecursiveAction
+    {
+        private final TypeManager typeManager;
+        private final int start;
+        // Relative to start:
+        private final BitSet kept = new BitSet(ParallelRows.BLOCK_SIZE);
+        // Absolute row indexes:
+        private final HashMap<Integer, @Localized String> errors = new HashMap<>();
+        private @Nullable InternalException internalException;
+
+        public FilterBlock(TypeManager typeManager, int start)
+        {
+            this.typeManager = typeManager;
+            this.start = start;
+        }
+
+        // While this runs on a pool thread, the simulation thread is waiting for
+        // the result, and all lazy column calculation has already been done:
+        @Override
+        @OnThread(value = Tag.Simulation, ignoreParent = true)
+        protected void compute()
+        {
+            try
+            {
+                for (int i = 0; i < ParallelRows.BLOCK_SIZE; i++)
+                {
+                    boolean keep;
+                    try
+                    {
+                        keep = Utility.cast(filterExpression.calculateValue(new EvaluateState(typeManager, OptionalInt.of(start + i))).value, Boolean.class);
+                    }
+                    catch (UserException e)
+                    {
+                        // The row has an error, keep it but also record error:
+                        errors.put(start + i, e.getLocalizedMessage());
+                        keep = true;
+                    }
+                    if (keep)
+                        kept.set(i);
+                }
+            }
+            catch (InternalException e)
+            {
+                internalException = e;
+            }
+        }
+    }
+
     // Given a row in this table, gets the index of the row in the source table that it came from.  Null if invalid or not yet available
     @SuppressWarnings("units")
     @OnThread(Tag.Simulation)
     public @Nullable @TableDataRowIndex Integer getSourceRowFor(@TableDataRowIndex int rowInThisTable) throws InternalException, UserException
     {
-        if (rowInThisTable >=0 && rowInThisTable < indexMap.filled())
+        if (rowInThisTable >=0 && rowInThisTable < indexMap.size())
         {
-            return indexMap.getInt(rowInThisTable);
+            return indexMap.select(rowInThisTable);
         }
         return null;
     }
 
+    /**
+     * Filters all the rows of the source table (rather than lazily, as needed), and
+     * says whether the expression gave an error for any row.  Used by QueryPlan, which can
+     * only move a filter if it has no errors, as error rows are kept.
+     */
+    boolean filterAllRowsAndCheckErrors() throws UserException, InternalException
+    {
+        getData().getLength();
+        return !errorsDuringFilter.isEmpty();
+    }
+
     @OnThread(Tag.Any)
     public static TypeState makeTypeState(TypeManager typeManager) throws InternalException
     {
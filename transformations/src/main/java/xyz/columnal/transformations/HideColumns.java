@@ -119,6 +119,12 @@ public class HideColumns extends VisitableTransformation implements SingleSource
                 {
                     return AlteredState.UNALTERED;
                 }
+
+                @Override
+                public @OnThread(Tag.Any) boolean isIndexAligned()
+                {
+                    return c.isIndexAligned();
+                }
             })))
             {
                 @Override
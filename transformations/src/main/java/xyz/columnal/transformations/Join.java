@@ -23,6 +23,7 @@ package xyz.columnal.transformations;
 import annotation.identifier.qual.ExpressionIdentifier;
 import annotation.qual.Value;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import xyz.columnal.data.CellPosition;
 import xyz.columnal.data.Column;
 import xyz.columnal.data.NumericColumnStorage;
@@ -58,6 +59,7 @@ import xyz.columnal.utility.Utility;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -91,6 +93,16 @@ public class Join extends VisitableTransformation
 
     @OnThread(Tag.Simulation)
     public Join(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId primarySource, TableId secondarySource, boolean keepPrimaryWithNoMatch, ImmutableList<Pair<ColumnId, ColumnId>> columnsToMatch) throws InternalException
+    {
+        this(mgr, initialLoadDetails, primarySource, secondarySource, null, null, keepPrimaryWithNoMatch, columnsToMatch);
+    }
+
+    /**
+     * Joins the given tables, which need not be in the manager (see QueryPlan).  If either is null,
+     * it is looked up by its id.  The ids are still used for naming clashing columns.
+     */
+    @OnThread(Tag.Simulation)
+    Join(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId primarySource, TableId secondarySource, @Nullable Table primaryTable, @Nullable Table secondaryTable, boolean keepPrimaryWithNoMatch, ImmutableList<Pair<ColumnId, ColumnId>> columnsToMatch) throws InternalException
     {
         super(mgr, initialLoadDetails);
         this.primarySource = primarySource;
@@ -105,8 +117,8 @@ public class Join extends VisitableTransformation
         String theError = null;
         try
         {
-            RecordSet primary = mgr.getSingleTableOrThrow(primarySource).getData();
-            RecordSet secondary = mgr.getSingleTableOrThrow(secondarySource).getData();
+            RecordSet primary = (primaryTable != null ? primaryTable : mgr.getSingleTableOrThrow(primarySource)).getData();
+            RecordSet secondary = (secondaryTable != null ? secondaryTable : mgr.getSingleTableOrThrow(secondarySource)).getData();
             
             
             Pair<RecordSet, RecordSet> primSec = new Pair<>(primary, secondary);
@@ -154,6 +166,21 @@ public class Join extends VisitableTransformation
         return columnName;
     }
 
+    /**
+     * Gives the names of the columns in a join's output which come from one side,
+     * mapped to their names in that side's table.
+     */
+    static ImmutableMap<ColumnId, ColumnId> getOutputColumnNames(TableId sideTableId, RecordSet side, RecordSet otherSide)
+    {
+        // Names should not clash, but if they did, a builder would throw:
+        HashMap<ColumnId, ColumnId> names = new HashMap<>();
+        for (ColumnId columnId : side.getColumnIds())
+        {
+            names.put(avoidNameClash(sideTableId, columnId, otherSide.getColumnIds()), columnId);
+        }
+        return ImmutableMap.copyOf(names);
+    }
+
     // If typeManager != null, wrap into optional, else keep original type
     private SimulationFunction<RecordSet, Column> copyColumn(@UnknownInitialization(Transformation.class) Join this, Column c, ColumnId name, NumericColumnStorage indexMap, Pair<RecordSet, RecordSet> recordSets, @Nullable TypeManager typeManager)
     {
@@ -74,15 +74,18 @@ import xyz.columnal.utility.gui.FXUtility;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collector;
 import java.util.stream.Stream;
 
@@ -104,6 +107,12 @@ public class ManualEdit extends VisitableTransformation implements SingleSourceT
     @OnThread(value = Tag.Any, requireSynchronized = true)
     private final HashMap<ColumnId, ColumnReplacementValues> replacements;
     private final ArrayList<SimulationRunnableNoError> modificationListeners = new ArrayList<>();
+    // The replacements resolved to row positions, for the edit version it was made for.
+    // Null until first needed.
+    @OnThread(Tag.Any)
+    private volatile @Nullable ReplacementIndex replacementIndex;
+    // Incremented whenever a replacement is edited in place:
+    private final AtomicLong replacementsEditVersion = new AtomicLong();
 
     public ManualEdit(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, @Nullable Pair<ColumnId, DataType> replacementKey, ImmutableMap<ColumnId, ColumnReplacementValues> replacements) throws InternalException
     {
@@ -132,7 +141,7 @@ public class ManualEdit extends VisitableTransformation implements SingleSourceT
                 {
                     throw new UserException("Last recorded type of identifier column " + replacementKey.getFirst().getRaw() + " does not match actual column type.");
                 }
-                TreeSet<ComparableValue> keyValues = new TreeSet<>();
+                HashSet<ComparableValue> keyValues = new HashSet<>();
                 @TableDataRowIndex int srcDataLength = srcData.getLength();
                 DataTypeValue keyColType = keyCol.getType();
                 for (int i = 0; i < srcDataLength; i++)
@@ -455,17 +464,9 @@ edit : editHeader editColumn*;
             {
                 DataTypeValue originalType = original.getType();
                 DataTypeValue getType = originalType.getType().fromCollapsed((i, prog) -> {
-                    ColumnReplacementValues columnReplacements = replacements.get(getName());
-                    @Nullable ComparableEither<String, ComparableValue> replaced = null;
-                    try
-                    {
-                        @Value Object replaceKey = keyColumn == null ? DataTypeUtility.value(i) : keyColumn.getFirst().getType().getCollapsed(i);
-                        replaced = columnReplacements == null ? null : columnReplacements.replacementValues.get(new ComparableValue(replaceKey));
-                    }
-                    catch (UserException e)
-                    {
-                        // If error in fetching key, don't replace.
-                    }
+                    // Rows where the key is an error are never in the index, so are not replaced:
+                    @Nullable RowReplacements columnReplacements = getReplacementIndex(getLength()).byColumn.get(getName());
+                    @Nullable ComparableEither<String, ComparableValue> replaced = columnReplacements == null ? null : columnReplacements.get(i);
                     if (replaced != null)
                         return replaced.<@Value Object>eitherEx(err -> {throw new InvalidImmediateValueException(StyledString.s(err), err);}, v -> v.getValue());
                     else
@@ -479,6 +480,10 @@ edit : editHeader editColumn*;
                         getReplacementKeyForRow(index),
                         value.<ComparableEither<String, ComparableValue>>either(err -> ComparableEither.<String, ComparableValue>left(err), v -> ComparableEither.<String, ComparableValue>right(new ComparableValue(v)))
                     ));
+                    replacementsEditVersion.incrementAndGet();
+                    @Nullable DataTypeValue edited = dataType;
+                    if (edited != null)
+                        edited.dataEdited();
                     // Notify dependents:
                     recordSet.modified(getName(), index);
                     modificationListeners.forEach(SimulationRunnableNoError::run);
@@ -578,6 +583,143 @@ edit : editHeader editColumn*;
         }
     }
 
+    /**
+     * Gets the row index of the replacements, remaking it if our replacements
+     * or the key column have been edited since it was made.
+     */
+    private ReplacementIndex getReplacementIndex(int length) throws InternalException, UserException
+    {
+        // The index depends on our replacements, and on the key column (if any):
+        long editVersion = replacementsEditVersion.get() + (keyColumn == null ? 0 : keyColumn.getFirst().getType().getEditVersion());
+        @Nullable ReplacementIndex index = replacementIndex;
+        if (index != null && index.editVersion == editVersion && index.length == length)
+            return index;
+
+        // Gather all replacements by key, so that we only need to look up each key once:
+        HashMap<ComparableValue, List<Pair<ColumnId, ComparableEither<String, ComparableValue>>>> byKey = new HashMap<>();
+        synchronized (this)
+        {
+            replacements.forEach((columnId, columnReplacements) -> {
+                columnReplacements.replacementValues.forEach((key, value) -> {
+                    byKey.computeIfAbsent(key, k -> new ArrayList<>()).add(new Pair<>(columnId, value));
+                });
+            });
+        }
+
+        // For each column, the replaced rows and their values:
+        HashMap<ColumnId, ArrayList<Pair<Integer, ComparableEither<String, ComparableValue>>>> found = new HashMap<>();
+        if (keyColumn == null)
+        {
+            // The keys are row numbers, so no need to look at the data:
+            for (Map.Entry<ComparableValue, List<Pair<ColumnId, ComparableEither<String, ComparableValue>>>> entry : byKey.entrySet())
+            {
+                int row;
+                try
+                {
+                    row = DataTypeUtility.requireInteger(entry.getKey().getValue());
+                }
+                catch (UserException e)
+                {
+                    // Not a valid row number, so can't match a row:
+                    continue;
+                }
+                if (row >= 0 && row < length)
+                {
+                    for (Pair<ColumnId, ComparableEither<String, ComparableValue>> replacement : entry.getValue())
+                    {
+                        found.computeIfAbsent(replacement.getFirst(), c -> new ArrayList<>()).add(new Pair<>(row, replacement.getSecond()));
+                    }
+                }
+            }
+        }
+        else if (!byKey.isEmpty())
+        {
+            DataTypeValue keyColType = keyColumn.getFirst().getType();
+            for (int row = 0; row < length; row++)
+            {
+                @Nullable List<Pair<ColumnId, ComparableEither<String, ComparableValue>>> rowReplacements;
+                try
+                {
+                    rowReplacements = byKey.get(new ComparableValue(keyColType.getCollapsed(row)));
+                }
+                catch (UserException e)
+                {
+                    // If error in fetching key, don't replace.
+                    continue;
+                }
+                if (rowReplacements != null)
+                {
+                    for (Pair<ColumnId, ComparableEither<String, ComparableValue>> replacement : rowReplacements)
+                    {
+                        found.computeIfAbsent(replacement.getFirst(), c -> new ArrayList<>()).add(new Pair<>(row, replacement.getSecond()));
+                    }
+                }
+            }
+        }
+
+        HashMap<ColumnId, RowReplacements> byColumn = new HashMap<>();
+        found.forEach((columnId, rows) -> byColumn.put(columnId, new RowReplacements(rows)));
+        index = new ReplacementIndex(editVersion, length, byColumn);
+        replacementIndex = index;
+        return index;
+    }
+
+    // Immutable once made, so safe to share between threads.
+    @OnThread(Tag.Any)
+    private static class ReplacementIndex
+    {
+        private final long editVersion;
+        private final int length;
+        private final HashMap<ColumnId, RowReplacements> byColumn;
+
+        private ReplacementIndex(long editVersion, int length, HashMap<ColumnId, RowReplacements> byColumn)
+        {
+            this.editVersion = editVersion;
+            this.length = length;
+            this.byColumn = byColumn;
+        }
+    }
+
+    /**
+     * The replaced rows of a column.  Most rows are not replaced, which
+     * we can tell from the bit set without searching the rows.
+     */
+    @OnThread(Tag.Any)
+    private static class RowReplacements
+    {
+        private final BitSet replacedRows = new BitSet();
+        // Sorted, no duplicates:
+        private final int[] rows;
+        // Same order as rows:
+        private final ImmutableList<ComparableEither<String, ComparableValue>> values;
+
+        private RowReplacements(ArrayList<Pair<Integer, ComparableEither<String, ComparableValue>>> unsortedRows)
+        {
+            unsortedRows.sort(Comparator.comparing(p -> p.getFirst()));
+            int[] rows = new int[unsortedRows.size()];
+            ImmutableList.Builder<ComparableEither<String, ComparableValue>> values = ImmutableList.builderWithExpectedSize(unsortedRows.size());
+            int count = 0;
+            for (Pair<Integer, ComparableEither<String, ComparableValue>> row : unsortedRows)
+            {
+                // Shouldn't have the same row twice, but if we do, the first is used:
+                if (count > 0 && rows[count - 1] == row.getFirst())
+                    continue;
+                rows[count++] = row.getFirst();
+                values.add(row.getSecond());
+                replacedRows.set(row.getFirst());
+            }
+            this.rows = Arrays.copyOf(rows, count);
+            this.values = values.build();
+        }
+
+        public @Nullable ComparableEither<String, ComparableValue> get(int row)
+        {
+            if (row < 0 || !replacedRows.get(row))
+                return null;
+            return values.get(Arrays.binarySearch(rows, row));
+        }
+    }
+
     private ComparableValue getReplacementKeyForRow(int index) throws InternalException, UserException
     {
         if (keyColumn == null)
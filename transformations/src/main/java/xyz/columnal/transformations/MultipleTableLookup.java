@@ -84,13 +84,27 @@ public class MultipleTableLookup implements ColumnLookup
     }
 
     public MultipleTableLookup(@Nullable TableId us, TableManager tableManager, @Nullable TableId srcTableId, @Nullable CalculationEditor editing)
+    {
+        this(us, tableManager, srcTableId == null ? null : tableManager.getSingleTableOrNull(srcTableId), editing);
+    }
+
+    private MultipleTableLookup(@Nullable TableId us, TableManager tableManager, @Nullable Table srcTable, @Nullable CalculationEditor editing)
     {
         this.us = us;
         this.tableManager = tableManager;
-        this.srcTable = srcTableId == null ? null : tableManager.getSingleTableOrNull(srcTableId);
+        this.srcTable = srcTable;
         this.editing = editing;
     }
 
+    /**
+     * A lookup whose per-row columns come from the given table, which need not
+     * be in the table manager (e.g. the input to a table rebuilt by QueryPlan).
+     */
+    public static MultipleTableLookup withSourceTable(@Nullable TableId us, TableManager tableManager, @Nullable Table srcTable, @Nullable CalculationEditor editing)
+    {
+        return new MultipleTableLookup(us, tableManager, srcTable, editing);
+    }
+
     @Override
     public @Nullable QuickFix<Expression> getFixForIdent(@Nullable @ExpressionIdentifier String namespace, ImmutableList<@ExpressionIdentifier String> idents, @Recorded Expression target)
     {
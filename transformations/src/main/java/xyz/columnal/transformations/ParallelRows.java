@@ -0,0 +1,136 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.transformations;
+
+import annotation.identifier.qual.ExpressionIdentifier;
+import annotation.recorded.qual.Recorded;
+import com.google.common.collect.ImmutableList;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.RecordSet;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.id.ColumnId;
+import xyz.columnal.id.TableId;
+import xyz.columnal.transformations.expression.Expression;
+import xyz.columnal.transformations.expression.IdentExpression;
+import xyz.columnal.transformations.expression.visitor.ExpressionVisitorStream;
+import xyz.columnal.utility.adt.Pair;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Helpers for transformations which evaluate an expression for each row of
+ * their source table in parallel, in blocks of rows on the common fork/join pool.
+ */
+@OnThread(Tag.Simulation)
+class ParallelRows
+{
+    // The number of rows in each block when evaluating in parallel:
+    static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Checks if the given (type-checked) per-row expression can be evaluated in parallel.
+     * That's the case if it only refers to columns of the source table in the same row,
+     * alongside functions, tags and variables.  Anything else (e.g. referring to a whole table)
+     * may trigger lazy calculation elsewhere, which must stay on the simulation thread.
+     * 
+     * @return The source columns used by the expression if it can be evaluated in parallel, or null if not.
+     */
+    static @Nullable ImmutableList<ColumnId> findSourceColumns(Expression expression, TableId srcTableId)
+    {
+        if (ForkJoinPool.getCommonPoolParallelism() <= 1)
+            return null;
+        return findRowColumns(expression, srcTableId);
+    }
+
+    /**
+     * Like findSourceColumns, but regardless of whether there is more than one core.
+     * Gives the source columns used by the (type-checked) expression if it
+     * only refers to the current row of the source table, or null if not.
+     */
+    @SuppressWarnings("recorded")
+    static @Nullable ImmutableList<ColumnId> findRowColumns(Expression expression, TableId srcTableId)
+    {
+        List<IdentExpression> idents = expression.visit(new ExpressionVisitorStream<IdentExpression>() {
+            @Override
+            public Stream<IdentExpression> ident(@Recorded IdentExpression self, @Nullable @ExpressionIdentifier String namespace, ImmutableList<@ExpressionIdentifier String> idents, boolean isVariable)
+            {
+                return isVariable ? Stream.of() : Stream.of(self);
+            }
+        }).collect(Collectors.toList());
+        
+        ImmutableList.Builder<ColumnId> columns = ImmutableList.builder();
+        for (IdentExpression ident : idents)
+        {
+            @Nullable Pair<TableId, ColumnId> column = ident.getResolvedColumn();
+            if (column != null && column.getFirst().equals(srcTableId))
+                columns.add(column.getSecond());
+            else if (column != null || (ident.getFunctionDefinition() == null && ident.getResolvedConstructor() == null))
+                return null;
+        }
+        return columns.build();
+    }
+
+    /**
+     * Checks whether calculateAhead is enough to make the given source columns safe
+     * to read from other threads.  That's only the case if each column is index-aligned
+     * (see Column.isIndexAligned), e.g. stored data or a calculation over it.  Sorted,
+     * joined and concatenated columns fill their own state as they are read, so
+     * must stay on the simulation thread.
+     */
+    static boolean canReadInParallel(RecordSet recordSet, ImmutableList<ColumnId> sourceColumns) throws UserException, InternalException
+    {
+        for (ColumnId sourceColumn : sourceColumns)
+        {
+            if (!recordSet.getColumn(sourceColumn).isIndexAligned())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Columns are generally calculated lazily, and their caches are not thread-safe.
+     * So before evaluating rows in parallel, we make sure that everything we are going
+     * to read (all rows before endExcl) is calculated, after which the blocks only read from the caches.
+     * The columns must have passed canReadInParallel.
+     */
+    static void calculateAhead(RecordSet recordSet, ImmutableList<ColumnId> sourceColumns, int endExcl) throws UserException, InternalException
+    {
+        if (endExcl <= 0)
+            return;
+        for (ColumnId sourceColumn : sourceColumns)
+        {
+            try
+            {
+                recordSet.getColumn(sourceColumn).getType().getCollapsed(endExcl - 1);
+            }
+            catch (UserException e)
+            {
+                // Just an error in that cell, it's still been calculated
+            }
+        }
+    }
+}
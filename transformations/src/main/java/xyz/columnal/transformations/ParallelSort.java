@@ -0,0 +1,301 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package xyz.columnal.transformations;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.datatype.ProgressListener;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stable sort of row indexes, done in parallel on the common fork/join pool
+ * (which is sized to the number of processors).
+ *
+ * The keys should be extracted into arrays before sorting, so that comparing two rows
+ * is only an array lookup and comparison: the comparator is called from the pool's threads,
+ * so must not fetch from columns.  It's a merge sort: the halves are sorted in parallel, and then
+ * merged in parallel by splitting the merge at the midpoint of the longer half.
+ *
+ * The calling thread waits for the sort, reporting the progress as it goes.  If the calling
+ * thread is interrupted while waiting, the sort is cancelled.
+ */
+@OnThread(Tag.Simulation)
+class ParallelSort
+{
+    // Below this many items, sorting or merging is done sequentially:
+    private static final int SEQUENTIAL_THRESHOLD = 8192;
+    // Below this many items, the sequential sort uses an insertion sort:
+    private static final int INSERTION_THRESHOLD = 16;
+    // How often to report progress while waiting:
+    private static final long PROGRESS_INTERVAL_MILLIS = 100;
+
+    public static interface IndexComparator
+    {
+        // Called from multiple threads at once, so must be thread-safe.
+        @OnThread(Tag.Any)
+        public int compare(int a, int b);
+    }
+
+    private final int[] indexes;
+    // Scratch space for merging, the same length as indexes:
+    private final int[] buffer;
+    private final IndexComparator comparator;
+    // Number of items sorted or merged so far, for progress:
+    private final AtomicLong done = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    private ParallelSort(int[] indexes, IndexComparator comparator)
+    {
+        this.indexes = indexes;
+        this.buffer = new int[indexes.length];
+        this.comparator = comparator;
+    }
+
+    /**
+     * Returns the indexes [0, length) sorted by the comparator.  Indexes which
+     * compare equal stay in ascending order.
+     */
+    public static int[] sort(int length, IndexComparator comparator, @Nullable ProgressListener progressListener) throws InternalException, UserException
+    {
+        int[] indexes = new int[length];
+        for (int i = 0; i < length; i++)
+        {
+            indexes[i] = i;
+        }
+        ParallelSort sorter = new ParallelSort(indexes, comparator);
+        if (length <= SEQUENTIAL_THRESHOLD)
+        {
+            sorter.sequentialSort(0, length);
+            return indexes;
+        }
+
+        // Each item is counted once when its leaf is sorted, then once per level of merging:
+        int levels = 0;
+        for (int size = length; size > SEQUENTIAL_THRESHOLD; size = (size + 1) / 2)
+        {
+            levels += 1;
+        }
+        double total = (double)length * (levels + 1);
+
+        ForkJoinTask<Void> task = ForkJoinPool.commonPool().submit(sorter.new SortTask(0, length));
+        while (true)
+        {
+            try
+            {
+                task.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                return indexes;
+            }
+            catch (TimeoutException e)
+            {
+                if (progressListener != null)
+                    progressListener.progressUpdate(Math.min(1.0, sorter.done.get() / total));
+            }
+            catch (InterruptedException e)
+            {
+                // Stop the remaining tasks, and leave the interrupt for our caller to see too:
+                sorter.cancelled = true;
+                Thread.currentThread().interrupt();
+                throw new UserException("Sort was cancelled");
+            }
+            catch (ExecutionException e)
+            {
+                throw new InternalException("Error while sorting", e);
+            }
+        }
+    }
+
+    @OnThread(Tag.Any)
+    private void sequentialSort(int from, int to)
+    {
+        if (to - from <= INSERTION_THRESHOLD)
+        {
+            for (int i = from + 1; i < to; i++)
+            {
+                int item = indexes[i];
+                int j = i;
+                // Strictly greater, so that equal items keep their order:
+                while (j > from && comparator.compare(indexes[j - 1], item) > 0)
+                {
+                    indexes[j] = indexes[j - 1];
+                    j -= 1;
+                }
+                indexes[j] = item;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sequentialSort(from, mid);
+        sequentialSort(mid, to);
+        // Already in order, e.g. if the rows were sorted to begin with:
+        if (comparator.compare(indexes[mid - 1], indexes[mid]) <= 0)
+            return;
+        sequentialMerge(from, mid, mid, to, from);
+        System.arraycopy(buffer, from, indexes, from, to - from);
+    }
+
+    // Merges indexes[aFrom, aTo) and indexes[bFrom, bTo) into buffer, starting at dest.
+    @OnThread(Tag.Any)
+    private void sequentialMerge(int aFrom, int aTo, int bFrom, int bTo, int dest)
+    {
+        int a = aFrom;
+        int b = bFrom;
+        while (a < aTo && b < bTo)
+        {
+            // Take from a on a tie, to keep the sort stable:
+            if (comparator.compare(indexes[b], indexes[a]) < 0)
+                buffer[dest++] = indexes[b++];
+            else
+                buffer[dest++] = indexes[a++];
+        }
+        System.arraycopy(indexes, a, buffer, dest, aTo - a);
+        System.arraycopy(indexes, b, buffer, dest + (aTo - a), bTo - b);
+    }
+
+    // The first position in [from, to) which is not less than item:
+    @OnThread(Tag.Any)
+    private int lowerBound(int from, int to, int item)
+    {
+        while (from < to)
+        {
+            int mid = (from + to) >>> 1;
+            if (comparator.compare(indexes[mid], item) < 0)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+        return from;
+    }
+
+    // The first position in [from, to) which is greater than item:
+    @OnThread(Tag.Any)
+    private int upperBound(int from, int to, int item)
+    {
+        while (from < to)
+        {
+            int mid = (from + to) >>> 1;
+            if (comparator.compare(indexes[mid], item) <= 0)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+        return from;
+    }
+
+    // Sorts indexes[from, to) in place.
+    private class SortTask extends RecursiveAction
+    {
+        private final int from;
+        private final int to;
+
+        private SortTask(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        @OnThread(value = Tag.Simulation, ignoreParent = true)
+        protected void compute()
+        {
+            if (cancelled)
+                return;
+            if (to - from <= SEQUENTIAL_THRESHOLD)
+            {
+                sequentialSort(from, to);
+            }
+            else
+            {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SortTask(from, mid), new SortTask(mid, to));
+                if (cancelled)
+                    return;
+                if (comparator.compare(indexes[mid - 1], indexes[mid]) > 0)
+                {
+                    new MergeTask(from, mid, mid, to, from).invoke();
+                    System.arraycopy(buffer, from, indexes, from, to - from);
+                }
+            }
+            done.addAndGet(to - from);
+        }
+    }
+
+    // Merges indexes[aFrom, aTo) and indexes[bFrom, bTo) into buffer, starting at dest.
+    private class MergeTask extends RecursiveAction
+    {
+        private final int aFrom;
+        private final int aTo;
+        private final int bFrom;
+        private final int bTo;
+        private final int dest;
+
+        private MergeTask(int aFrom, int aTo, int bFrom, int bTo, int dest)
+        {
+            this.aFrom = aFrom;
+            this.aTo = aTo;
+            this.bFrom = bFrom;
+            this.bTo = bTo;
+            this.dest = dest;
+        }
+
+        @Override
+        @OnThread(value = Tag.Simulation, ignoreParent = true)
+        protected void compute()
+        {
+            if (cancelled)
+                return;
+            int aLength = aTo - aFrom;
+            int bLength = bTo - bFrom;
+            if (aLength + bLength <= SEQUENTIAL_THRESHOLD)
+            {
+                sequentialMerge(aFrom, aTo, bFrom, bTo, dest);
+                return;
+            }
+            // Split the longer run at its midpoint, and the other where that item would go.
+            // Items equal to the midpoint go after it if they're from b, but before it if from a,
+            // so that items from a stay ahead of equal items from b:
+            int aSplit;
+            int bSplit;
+            if (aLength >= bLength)
+            {
+                aSplit = (aFrom + aTo) >>> 1;
+                bSplit = lowerBound(bFrom, bTo, indexes[aSplit]);
+            }
+            else
+            {
+                bSplit = (bFrom + bTo) >>> 1;
+                aSplit = upperBound(aFrom, aTo, indexes[bSplit]);
+            }
+            invokeAll(new MergeTask(aFrom, aSplit, bFrom, bSplit, dest),
+                new MergeTask(aSplit, aTo, bSplit, bTo, dest + (aSplit - aFrom) + (bSplit - bFrom)));
+        }
+    }
+}
@@ -0,0 +1,548 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.transformations;
+
+import annotation.identifier.qual.ExpressionIdentifier;
+import annotation.recorded.qual.Recorded;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.Table;
+import xyz.columnal.data.Table.InitialLoadDetails;
+import xyz.columnal.data.TableManager;
+import xyz.columnal.data.datatype.DataType;
+import xyz.columnal.data.datatype.TypeManager;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.grammar.Versions.ExpressionVersion;
+import xyz.columnal.id.ColumnId;
+import xyz.columnal.id.TableAndColumnRenames;
+import xyz.columnal.id.TableId;
+import xyz.columnal.transformations.expression.BracketedStatus;
+import xyz.columnal.transformations.expression.ErrorAndTypeRecorderStorer;
+import xyz.columnal.transformations.expression.Expression;
+import xyz.columnal.transformations.expression.Expression.SaveDestination;
+import xyz.columnal.transformations.expression.ExpressionUtil;
+import xyz.columnal.transformations.expression.IdentExpression;
+import xyz.columnal.transformations.expression.TypeState;
+import xyz.columnal.transformations.expression.visitor.ExpressionVisitorStream;
+import xyz.columnal.transformations.function.FunctionList;
+import xyz.columnal.typeExp.TypeExp;
+import xyz.columnal.utility.adt.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.stream.Stream;
+
+/**
+ * A plan for calculating a table, which may reorder the transformations
+ * behind it into an equivalent order which is quicker to calculate.
+ *
+ * At the moment the only reordering is to move filters earlier, so that
+ * fewer rows go through the transformations after them.  A filter can move:
+ *  - below a sort, as sorting then filtering gives the same rows in the same order as filtering then sorting.
+ *  - below a calculate, if it only uses columns which the calculate does not change, and the calculate only uses the current row.
+ *  - into the primary side of a join, if it only uses columns from that side.
+ *  - into the secondary side of a join, if it only uses columns from that side, and the join doesn't keep unmatched primary rows.
+ * In all cases the filter may only use the current row (not whole columns or the row number), and the filter
+ * expression is copied and type-checked again against its new source.
+ *
+ * The plan only builds new tables (which are not added to the table manager, and have the
+ * same ids as the originals, so they give the same column names); the original tables are unchanged.
+ * Filters keep rows where the expression has an error, and such rows can sort or join differently
+ * to the original.  So if any moved filter has an error, we use the original table instead.
+ */
+@OnThread(Tag.Simulation)
+public final class QueryPlan
+{
+    private final TableManager mgr;
+    private final Table original;
+    private final Node root;
+    @OnThread(Tag.Any)
+    private final String description;
+
+    private QueryPlan(TableManager mgr, Table original, Node root)
+    {
+        this.mgr = mgr;
+        this.original = original;
+        this.root = root;
+        this.description = root.describe();
+    }
+
+    /**
+     * Plans how to calculate the given table.  Never fails: if nothing can be
+     * reordered, the plan just gives back the original table.
+     */
+    public static QueryPlan plan(Table table) throws InternalException
+    {
+        TableManager mgr = table.getManager();
+        return new QueryPlan(mgr, table, new Planner(mgr).planTable(table));
+    }
+
+    /**
+     * Gets a table with the same content as the one planned for.  This is the original table
+     * if nothing was reordered (or if a moved filter had errors), and a new table otherwise.
+     */
+    public Table execute() throws InternalException
+    {
+        List<Filter> movedFilters = new ArrayList<>();
+        try
+        {
+            Table result = root.execute(mgr, movedFilters);
+            for (Filter movedFilter : movedFilters)
+            {
+                if (movedFilter.filterAllRowsAndCheckErrors())
+                    return original;
+            }
+            return result;
+        }
+        catch (UserException e)
+        {
+            // Any problem in the new tables will also show up in the original, so let that report it:
+            return original;
+        }
+    }
+
+    /**
+     * Describes the plan, e.g. "Sort S (Filter F (T))" for a filter F which
+     * was after a sort S of table T, but is now before it.
+     */
+    @OnThread(Tag.Any)
+    public String describe()
+    {
+        return description;
+    }
+
+    @Override
+    @OnThread(Tag.Any)
+    public String toString()
+    {
+        return description;
+    }
+
+    private static abstract class Node
+    {
+        // The existing table which this node calculates, if it is unchanged from the original:
+        protected final @Nullable Table original;
+
+        protected Node(@Nullable Table original)
+        {
+            this.original = original;
+        }
+
+        public abstract TableId getId();
+
+        public abstract String describe();
+
+        // Makes the table, adding any filters which have been moved to movedFilters:
+        public abstract Table execute(TableManager mgr, List<Filter> movedFilters) throws InternalException, UserException;
+
+        // Is the table the same as the original for this node?
+        protected boolean isOriginal(Table table)
+        {
+            return table == original;
+        }
+
+        protected static InitialLoadDetails detailsFor(TableId tableId)
+        {
+            // Having an id means the table is not registered with the manager:
+            return new InitialLoadDetails(tableId, null, null, null);
+        }
+    }
+
+    // An existing table, with nothing below it reordered
+    private static class SourceNode extends Node
+    {
+        private final Table table;
+
+        public SourceNode(Table table)
+        {
+            super(table);
+            this.table = table;
+        }
+
+        @Override
+        public TableId getId()
+        {
+            return table.getId();
+        }
+
+        @Override
+        public String describe()
+        {
+            return table.getId().getRaw();
+        }
+
+        @Override
+        public Table execute(TableManager mgr, List<Filter> movedFilters)
+        {
+            return table;
+        }
+    }
+
+    private static class FilterNode extends Node
+    {
+        private final TableId filterId;
+        // Saved, so that it can be type-checked against the new source table:
+        private final String expression;
+        private final Node src;
+
+        // original is null if the filter has moved
+        public FilterNode(TableId filterId, String expression, Node src, @Nullable Filter original)
+        {
+            super(original);
+            this.filterId = filterId;
+            this.expression = expression;
+            this.src = src;
+        }
+
+        @Override
+        public TableId getId()
+        {
+            return filterId;
+        }
+
+        @Override
+        public String describe()
+        {
+            return "Filter " + filterId.getRaw() + " (" + src.describe() + ")";
+        }
+
+        @Override
+        public Table execute(TableManager mgr, List<Filter> movedFilters) throws InternalException, UserException
+        {
+            Table srcTable = src.execute(mgr, movedFilters);
+            if (original != null && src.isOriginal(srcTable))
+                return original;
+            Filter filter = new Filter(mgr, detailsFor(filterId), src.getId(), srcTable, parse(mgr, expression));
+            if (original == null)
+                movedFilters.add(filter);
+            return filter;
+        }
+    }
+
+    private static class SortNode extends Node
+    {
+        private final Sort sort;
+        private final Node src;
+
+        public SortNode(Sort sort, Node src)
+        {
+            super(sort);
+            this.sort = sort;
+            this.src = src;
+        }
+
+        @Override
+        public TableId getId()
+        {
+            return sort.getId();
+        }
+
+        @Override
+        public String describe()
+        {
+            return "Sort " + sort.getId().getRaw() + " (" + src.describe() + ")";
+        }
+
+        @Override
+        public Table execute(TableManager mgr, List<Filter> movedFilters) throws InternalException, UserException
+        {
+            Table srcTable = src.execute(mgr, movedFilters);
+            if (src.isOriginal(srcTable))
+                return sort;
+            return new Sort(mgr, detailsFor(sort.getId()), sort.getSrcTableId(), srcTable, sort.getSortBy());
+        }
+    }
+
+    private static class CalculateNode extends Node
+    {
+        private final Calculate calculate;
+        private final Node src;
+
+        public CalculateNode(Calculate calculate, Node src)
+        {
+            super(calculate);
+            this.calculate = calculate;
+            this.src = src;
+        }
+
+        @Override
+        public TableId getId()
+        {
+            return calculate.getId();
+        }
+
+        @Override
+        public String describe()
+        {
+            return "Calculate " + calculate.getId().getRaw() + " (" + src.describe() + ")";
+        }
+
+        @Override
+        public Table execute(TableManager mgr, List<Filter> movedFilters) throws InternalException, UserException
+        {
+            Table srcTable = src.execute(mgr, movedFilters);
+            if (src.isOriginal(srcTable))
+                return calculate;
+            // Expressions record what they refer to when type-checked, so the new table needs its own copies:
+            ImmutableMap.Builder<ColumnId, Expression> copies = ImmutableMap.builder();
+            for (Entry<ColumnId, Expression> entry : calculate.getCalculatedColumns().entrySet())
+            {
+                copies.put(entry.getKey(), parse(mgr, save(entry.getValue(), calculate.getSrcTableId(), TableAndColumnRenames.EMPTY)));
+            }
+            return new Calculate(mgr, detailsFor(calculate.getId()), calculate.getSrcTableId(), srcTable, copies.build());
+        }
+    }
+
+    private static class JoinNode extends Node
+    {
+        private final Join join;
+        private final Node primary;
+        private final Node secondary;
+
+        public JoinNode(Join join, Node primary, Node secondary)
+        {
+            super(join);
+            this.join = join;
+            this.primary = primary;
+            this.secondary = secondary;
+        }
+
+        @Override
+        public TableId getId()
+        {
+            return join.getId();
+        }
+
+        @Override
+        public String describe()
+        {
+            return "Join " + join.getId().getRaw() + " (" + primary.describe() + ", " + secondary.describe() + ")";
+        }
+
+        @Override
+        public Table execute(TableManager mgr, List<Filter> movedFilters) throws InternalException, UserException
+        {
+            Table primaryTable = primary.execute(mgr, movedFilters);
+            Table secondaryTable = secondary.execute(mgr, movedFilters);
+            if (primary.isOriginal(primaryTable) && secondary.isOriginal(secondaryTable))
+                return join;
+            return new Join(mgr, detailsFor(join.getId()), join.getPrimarySource(), join.getSecondarySource(), primaryTable, secondaryTable, join.isKeepPrimaryWithNoMatch(), join.getColumnsToMatch());
+        }
+    }
+
+    private static class Planner
+    {
+        private final TableManager mgr;
+        private final TypeManager typeManager;
+
+        public Planner(TableManager mgr)
+        {
+            this.mgr = mgr;
+            this.typeManager = mgr.getTypeManager();
+        }
+
+        public Node planTable(Table table) throws InternalException
+        {
+            if (table instanceof Filter)
+            {
+                Filter filter = (Filter) table;
+                @Nullable Table src = mgr.getSingleTableOrNull(filter.getSrcTableId());
+                if (src != null)
+                    return placeFilter(filter.getId(), save(filter.getFilterExpression(), filter.getSrcTableId(), TableAndColumnRenames.EMPTY), src, filter);
+            }
+            else if (table instanceof Sort)
+            {
+                Sort sort = (Sort) table;
+                @Nullable Table src = mgr.getSingleTableOrNull(sort.getSrcTableId());
+                if (src != null)
+                    return new SortNode(sort, planTable(src));
+            }
+            else if (table instanceof Calculate)
+            {
+                Calculate calculate = (Calculate) table;
+                @Nullable Table src = mgr.getSingleTableOrNull(calculate.getSrcTableId());
+                if (src != null)
+                    return new CalculateNode(calculate, planTable(src));
+            }
+            else if (table instanceof Join)
+            {
+                Join join = (Join) table;
+                @Nullable Table primary = mgr.getSingleTableOrNull(join.getPrimarySource());
+                @Nullable Table secondary = mgr.getSingleTableOrNull(join.getSecondarySource());
+                if (primary != null && secondary != null)
+                    return new JoinNode(join, planTable(primary), planTable(secondary));
+            }
+            return new SourceNode(table);
+        }
+
+        // Puts the filter (whose expression refers to src) as far below src as possible.
+        // original is the existing filter if it is still directly above src.
+        private Node placeFilter(TableId filterId, String expression, Table src, @Nullable Filter original) throws InternalException
+        {
+            @Nullable Node pushed = pushFilter(filterId, expression, src);
+            if (pushed != null)
+                return pushed;
+            return new FilterNode(filterId, expression, planTable(src), original);
+        }
+
+        // Tries to move the filter (whose expression refers to below) underneath below.  Returns null if we can't.
+        private @Nullable Node pushFilter(TableId filterId, String expression, Table below) throws InternalException
+        {
+            @Nullable Pair<Expression, ImmutableList<ColumnId>> checked = checkRowLocal(filterId, expression, below, Filter.makeTypeState(typeManager));
+            if (checked == null)
+                return null;
+            ImmutableList<ColumnId> usedColumns = checked.getSecond();
+
+            if (below instanceof Sort)
+            {
+                Sort sort = (Sort) below;
+                @Nullable Table src = mgr.getSingleTableOrNull(sort.getSrcTableId());
+                @Nullable String moved = src == null ? null : moveExpression(filterId, checked.getFirst(), below, src, TableAndColumnRenames.EMPTY);
+                if (src != null && moved != null)
+                    return new SortNode(sort, placeFilter(filterId, moved, src, null));
+            }
+            else if (below instanceof Calculate)
+            {
+                Calculate calculate = (Calculate) below;
+                @Nullable Table src = mgr.getSingleTableOrNull(calculate.getSrcTableId());
+                if (src != null && usedColumns.stream().noneMatch(calculate.getCalculatedColumns()::containsKey) && isRowLocal(calculate, src))
+                {
+                    @Nullable String moved = moveExpression(filterId, checked.getFirst(), below, src, TableAndColumnRenames.EMPTY);
+                    if (moved != null)
+                        return new CalculateNode(calculate, placeFilter(filterId, moved, src, null));
+                }
+            }
+            else if (below instanceof Join)
+            {
+                Join join = (Join) below;
+                @Nullable Table primary = mgr.getSingleTableOrNull(join.getPrimarySource());
+                @Nullable Table secondary = mgr.getSingleTableOrNull(join.getSecondarySource());
+                if (primary == null || secondary == null)
+                    return null;
+                try
+                {
+                    ImmutableMap<ColumnId, ColumnId> primaryNames = Join.getOutputColumnNames(primary.getId(), primary.getData(), secondary.getData());
+                    ImmutableMap<ColumnId, ColumnId> secondaryNames = Join.getOutputColumnNames(secondary.getId(), secondary.getData(), primary.getData());
+                    if (usedColumns.stream().allMatch(primaryNames::containsKey))
+                    {
+                        @Nullable String moved = moveExpression(filterId, checked.getFirst(), below, primary, renameColumns(join.getId(), primaryNames));
+                        if (moved != null)
+                            return new JoinNode(join, placeFilter(filterId, moved, primary, null), planTable(secondary));
+                    }
+                    // If we keep unmatched primary rows, filtering the secondary would change which are unmatched:
+                    else if (!join.isKeepPrimaryWithNoMatch() && usedColumns.stream().allMatch(secondaryNames::containsKey))
+                    {
+                        @Nullable String moved = moveExpression(filterId, checked.getFirst(), below, secondary, renameColumns(join.getId(), secondaryNames));
+                        if (moved != null)
+                            return new JoinNode(join, planTable(primary), placeFilter(filterId, moved, secondary, null));
+                    }
+                }
+                catch (UserException e)
+                {
+                    // Leave the filter where it is, and let the join report the error
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Copies an expression which has been type-checked against from, so that it refers to the same columns
+         * in to (renamed as given).  Returns the saved copy, or null if it does not type-check against to.
+         */
+        private @Nullable String moveExpression(TableId filterId, Expression checkedExpression, Table from, Table to, TableAndColumnRenames renames) throws InternalException
+        {
+            String moved = save(checkedExpression, from.getId(), renames);
+            if (checkRowLocal(filterId, moved, to, Filter.makeTypeState(typeManager)) == null)
+                return null;
+            return moved;
+        }
+
+        // Checks that all the calculate's expressions only use the current row of its source:
+        private boolean isRowLocal(Calculate calculate, Table src) throws InternalException
+        {
+            for (Expression expression : calculate.getCalculatedColumns().values())
+            {
+                if (checkRowLocal(calculate.getId(), save(expression, calculate.getSrcTableId(), TableAndColumnRenames.EMPTY), src, Calculate.makeTypeState(mgr)) == null)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Parses the expression and type-checks it against the given source.  If that works, and
+         * the expression only uses the current row of src, returns the checked expression and
+         * the columns of src which it uses.  Otherwise returns null.
+         */
+        private @Nullable Pair<Expression, ImmutableList<ColumnId>> checkRowLocal(TableId us, String expression, Table src, TypeState typeState) throws InternalException
+        {
+            try
+            {
+                Expression parsed = parse(mgr, expression);
+                ErrorAndTypeRecorderStorer typeRecorder = new ErrorAndTypeRecorderStorer();
+                @SuppressWarnings("recorded")
+                @Nullable TypeExp checked = parsed.checkExpression(MultipleTableLookup.withSourceTable(us, mgr, src, null), typeState, typeRecorder);
+                @Nullable DataType type = checked == null ? null : typeRecorder.recordLeftError(typeManager, FunctionList.getFunctionLookup(mgr.getUnitManager()), parsed, checked.toConcreteType(typeManager));
+                if (type == null || typeRecorder.getAllErrors().findAny().isPresent() || usesRowNumber(parsed))
+                    return null;
+                @Nullable ImmutableList<ColumnId> columns = ParallelRows.findRowColumns(parsed, src.getId());
+                return columns == null ? null : new Pair<>(parsed, columns);
+            }
+            catch (UserException e)
+            {
+                return null;
+            }
+        }
+    }
+
+    // Saves the expression with references to columns in srcTableId left unqualified, so it can be re-parsed against a different source
+    private static String save(Expression expression, TableId srcTableId, TableAndColumnRenames renames)
+    {
+        return expression.save(SaveDestination.TO_FILE, BracketedStatus.DONT_NEED_BRACKETS, renames.withDefaultTableId(srcTableId));
+    }
+
+    private static Expression parse(TableManager mgr, String expression) throws InternalException, UserException
+    {
+        return ExpressionUtil.parse(null, expression, ExpressionVersion.latest(), mgr.getTypeManager(), FunctionList.getFunctionLookup(mgr.getUnitManager()));
+    }
+
+    private static TableAndColumnRenames renameColumns(TableId tableId, ImmutableMap<ColumnId, ColumnId> columnRenames)
+    {
+        return new TableAndColumnRenames(ImmutableMap.of(tableId, new Pair<@Nullable TableId, ImmutableMap<ColumnId, ColumnId>>(null, columnRenames)));
+    }
+
+    // The row number differs once rows have been filtered out or reordered:
+    @SuppressWarnings("recorded")
+    private static boolean usesRowNumber(Expression expression)
+    {
+        return expression.visit(new ExpressionVisitorStream<Boolean>() {
+            @Override
+            public Stream<Boolean> ident(@Recorded IdentExpression self, @Nullable @ExpressionIdentifier String namespace, ImmutableList<@ExpressionIdentifier String> idents, boolean isVariable)
+            {
+                return isVariable && idents.equals(ImmutableList.of(TypeState.ROW_NUMBER)) ? Stream.of(true) : Stream.of();
+            }
+        }).findAny().isPresent();
+    }
+}
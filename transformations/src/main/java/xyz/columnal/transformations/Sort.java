@@ -36,12 +36,13 @@ import xyz.columnal.id.ColumnId;
 import xyz.columnal.id.TableAndColumnRenames;
 import xyz.columnal.id.TableId;
 import xyz.columnal.log.Log;
+import xyz.columnal.transformations.ParallelSort.IndexComparator;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.checkerframework.dataflow.qual.Pure;
-import xyz.columnal.data.datatype.DataTypeUtility;
 import xyz.columnal.data.datatype.DataTypeValue;
 import xyz.columnal.data.datatype.NumberInfo;
+import xyz.columnal.data.datatype.ProgressListener;
+import xyz.columnal.data.datatype.SortKeys;
 import xyz.columnal.error.InternalException;
 import xyz.columnal.error.InvalidImmediateValueException;
 import xyz.columnal.error.UserException;
@@ -55,7 +56,6 @@ import xyz.columnal.styled.StyledShowable;
 import xyz.columnal.styled.StyledString;
 import threadchecker.OnThread;
 import threadchecker.Tag;
-import xyz.columnal.utility.adt.Either;
 import xyz.columnal.utility.IdentifierUtility;
 import xyz.columnal.utility.adt.Pair;
 import xyz.columnal.utility.function.simulation.SimulationFunction;
@@ -63,6 +63,7 @@ import xyz.columnal.utility.Utility;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Stream;
@@ -100,39 +101,37 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
     // Not actually a column by itself, but holds a list of integers so reasonable to re-use:
     private final @Nullable NumericColumnStorage sortMap;
 
-    // This works like a linked list, but flattened into an integer array.
-    // The first item is the head, then others point onwards.  (Irritatingly, stillToOrder[n]
-    // corresponds to originalIndex=n-1, due to having the head.
-    // To begin with, each item points to the next:
-    // 0 : 1 [HEAD: originalIndex = 0]
-    // 1 : 2 [next item after originalIndex=0 is originalIndex=1]
-    // 2 : 3 [next item after originalIndex=1 is originalIndex=2]
-    // 3 : 4, etc
-    // Then, when we use an item from the list, e.g. item 2 from original list, we update pointers:
-    // 0 : 1
-    // 1 : 2
-    // 2 : 4 [next item after originalIndex=1 is originalIndex=3]
-    // 3 : 4 [now stillToOrder], etc
-    // Then if we use item 1, we update again:
-    // 0 : 1
-    // 1 : 4 [next item after originalIndex=0 is originalIndex=3]
-    // 2 : 4
-    // 3 : 4 [now stillToOrder], etc
-    private int @Nullable [] stillToOrder;
+    // The length of the source table:
+    private final int srcLength;
+
+    // The estimated size of the sort keys above which we sort in runs on disk, rather than in memory.
+    // Can be set with the columnal.sort.memoryBudget system property.
+    private static volatile long memoryBudget = Long.getLong("columnal.sort.memoryBudget", Runtime.getRuntime().maxMemory() / 4);
+    // The number of rows we look at to estimate the size of all the sort keys:
+    private static final int SIZE_SAMPLE_ROWS = 64;
+    // How often to report progress while making the sort keys:
+    private static final int PROGRESS_ROWS = 4096;
 
     @OnThread(Tag.Any)
     private final @NonNull ImmutableList<Pair<ColumnId, Direction>> originalSortBy;
     private final @Nullable ImmutableList<Pair<Column, Direction>> sortBy;
 
     public Sort(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, ImmutableList<Pair<ColumnId, Direction>> sortBy) throws InternalException
+    {
+        this(mgr, initialLoadDetails, srcTableId, mgr.getSingleTableOrNull(srcTableId), sortBy);
+    }
+
+    // Sorts the given table, which need not be in the manager (see QueryPlan).  srcTableId is only used for saving.
+    Sort(TableManager mgr, InitialLoadDetails initialLoadDetails, TableId srcTableId, @Nullable Table src, ImmutableList<Pair<ColumnId, Direction>> sortBy) throws InternalException
     {
         super(mgr, initialLoadDetails);
         this.srcTableId = srcTableId;
-        this.src = mgr.getSingleTableOrNull(srcTableId);
+        this.src = src;
         this.originalSortBy = sortBy;
         this.sortByError = "Unknown error with table \"" + getId() + "\"";
         if (this.src == null)
         {
+            this.srcLength = 0;
             this.result = null;
             this.sortBy = null;
             this.sortMap = null;
@@ -141,6 +140,7 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
         }
         @Nullable RecordSet theResult = null;
         @Nullable List<Pair<Column, Direction>> theSortBy = null;
+        int theSrcLength = 0;
         
         try
         {
@@ -150,6 +150,7 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
             {
                 srcData = this.src.getData();
                 srcDataLength = srcData.getLength();
+                theSrcLength = srcDataLength;
             }
             catch (UserException e)
             {
@@ -173,10 +174,6 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
 
             List<SimulationFunction<RecordSet, Column>> columns = new ArrayList<>();
 
-            this.stillToOrder = new int[srcDataLength + 1];
-            for (int i = 0; i < stillToOrder.length - 1; i++)
-                stillToOrder[i] = i + 1;
-            stillToOrder[stillToOrder.length - 1] = -1;
             for (Column c : srcData.getColumns())
             {
                 columns.add(rs -> new Column(rs, c.getName())
@@ -185,10 +182,10 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
                     @SuppressWarnings({"nullness", "initialization"})
                     public @OnThread(Tag.Any) DataTypeValue getType() throws InternalException, UserException
                     {
-                        return addManualEditSet(getName(), c.getType().copyReorder(i ->
+                        return addManualEditSet(getName(), c.getType().copyReorderWithProgress((i, prog) ->
                         {
-                            fillSortMapTo(i);
-                            return DataTypeUtility.value(sortMap.getInt(i));
+                            fillSortMapTo(i, prog);
+                            return sortMap.getInt(i);
                         }));
                     }
 
@@ -221,115 +218,130 @@ public class Sort extends VisitableTransformation implements SingleSourceTransfo
             if (msg != null)
                 this.sortByError = msg;
         }
+        this.srcLength = theSrcLength;
         this.result = theResult;
         this.sortMap = new NumericColumnStorage(NumberInfo.DEFAULT, false);
         this.sortBy = theSortBy != null ? ImmutableList.copyOf(theSortBy) : null;
     }
 
-    private void fillSortMapTo(int target) throws InternalException, UserException
+    private void fillSortMapTo(int target, @Nullable ProgressListener prog) throws InternalException, UserException
     {
         if (sortMap == null)
             throw new InternalException("Trying to fill null sort map; error in initialisation carried forward.");
-        int destStart = sortMap.filled();
-        Direction[] justDirections = originalSortBy.stream().map(p -> p.getSecond()).toArray(Direction[]::new);
-        for (int dest = destStart; dest <= target; dest++)
+        if (target < sortMap.filled())
+            return;
+        if (sortBy == null)
+            throw new UserException(sortByError);
+        @NonNull ImmutableList<Pair<Column, Direction>> sortByFinal = sortBy;
+        if (sortMap.filled() == 0)
         {
-            int lowestIndex = 0;
-            ImmutableList<Either<String, @Value Object>> lowest = null;
-            int pointerToLowestIndex = -1;
-            int prevSrc = 0;
-            if (stillToOrder == null)
-                throw new InternalException("Trying to re-sort an already sorted list");
-            // stillToOrder shouldn't possibly become null during this loop, but need to satisfy checker:
-            for (int src = stillToOrder[prevSrc]; src != -1; src = stillToOrder == null ? -1 : stillToOrder[src])
+            SortKeys.Encoder[] encoders = new SortKeys.Encoder[sortByFinal.size()];
+            for (int i = 0; i < encoders.length; i++)
             {
-                // src is in stillToOrder terms, which is one more than original indexes
-                ImmutableList<Either<String, @Value Object>> cur = getItem(src - 1);
-                if (lowest == null || compareFixedSet(cur, lowest, justDirections) < 0)
-                {
-                    lowest = cur;
-                    lowestIndex = src;
-                    pointerToLowestIndex = prevSrc;
-                }
-                prevSrc = src;
+                encoders[i] = SortKeys.encoder(sortByFinal.get(i).getFirst().getType().getType(), sortByFinal.get(i).getSecond() == Direction.DESCENDING);
             }
-            if (lowest != null && stillToOrder != null)
+            // First half of the progress is making the keys, second half is sorting:
+            Pair<@Nullable ProgressListener, @Nullable ProgressListener> progs = ProgressListener.split(prog);
+            // A single column whose values all encode as longs can be sorted on those directly:
+            long @Nullable [] longKeys = sortByFinal.size() == 1 ? encoders[0].encodeLongs(sortByFinal.get(0).getFirst().getType(), srcLength) : null;
+            if (longKeys != null)
             {
-                // Make the pointer behind lowest point to entry after lowest:
-                stillToOrder[pointerToLowestIndex] = stillToOrder[lowestIndex];
-                // Still to order is empty, so null it to garbage collect the memory:
-                if (stillToOrder[0] == -1)
-                    stillToOrder = null;
-                // lowestIndex is in stillToOrder terms, which is one more than original indexes
-                sortMap.add(lowestIndex - 1);
+                sortInMemory(sortMap, (a, b) -> Long.compare(longKeys[a], longKeys[b]), progs.getSecond());
             }
             else
             {
-                throw new InternalException("Not enough items available to fill source list");
+                long rowBytes = estimateRowBytes(sortByFinal, encoders);
+                if (rowBytes * srcLength <= memoryBudget)
+                {
+                    byte[][] keys = new byte[srcLength][];
+                    @Nullable ProgressListener keyProg = progs.getFirst();
+                    for (int i = 0; i < srcLength; i++)
+                    {
+                        keys[i] = makeKey(sortByFinal, encoders, i);
+                        if (keyProg != null && (i % PROGRESS_ROWS) == 0)
+                            keyProg.progressUpdate((double)i / srcLength);
+                    }
+                    sortInMemory(sortMap, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]), progs.getSecond());
+                }
+                else
+                {
+                    int runLength = (int)Math.max(1, Math.min(srcLength, memoryBudget / rowBytes));
+                    // The runs are merged and deleted straight away, as there's nothing
+                    // to close them if we only read part of the sorted table:
+                    int[] order = ExternalSort.sort(srcLength, runLength, i -> makeKey(sortByFinal, encoders, i), prog);
+                    for (int srcIndex : order)
+                    {
+                        sortMap.add(srcIndex);
+                    }
+                }
             }
+        }
+
+        if (sortMap.filled() <= target)
+            throw new InternalException("Not enough items available to fill source list");
+    }
 
-            //if (prog != null)
-                //prog.progressUpdate((double)(dest - destStart) / (double)(target - dest));
+    // Sorts all the source rows using the given comparison of source indexes:
+    private void sortInMemory(NumericColumnStorage sortMap, IndexComparator comparator, @Nullable ProgressListener prog) throws InternalException, UserException
+    {
+        // The sort is stable, so equal rows stay in their original order:
+        int[] order = ParallelSort.sort(srcLength, comparator, prog);
+        for (int srcIndex : order)
+        {
+            sortMap.add(srcIndex);
         }
     }
 
-    // All arrays must be same length.
-    // Returns -1 if a is before b, given the directions.
-    // e.g. compareFixedSet({0}, {1}, DESCENDING) will return positive number, because 0 is after 1 when descending
-    private static int compareFixedSet(ImmutableList<Either<String, @Value Object>> a, ImmutableList<Either<String, @Value Object>> b, Direction[] justDirections) throws UserException, InternalException
+    // Estimates the heap size of the sort key for one row, from a sample of rows:
+    private long estimateRowBytes(ImmutableList<Pair<Column, Direction>> sortBy, SortKeys.Encoder[] encoders) throws InternalException, UserException
     {
-        for (int i = 0; i < a.size(); i++)
+        int samples = Math.min(srcLength, SIZE_SAMPLE_ROWS);
+        long sampledBytes = 0;
+        for (int s = 0; s < samples; s++)
         {
-            Either<String, @Value Object> ax = a.get(i);
-            Either<String, @Value Object> bx = b.get(i);
-            // Errors are always first, whether descending or ascending:
-            if (ax.isLeft())
-            {
-                if (bx.isLeft())
-                    return ax.getLeft("Impossible ax").compareTo(bx.getLeft("Impossible bx"));
-                else
-                    return -1;
-            }
-            else if (bx.isLeft())
-            {
-                return 1;
-            }
-            int cmp = Utility.compareValues(ax.getRight("Impossible ax"), bx.getRight("Impossible bx"));
-            if (justDirections[i] == Direction.DESCENDING)
-                cmp = -cmp;
-            if (cmp != 0)
-                return cmp;
+            sampledBytes += makeKey(sortBy, encoders, (int)((long)s * srcLength / samples)).length;
         }
-        return 0;
+        // Plus the array header, and the row index in the sort and its scratch space:
+        return 48 + (samples == 0 ? 0 : sampledBytes / samples);
     }
 
-    @Pure
-    private ImmutableList<Either<String, @Value Object>> getItem(int srcIndex) throws UserException, InternalException
+    // Makes a key for the given source row, which compares as unsigned bytes in the order we sort by.
+    // Errors come before all values, and are ordered by message.
+    private static byte[] makeKey(ImmutableList<Pair<Column, Direction>> sortBy, SortKeys.Encoder[] encoders, int srcIndex) throws InternalException, UserException
     {
-        if (sortBy == null)
-            throw new UserException(sortByError);
-        ImmutableList.Builder<Either<String, @Value Object>> r = ImmutableList.builderWithExpectedSize(sortBy.size());
+        SortKeys.KeyBuilder key = new SortKeys.KeyBuilder();
         for (int i = 0; i < sortBy.size(); i++)
         {
-            Pair<Column, Direction> c = sortBy.get(i);
-            Either<String, @Value Object> val;
+            @Value Object value;
             try
             {
-                val = Either.right(c.getFirst().getType().getCollapsed(srcIndex));
+                value = sortBy.get(i).getFirst().getType().getCollapsed(srcIndex);
             }
             catch (InvalidImmediateValueException e)
             {
-                val = Either.left(e.getInvalid());
+                key.addError(e.getInvalid());
+                // Rows with the same error are equal, whatever their later columns:
+                break;
             }
             catch (InternalException | UserException e)
             {
                 if (e instanceof InternalException)
                     Log.log(e);
-                val = Either.left(e.getLocalizedMessage());
+                String message = e.getLocalizedMessage();
+                key.addError(message == null ? "" : message);
+                break;
             }
-            r.add(val);
+            key.add(encoders[i], value);
         }
-        return r.build();
+        return key.build();
+    }
+
+    // public for testing.  Returns the previous budget.
+    public static long setMemoryBudget(long bytes)
+    {
+        long previous = memoryBudget;
+        memoryBudget = bytes;
+        return previous;
     }
 
     @Override
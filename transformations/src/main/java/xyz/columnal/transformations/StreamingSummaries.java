@@ -0,0 +1,442 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.transformations;
+
+import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.Column;
+import xyz.columnal.data.RecordSet;
+import xyz.columnal.data.datatype.DataTypeUtility;
+import xyz.columnal.data.datatype.DataTypeValue;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.id.ColumnId;
+import xyz.columnal.id.TableId;
+import xyz.columnal.transformations.expression.AddSubtractExpression;
+import xyz.columnal.transformations.expression.AddSubtractExpression.AddSubtractOp;
+import xyz.columnal.transformations.expression.CallExpression;
+import xyz.columnal.transformations.expression.DivideExpression;
+import xyz.columnal.transformations.expression.Expression;
+import xyz.columnal.transformations.expression.IdentExpression;
+import xyz.columnal.transformations.expression.NumericLiteral;
+import xyz.columnal.transformations.expression.TimesExpression;
+import xyz.columnal.transformations.expression.TypeState;
+import xyz.columnal.transformations.expression.function.StandardFunctionDefinition;
+import xyz.columnal.transformations.function.Mean;
+import xyz.columnal.transformations.function.NumberReduction;
+import xyz.columnal.transformations.function.Sum;
+import xyz.columnal.transformations.function.comparison.Max;
+import xyz.columnal.transformations.function.comparison.Min;
+import xyz.columnal.transformations.function.list.Count;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.adt.Pair;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Calculates the common summaries in an Aggregate (sum, average, minimum,
+ * maximum and list length of a grouped column) for all groups at once.
+ *
+ * The general way to calculate a summary is to evaluate the expression once
+ * per group, with each grouped column presented as a list of that group's
+ * values.  That means each summary fetches its source values again, via
+ * a list view per group.  Here instead we scan the source rows once, in order,
+ * and add each value to the accumulators of its group, for all the recognised
+ * summaries at once.  The scan happens the first time any of the results is needed.
+ *
+ * Arithmetic on those summaries, the group count and number literals (e.g. an
+ * average written as sum(x) / group count) is also calculated here, with the
+ * same number operations as the expressions themselves.
+ *
+ * Anything not recognised is left to the general path, and the results
+ * here match what the general path would give (including which
+ * row's error is reported, as we scan the rows in the same order).
+ */
+@OnThread(Tag.Simulation)
+class StreamingSummaries
+{
+    // How many rows to fetch at once from columns which support bulk fetch:
+    private static final int CHUNK_SIZE = 4096;
+
+    private static enum Kind { SUM, AVERAGE, MINIMUM, MAXIMUM, COUNT }
+
+    // A recognised expression, calculated for one group at a time.
+    // A null result means the general path should be used instead.
+    @OnThread(Tag.Simulation)
+    private static interface Formula
+    {
+        public @Nullable @Value Object get(int group) throws InternalException, UserException;
+    }
+
+    private static class Summary
+    {
+        private final Kind kind;
+        private final ColumnId sourceColumn;
+        // Only used by SUM and AVERAGE, one per group:
+        private final NumberReduction[] totals;
+        // Only used by MINIMUM and MAXIMUM, one per group:
+        private final @Nullable @Value Number[] best;
+        // Once a group has an error, we stop accumulating for that group:
+        private final @Nullable UserException[] errors;
+
+        private Summary(Kind kind, ColumnId sourceColumn, int groupCount)
+        {
+            this.kind = kind;
+            this.sourceColumn = sourceColumn;
+            this.totals = new NumberReduction[kind == Kind.SUM || kind == Kind.AVERAGE ? groupCount : 0];
+            for (int i = 0; i < totals.length; i++)
+            {
+                totals[i] = new NumberReduction();
+            }
+            this.best = new @Nullable @Value Number[kind == Kind.MINIMUM || kind == Kind.MAXIMUM ? groupCount : 0];
+            this.errors = new @Nullable UserException[groupCount];
+        }
+
+        private void add(int group, long value)
+        {
+            if (errors[group] != null)
+                return;
+            switch (kind)
+            {
+                case SUM: case AVERAGE:
+                    totals[group].add(value);
+                    break;
+                case MINIMUM: case MAXIMUM:
+                    @Nullable @Value Number cur = best[group];
+                    if (cur == null || (cur instanceof Long ? (kind == Kind.MAXIMUM ? value > (Long)cur : value < (Long)cur) : isBetter(DataTypeUtility.value(value), cur)))
+                        best[group] = DataTypeUtility.value(value);
+                    break;
+            }
+        }
+
+        private void add(int group, @Value Number value)
+        {
+            if (errors[group] != null)
+                return;
+            switch (kind)
+            {
+                case SUM: case AVERAGE:
+                    totals[group].add(value);
+                    break;
+                case MINIMUM: case MAXIMUM:
+                    @Nullable @Value Number cur = best[group];
+                    if (cur == null || isBetter(value, cur))
+                        best[group] = value;
+                    break;
+            }
+        }
+
+        private boolean isBetter(@Value Number candidate, @Value Number cur)
+        {
+            int cmp = Utility.compareNumbers(candidate, cur);
+            return kind == Kind.MAXIMUM ? cmp > 0 : cmp < 0;
+        }
+
+        private void addError(int group, UserException e)
+        {
+            if (errors[group] == null)
+                errors[group] = e;
+        }
+    }
+
+    private final RecordSet src;
+    private final int srcLength;
+    // The group index of each row in the source table:
+    private final int[] groupOfRow;
+    // The number of source rows in each group:
+    private final int[] groupSizes;
+    private final List<Summary> summaries = new ArrayList<>();
+    private final List<Formula> formulas = new ArrayList<>();
+    private boolean calculated = false;
+
+    public StreamingSummaries(RecordSet src, int srcLength, int[] groupOfRow, int[] groupSizes)
+    {
+        this.src = src;
+        this.srcLength = srcLength;
+        this.groupOfRow = groupOfRow;
+        this.groupSizes = groupSizes;
+    }
+
+    /**
+     * Checks if the given (already type-checked) summary expression is one we can
+     * calculate here.  If so, returns an index to pass to get.  If not, returns -1.
+     */
+    public int recognise(Expression expression, TableId srcTableId, ImmutableList<ColumnId> splitBy) throws InternalException, UserException
+    {
+        int summariesBefore = summaries.size();
+        @Nullable Formula formula = recogniseFormula(expression, srcTableId, splitBy);
+        if (formula == null)
+        {
+            // Don't calculate summaries from a partly-recognised expression:
+            summaries.subList(summariesBefore, summaries.size()).clear();
+            return -1;
+        }
+        formulas.add(formula);
+        return formulas.size() - 1;
+    }
+
+    // Recognises a summary, the group count, a number literal, or arithmetic
+    // on those (e.g. sum(x) / group count).  Returns null if not recognised.
+    private @Nullable Formula recogniseFormula(Expression expression, TableId srcTableId, ImmutableList<ColumnId> splitBy) throws InternalException, UserException
+    {
+        if (expression instanceof CallExpression)
+        {
+            @Nullable Summary recognised = recogniseSummary((CallExpression) expression, srcTableId, splitBy);
+            if (recognised == null)
+                return null;
+            Summary summary = recognised;
+            summaries.add(summary);
+            return group -> getSummary(summary, group);
+        }
+        else if (expression instanceof NumericLiteral)
+        {
+            // Units only matter at type-check time:
+            @Value Number value = ((NumericLiteral) expression).getNumber();
+            return group -> value;
+        }
+        else if (expression instanceof IdentExpression)
+        {
+            IdentExpression ident = (IdentExpression) expression;
+            if (ident.isResolvedVariable() && TypeState.GROUP_COUNT.equals(IdentExpression.getSingleIdent(ident)))
+                return group -> DataTypeUtility.value(groupSizes[group]);
+            return null;
+        }
+        else if (expression instanceof AddSubtractExpression)
+        {
+            @Nullable ImmutableList<Formula> recognised = recogniseAll(((AddSubtractExpression) expression).getChildren(), srcTableId, splitBy);
+            if (recognised == null)
+                return null;
+            ImmutableList<Formula> operands = recognised;
+            ImmutableList<AddSubtractOp> ops = ((AddSubtractExpression) expression).getOps();
+            // Same calculation as AddSubtractExpression:
+            return group -> {
+                @Nullable List<@Value Number> values = calculateAll(operands, group);
+                if (values == null)
+                    return null;
+                @Value Number n = values.get(0);
+                for (int i = 1; i < values.size(); i++)
+                {
+                    n = Utility.addSubtractNumbers(n, values.get(i), ops.get(i - 1) == AddSubtractOp.ADD);
+                }
+                return n;
+            };
+        }
+        else if (expression instanceof TimesExpression)
+        {
+            @Nullable ImmutableList<Formula> recognised = recogniseAll(((TimesExpression) expression).getChildren(), srcTableId, splitBy);
+            if (recognised == null)
+                return null;
+            ImmutableList<Formula> operands = recognised;
+            // Same calculation as TimesExpression:
+            return group -> {
+                @Nullable List<@Value Number> values = calculateAll(operands, group);
+                if (values == null)
+                    return null;
+                @Value Number n = values.get(0);
+                for (int i = 1; i < values.size(); i++)
+                {
+                    n = Utility.multiplyNumbers(n, values.get(i));
+                }
+                return n;
+            };
+        }
+        else if (expression instanceof DivideExpression)
+        {
+            DivideExpression divide = (DivideExpression) expression;
+            @Nullable ImmutableList<Formula> recognised = recogniseAll(ImmutableList.of(divide.getLHS(), divide.getRHS()), srcTableId, splitBy);
+            if (recognised == null)
+                return null;
+            ImmutableList<Formula> operands = recognised;
+            // Same calculation as DivideExpression:
+            return group -> {
+                @Nullable List<@Value Number> values = calculateAll(operands, group);
+                if (values == null)
+                    return null;
+                return Utility.divideNumbers(values.get(0), values.get(1));
+            };
+        }
+        return null;
+    }
+
+    private @Nullable ImmutableList<Formula> recogniseAll(List<Expression> expressions, TableId srcTableId, ImmutableList<ColumnId> splitBy) throws InternalException, UserException
+    {
+        ImmutableList.Builder<Formula> formulas = ImmutableList.builderWithExpectedSize(expressions.size());
+        for (Expression expression : expressions)
+        {
+            @Nullable Formula formula = recogniseFormula(expression, srcTableId, splitBy);
+            if (formula == null)
+                return null;
+            formulas.add(formula);
+        }
+        return formulas.build();
+    }
+
+    // Calculates the operands in order, so that the first error thrown is
+    // the same as the general path.  Returns null if any operand should use the general path.
+    private static @Nullable List<@Value Number> calculateAll(ImmutableList<Formula> operands, int group) throws InternalException, UserException
+    {
+        List<@Value Number> values = new ArrayList<>(operands.size());
+        for (Formula operand : operands)
+        {
+            @Nullable @Value Object value = operand.get(group);
+            if (value == null)
+                return null;
+            values.add(Utility.cast(value, Number.class));
+        }
+        return values;
+    }
+
+    private @Nullable Summary recogniseSummary(CallExpression call, TableId srcTableId, ImmutableList<ColumnId> splitBy) throws InternalException, UserException
+    {
+        if (!(call.getFunction() instanceof IdentExpression) || call.getParams().size() != 1 || !(call.getParams().get(0) instanceof IdentExpression))
+            return null;
+        @Nullable StandardFunctionDefinition function = ((IdentExpression) call.getFunction()).getFunctionDefinition();
+        @Nullable Pair<TableId, ColumnId> column = ((IdentExpression) call.getParams().get(0)).getResolvedColumn();
+        // Must be a grouped column from our source:
+        if (function == null || column == null || !column.getFirst().equals(srcTableId) || splitBy.contains(column.getSecond()))
+            return null;
+
+        final Kind kind;
+        if (function instanceof Count)
+            kind = Kind.COUNT;
+        else if (function instanceof Sum)
+            kind = Kind.SUM;
+        else if (function instanceof Mean)
+            kind = Kind.AVERAGE;
+        else if (function instanceof Min)
+            kind = Kind.MINIMUM;
+        else if (function instanceof Max)
+            kind = Kind.MAXIMUM;
+        else
+            return null;
+
+        // Minimum and maximum work on all types, but we only handle numbers:
+        if (kind != Kind.COUNT && !DataTypeUtility.isNumber(src.getColumn(column.getSecond()).getType().getType()))
+            return null;
+
+        return new Summary(kind, column.getSecond(), groupSizes.length);
+    }
+
+    /**
+     * Gets the result of the given recognised expression for the given group.  Returns null
+     * if the result should be calculated by the general path instead (which is
+     * used to give the right error for empty groups).
+     */
+    public @Nullable @Value Object get(int formulaIndex, int group) throws InternalException, UserException
+    {
+        return formulas.get(formulaIndex).get(group);
+    }
+
+    private @Nullable @Value Object getSummary(Summary summary, int group) throws InternalException, UserException
+    {
+        if (summary.kind == Kind.COUNT)
+            return DataTypeUtility.value(groupSizes[group]);
+
+        if (!calculated)
+        {
+            calculate();
+            calculated = true;
+        }
+
+        @Nullable UserException error = summary.errors[group];
+        if (error != null)
+            throw error;
+        switch (summary.kind)
+        {
+            case SUM:
+                return summary.totals[group].getTotal();
+            case AVERAGE:
+                return groupSizes[group] == 0 ? null : summary.totals[group].getAverage();
+            default:
+                return summary.best[group];
+        }
+    }
+
+    // Makes one pass over the source rows, adding each value to the
+    // accumulators of all the summaries which use that column.
+    private void calculate() throws InternalException, UserException
+    {
+        // Each source column is only fetched once, even if used by several summaries:
+        LinkedHashMap<ColumnId, List<Summary>> byColumn = new LinkedHashMap<>();
+        for (Summary summary : summaries)
+        {
+            if (summary.kind != Kind.COUNT)
+                byColumn.computeIfAbsent(summary.sourceColumn, c -> new ArrayList<>()).add(summary);
+        }
+        List<Pair<DataTypeValue, List<Summary>>> columns = new ArrayList<>();
+        for (Entry<ColumnId, List<Summary>> entry : byColumn.entrySet())
+        {
+            Column column = src.getColumn(entry.getKey());
+            columns.add(new Pair<>(column.getType(), entry.getValue()));
+        }
+
+        long[] chunk = new long[Math.min(srcLength, CHUNK_SIZE)];
+        for (int start = 0; start < srcLength; start += CHUNK_SIZE)
+        {
+            int end = Math.min(srcLength, start + CHUNK_SIZE);
+            for (Pair<DataTypeValue, List<Summary>> column : columns)
+            {
+                DataTypeValue type = column.getFirst();
+                List<Summary> columnSummaries = column.getSecond();
+                if (type.getLongs(start, end, chunk))
+                {
+                    for (int row = start; row < end; row++)
+                    {
+                        int group = groupOfRow[row];
+                        long value = chunk[row - start];
+                        for (Summary summary : columnSummaries)
+                        {
+                            summary.add(group, value);
+                        }
+                    }
+                }
+                else
+                {
+                    for (int row = start; row < end; row++)
+                    {
+                        int group = groupOfRow[row];
+                        try
+                        {
+                            @Value Number value = Utility.valueNumber(type.getCollapsed(row));
+                            for (Summary summary : columnSummaries)
+                            {
+                                summary.add(group, value);
+                            }
+                        }
+                        catch (UserException e)
+                        {
+                            for (Summary summary : columnSummaries)
+                            {
+                                summary.addError(group, e);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
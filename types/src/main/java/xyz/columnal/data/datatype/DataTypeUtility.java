@@ -1075,8 +1075,16 @@ public class DataTypeUtility
         @Override
         public int hashCode()
         {
-            // Accept hash collisions; should be using comparable implementation for maps anyway
-            return 1;
+            try
+            {
+                return Utility.hashValue(value);
+            }
+            catch (InternalException | UserException e)
+            {
+                Log.log(e);
+                // Accept hash collisions if we can't fetch the value:
+                return 1;
+            }
         }
 
         @Override
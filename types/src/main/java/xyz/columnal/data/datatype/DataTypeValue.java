@@ -46,6 +46,7 @@ import xyz.columnal.utility.Utility.Record;
 
 import java.time.temporal.TemporalAccessor;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
@@ -54,6 +55,15 @@ import java.util.function.Function;
  */
 public final class DataTypeValue
 {
+    // Incremented whenever the data stored behind this value is altered in place (a value
+    // is set, or rows are inserted or removed).  Caches of information derived from a
+    // column's content record its edit version on creation, and are stale once it changes.
+    // Calculating values for the first time does not count as an edit.
+    private final AtomicLong editVersion = new AtomicLong();
+    // If we read our content from another value (e.g. we are a reorder of it),
+    // that value, as its edits also alter our content:
+    private @Nullable DataTypeValue viewOf;
+    
     private final DataType dataType;
     private final @Nullable GetValue<@Value Number> getNumber;
     private final @Nullable GetValue<@Value String> getText;
@@ -62,6 +72,11 @@ public final class DataTypeValue
     private final @Nullable GetValue<@Value TaggedValue> getTag;
     private final @Nullable GetValue<@Value Record> getRecord;
     private final @Nullable GetValue<@Value ListEx> getArrayContent;
+    // If this was made by copyReorder, the DataTypeValue which it ultimately
+    // reads from, and the mapping from our indexes to its indexes.  Reorders of
+    // reorders are composed, so that the base is never itself a reorder.
+    private @Nullable DataTypeValue reorderBase;
+    private @Nullable MapIndex reorderMap;
 
     // package-visible
     DataTypeValue(DataType dataType, @Nullable GetValue<@Value Number> getNumber, @Nullable GetValue<@Value String> getText, @Nullable GetValue<@Value TemporalAccessor> getDate, @Nullable GetValue<@Value Boolean> getBoolean, @Nullable GetValue<@Value TaggedValue> getTag, @Nullable GetValue<@Value Record> getRecord, @Nullable GetValue<@Value ListEx> getArrayContent)
@@ -187,6 +202,28 @@ public final class DataTypeValue
         return dataType;
     }
 
+    /**
+     * Gets the edit version of this value, which changes whenever the data it
+     * reads from is edited (see dataEdited).  Only edits to this value, and to
+     * values which this is a view of, count; other columns' edits don't affect it.
+     */
+    @OnThread(Tag.Any)
+    public long getEditVersion()
+    {
+        // Each part only ever goes up, so the sum changes whenever either part does:
+        @Nullable DataTypeValue view = viewOf;
+        return editVersion.get() + (view == null ? 0 : view.getEditVersion());
+    }
+
+    /**
+     * Should be called by any storage on its value when a value is altered in place.
+     */
+    @OnThread(Tag.Any)
+    public void dataEdited()
+    {
+        editVersion.incrementAndGet();
+    }
+
     public static class SpecificDataTypeVisitorGet<R> implements DataTypeVisitorGet<R>
     {
         private final @Nullable InternalException internal;
@@ -368,6 +405,63 @@ public final class DataTypeValue
     }
 
 
+    /**
+     * Optionally implemented by number GetValue implementations which can supply
+     * integer values in bulk without boxing each one.
+     */
+    public static interface GetLongs
+    {
+        /**
+         * Copies the values at [fromIncl, toExcl) into dest, starting at dest[0].
+         * Returns true if successful.  Returns false if any of the values is
+         * not an integer that fits in a long, or is an error, in which case the
+         * contents of dest are undefined and the caller should fetch items individually.
+         */
+        @OnThread(Tag.Simulation)
+        boolean getLongs(int fromIncl, int toExcl, long[] dest) throws UserException, InternalException;
+    }
+
+    /**
+     * If this is a number column which supports bulk fetching of integers, tries to
+     * copy the values at [fromIncl, toExcl) into dest.  See GetLongs.getLongs for the
+     * meaning of the return.  Always returns false for non-number columns.
+     */
+    @OnThread(Tag.Simulation)
+    public boolean getLongs(int fromIncl, int toExcl, long[] dest) throws UserException, InternalException
+    {
+        if (getNumber instanceof GetLongs)
+            return ((GetLongs) getNumber).getLongs(fromIncl, toExcl, dest);
+        return false;
+    }
+
+    /**
+     * Optionally implemented by record GetValue implementations which store
+     * each field separately, and can thus give direct access to a field's values.
+     */
+    public static interface GetRecordFields
+    {
+        /**
+         * Gets the values of the given field, by row index, or null if the field
+         * is not known.  A row which is an error in the record is an error with the
+         * same message in the field.
+         */
+        @OnThread(Tag.Any)
+        public @Nullable DataTypeValue getFieldValues(@ExpressionIdentifier String fieldName);
+    }
+
+    /**
+     * If this is a record column which stores its fields separately, gets the
+     * values of the given field directly, without making each record.
+     * Returns null if not available.
+     */
+    @OnThread(Tag.Any)
+    public @Nullable DataTypeValue getRecordField(@ExpressionIdentifier String fieldName)
+    {
+        if (getRecord instanceof GetRecordFields)
+            return ((GetRecordFields) getRecord).getFieldValues(fieldName);
+        return null;
+    }
+
     /**
      * Gets the collapsed, dynamically typed value at the given index
      *
@@ -459,12 +553,69 @@ public final class DataTypeValue
 
     }
 
+    /**
+     * Maps an index in a reordered DataTypeValue to an index in the original.
+     * The progress listener is the one passed to the value fetch which needed
+     * the mapping, so that a mapping which takes a while the first time
+     * (e.g. a sort) can report its progress.
+     */
+    public static interface MapIndex
+    {
+        @OnThread(Tag.Simulation)
+        int mapToOriginalIndex(int index, @Nullable ProgressListener progressListener) throws UserException, InternalException;
+    }
+
     /**
      * The function maps a destination index to an index in the original DataTypeValue (this).
+     * If this is itself a reorder, the result reads directly from what this reorders,
+     * so that a chain of reorders is only one level deep.
      */
     public DataTypeValue copyReorder(SimulationFunction<Integer, Integer> mapToOriginalIndex) throws InternalException
     {
-        return copySeveral(dataType, i -> new Pair<DataTypeValue, Integer>(this, mapToOriginalIndex.apply(i)));
+        return copyReorderWithProgress((i, prog) -> mapToOriginalIndex.apply(i));
+    }
+
+    /**
+     * As copyReorder, but the mapping is also given the progress listener of the fetch.
+     */
+    public DataTypeValue copyReorderWithProgress(MapIndex mapToOriginalIndex) throws InternalException
+    {
+        final DataTypeValue base;
+        final MapIndex mapToBaseIndex;
+        @Nullable DataTypeValue ourBase = reorderBase;
+        @Nullable MapIndex ourMap = reorderMap;
+        if (ourBase != null && ourMap != null)
+        {
+            base = ourBase;
+            // Fetches go straight to the base, so the mapping may not have been calculated yet
+            // (nothing need ever fetch from us directly): both mappings are given the progress.
+            mapToBaseIndex = (i, prog) -> ourMap.mapToOriginalIndex(mapToOriginalIndex.mapToOriginalIndex(i, prog), prog);
+        }
+        else
+        {
+            base = this;
+            mapToBaseIndex = mapToOriginalIndex;
+        }
+        DataTypeValue reordered = new DataTypeValue(dataType,
+            reorder(base.getNumber, mapToBaseIndex),
+            reorder(base.getText, mapToBaseIndex),
+            reorder(base.getDate, mapToBaseIndex),
+            reorder(base.getBoolean, mapToBaseIndex),
+            reorder(base.getTag, mapToBaseIndex),
+            reorder(base.getRecord, mapToBaseIndex),
+            reorder(base.getArrayContent, mapToBaseIndex));
+        reordered.reorderBase = base;
+        reordered.reorderMap = mapToBaseIndex;
+        reordered.viewOf = this;
+        return reordered;
+    }
+
+    private static <T extends @NonNull Object> @Nullable GetValue<@Value T> reorder(@Nullable GetValue<@Value T> g, MapIndex mapToOriginalIndex)
+    {
+        if (g == null)
+            return null;
+        @NonNull GetValue<@Value T> gFinal = g;
+        return (int destIndex, final @Nullable ProgressListener prog) -> gFinal.getWithProgress(mapToOriginalIndex.mapToOriginalIndex(destIndex, prog), prog);
     }
 
     /**
@@ -477,14 +628,37 @@ public final class DataTypeValue
     {
         try
         {
+            // As for copyReorder, read directly from what we reorder, if we are a reorder:
+            final DataTypeValue base;
+            final SimulationFunction<Integer, @Nullable Integer> mapToBaseIndex;
+            @Nullable DataTypeValue ourBase = reorderBase;
+            @Nullable MapIndex ourMap = reorderMap;
+            if (ourBase != null && ourMap != null)
+            {
+                base = ourBase;
+                mapToBaseIndex = i -> {
+                    @Nullable Integer mapped = mapToOriginalIndex.apply(i);
+                    return mapped == null ? null : ourMap.mapToOriginalIndex(mapped, null);
+                };
+            }
+            else
+            {
+                base = this;
+                mapToBaseIndex = mapToOriginalIndex;
+            }
+            
             DataType maybeType = typeManager.getMaybeType().instantiate(ImmutableList.of(Either.<Unit, DataType>right(dataType)), typeManager);
-            return copySeveral(maybeType, i -> {
-                @Nullable Integer mapped = mapToOriginalIndex.apply(i);
+            DataTypeValue missing = maybeType.fromCollapsed((a, b) -> typeManager.maybeMissing());
+            DataTypeValue present = maybeType.fromCollapsed((j, b) -> typeManager.maybePresent(base.getCollapsed(j)));
+            DataTypeValue wrapped = copySeveral(maybeType, i -> {
+                @Nullable Integer mapped = mapToBaseIndex.apply(i);
                 if (mapped == null)
-                    return new Pair<DataTypeValue, Integer>(maybeType.fromCollapsed((a, b) -> typeManager.maybeMissing()), 0);
+                    return new Pair<DataTypeValue, Integer>(missing, 0);
                 else
-                    return new Pair<DataTypeValue, Integer>(maybeType.fromCollapsed((j, b) -> typeManager.maybePresent(this.getCollapsed(j))), mapped);
+                    return new Pair<DataTypeValue, Integer>(present, mapped);
             });
+            wrapped.viewOf = this;
+            return wrapped;
         }
         catch (TaggedInstantiationException | UnknownTypeException e)
         {
@@ -517,7 +691,7 @@ public final class DataTypeValue
      */
     public DataTypeValue withSet(OverrideSet set) throws InternalException
     {
-        return applyGet(new DataTypeVisitorGetEx<DataTypeValue, InternalException>()
+        DataTypeValue withSet = applyGet(new DataTypeVisitorGetEx<DataTypeValue, InternalException>()
         {
             private <T extends @NonNull @Value Object> GetValue<T> overrideSet(GetValue<@NonNull @Value T> g)
             {
@@ -580,5 +754,10 @@ public final class DataTypeValue
                 return DataTypeValue.array(inner, overrideSet(g));
             }
         });
+        // Only the set has changed, so still a reorder of the same base:
+        withSet.reorderBase = reorderBase;
+        withSet.reorderMap = reorderMap;
+        withSet.viewOf = this;
+        return withSet;
     }
 }
@@ -61,4 +61,17 @@ public class ListExDTV extends ListEx
     {
         return columnType.getCollapsed(index);
     }
+
+    @Override
+    public boolean getLongs(int fromIncl, int toExcl, long[] dest) throws InternalException, UserException
+    {
+        return columnType.getLongs(fromIncl, toExcl, dest);
+    }
+
+    @Override
+    @OnThread(Tag.Any)
+    public Object getColumnIdentity()
+    {
+        return columnType;
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT 
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or 
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for 
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along 
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.data.datatype;
+
+import annotation.qual.Value;
+import com.google.common.collect.MapMaker;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.datatype.DataTypeUtility.ComparableValue;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.utility.Utility.ListEx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A hash index from value to the positions at which that value
+ * occurs in a list.  Equality is the same as Utility.compareValues.
+ * 
+ * Indexes of column-backed lists are cached, and shared between
+ * all lists that view the same column, until that column's data is edited.
+ */
+@OnThread(Tag.Simulation)
+public final class ListIndex
+{
+    private static final int[] NO_POSITIONS = new int[0];
+    
+    // Note that weakKeys makes an identity hash map, which is what we want for column identities:
+    private static final Map<Object, ListIndex> columnIndexes = new MapMaker().weakKeys().makeMap();
+    
+    private final long editVersion;
+    private final int size;
+    // Positions are in ascending order.  Null if the list could not
+    // be indexed because it contains an error:
+    private final @Nullable HashMap<ComparableValue, int[]> positions;
+
+    // Records that the list cannot be indexed:
+    private ListIndex(long editVersion, int size)
+    {
+        this.editVersion = editVersion;
+        this.size = size;
+        this.positions = null;
+    }
+
+    private ListIndex(ListEx list, long editVersion) throws InternalException, UserException
+    {
+        this.editVersion = editVersion;
+        this.size = list.size();
+        HashMap<ComparableValue, GrowableIntArray> building = new HashMap<>();
+        for (int i = 0; i < size; i++)
+        {
+            building.computeIfAbsent(new ComparableValue(list.get(i)), k -> new GrowableIntArray()).add(i);
+        }
+        HashMap<ComparableValue, int[]> positions = new HashMap<>(building.size() * 4 / 3 + 1);
+        building.forEach((k, v) -> positions.put(k, v.toArray()));
+        this.positions = positions;
+    }
+    
+    private static class GrowableIntArray
+    {
+        private int[] items = new int[1];
+        private int count = 0;
+        
+        public void add(int item)
+        {
+            if (count == items.length)
+                items = Arrays.copyOf(items, items.length * 2);
+            items[count++] = item;
+        }
+        
+        public int[] toArray()
+        {
+            return count == items.length ? items : Arrays.copyOf(items, count);
+        }
+    }
+
+    /**
+     * Gets the index for a list if it is column-backed (or constant), building it if necessary.
+     * Returns null if the list is not column-backed, in which case it's
+     * likely cheaper to just scan the list than build an index to use once.
+     * Also returns null if the list contains an error, in which case the caller
+     * should scan the list, to find out whether the item is found before the error.
+     */
+    public static @Nullable ListIndex getColumnIndex(ListEx list) throws InternalException, UserException
+    {
+        @Nullable Object columnIdentity = list.getColumnIdentity();
+        if (columnIdentity == null)
+            return null;
+        // Constant lists are never edited:
+        long editVersion = columnIdentity instanceof DataTypeValue ? ((DataTypeValue) columnIdentity).getEditVersion() : 0;
+        ListIndex index = columnIndexes.get(columnIdentity);
+        if (index == null || index.editVersion != editVersion || index.size != list.size())
+        {
+            try
+            {
+                index = new ListIndex(list, editVersion);
+            }
+            catch (UserException e)
+            {
+                // Remember that we can't index it, so that we don't keep trying:
+                index = new ListIndex(editVersion, list.size());
+            }
+            columnIndexes.put(columnIdentity, index);
+        }
+        return index.positions == null ? null : index;
+    }
+
+    /**
+     * Makes an index for the given list, which will not be cached.
+     */
+    public static ListIndex makeIndex(ListEx list) throws InternalException, UserException
+    {
+        return new ListIndex(list, 0);
+    }
+
+    /**
+     * Gets the positions of the given value in the list, in ascending order.
+     * The returned array must not be modified.
+     */
+    public int[] getPositions(@Value Object value)
+    {
+        if (positions == null)
+            return NO_POSITIONS;
+        int[] found = positions.get(new ComparableValue(value));
+        return found == null ? NO_POSITIONS : found;
+    }
+    
+    public boolean contains(@Value Object value)
+    {
+        return positions != null && positions.containsKey(new ComparableValue(value));
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Columnal: Safer, smoother data table processing.
+ * Copyright (c) Neil Brown, 2016-2020, 2022.
+ *
+ * This file is part of Columnal.
+ *
+ * Columnal is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * Columnal is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with Columnal. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.columnal.data.datatype;
+
+import annotation.identifier.qual.ExpressionIdentifier;
+import annotation.qual.Value;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import threadchecker.OnThread;
+import threadchecker.Tag;
+import xyz.columnal.data.datatype.DataType.DataTypeVisitorEx;
+import xyz.columnal.data.datatype.DataType.DateTimeInfo;
+import xyz.columnal.data.datatype.DataType.TagType;
+import xyz.columnal.data.unit.Unit;
+import xyz.columnal.error.InternalException;
+import xyz.columnal.error.UserException;
+import xyz.columnal.utility.TaggedValue;
+import xyz.columnal.utility.Utility;
+import xyz.columnal.utility.Utility.ListEx;
+import xyz.columnal.utility.Utility.Record;
+import xyz.columnal.utility.adt.Either;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+/**
+ * Order-preserving encodings of values, so that values can be sorted
+ * and grouped without comparing them with Utility.compareValues.
+ *
+ * An Encoder is made for a type and a sort direction, and encodes values of that
+ * type into a byte array key.  Comparing two keys as unsigned bytes gives the same result
+ * as Utility.compareValues on the values, and keys are equal exactly when the values are.
+ * Some types (integers, booleans, dates without zones, tags without inner values)
+ * can also be encoded as a single long, which is cheaper still to compare.
+ */
+@OnThread(Tag.Simulation)
+public final class SortKeys
+{
+    private static final long NANOS_PER_DAY = 24L * 60 * 60 * 1_000_000_000L;
+
+    private SortKeys()
+    {
+    }
+
+    // Writes a value of a particular type into a key:
+    private static interface ValueWriter
+    {
+        public void write(KeyBuilder key, @Value Object value) throws InternalException, UserException;
+    }
+
+    // Encodes a value of a particular type as a long into dest[index].  Returns false if it can't.
+    private static interface LongEncoder
+    {
+        public boolean encode(@Value Object value, long[] dest, int index) throws InternalException, UserException;
+    }
+
+    /**
+     * Makes an encoder for values of the given type, sorted in the given direction.
+     */
+    public static Encoder encoder(DataType type, boolean descending) throws InternalException
+    {
+        return new Encoder(type, descending);
+    }
+
+    public static final class Encoder
+    {
+        private final boolean descending;
+        private final boolean isNumber;
+        private final ValueWriter writer;
+        // Null if values of this type can't be encoded as a long:
+        private final @Nullable LongEncoder longEncoder;
+
+        private Encoder(DataType type, boolean descending) throws InternalException
+        {
+            this.descending = descending;
+            this.isNumber = DataTypeUtility.isNumber(type);
+            this.writer = makeWriter(type);
+            this.longEncoder = makeLongEncoder(type);
+        }
+
+        /**
+         * Encodes the values of rows [0, length) as longs, which compare (as signed longs)
+         * the same way as the values, in our direction.  Returns null if that's not possible,
+         * either because of the type, or because one of the values is an error or is too large.
+         */
+        public long @Nullable [] encodeLongs(DataTypeValue values, int length) throws InternalException, UserException
+        {
+            if (longEncoder == null)
+                return null;
+            long[] keys = new long[length];
+            // Integer number columns can give us the longs directly:
+            if (!(isNumber && values.getLongs(0, length, keys)))
+            {
+                for (int i = 0; i < length; i++)
+                {
+                    @Value Object value;
+                    try
+                    {
+                        value = values.getCollapsed(i);
+                    }
+                    catch (UserException e)
+                    {
+                        // Errors are handled by the byte encoding:
+                        return null;
+                    }
+                    if (!longEncoder.encode(value, keys, i))
+                        return null;
+                }
+            }
+            if (descending)
+            {
+                // Unlike negation, this can't overflow:
+                for (int i = 0; i < length; i++)
+                {
+                    keys[i] = ~keys[i];
+                }
+            }
+            return keys;
+        }
+
+        /**
+         * Encodes a single value as a byte array key.
+         */
+        public byte[] encode(@Value Object value) throws InternalException, UserException
+        {
+            KeyBuilder key = new KeyBuilder();
+            key.add(this, value);
+            return key.build();
+        }
+    }
+
+    /**
+     * Builds a key from several values (and errors) in turn, e.g. for sorting by several columns.
+     * Each value's encoding is self-delimiting, so two keys are only compared on their
+     * later values if all the earlier values are equal.
+     */
+    public static final class KeyBuilder
+    {
+        private byte[] bytes = new byte[64];
+        private int length = 0;
+
+        // Errors come before all values (whatever the direction), ordered by their message:
+        public void addError(String message)
+        {
+            writeByte(0);
+            writeString(message);
+        }
+
+        public void add(Encoder encoder, @Value Object value) throws InternalException, UserException
+        {
+            writeByte(1);
+            int start = length;
+            encoder.writer.write(this, value);
+            // Inverting the bytes reverses the order, as the encoding is self-delimiting:
+            if (encoder.descending)
+                invertFrom(start);
+        }
+
+        public byte[] build()
+        {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        // A number is written as a sign, and then for non-zero numbers, the exponent
+        // and digits of 0.ddd * 10^exponent, which compare in order for positive numbers.
+        // Negative numbers have their exponent and digits inverted.
+        private void writeNumber(@Value Number number)
+        {
+            if (number instanceof BigDecimal)
+            {
+                BigDecimal bd = (BigDecimal) number;
+                int signum = bd.signum();
+                writeByte(signum + 1);
+                if (signum == 0)
+                    return;
+                BigDecimal stripped = bd.abs().stripTrailingZeros();
+                writeMagnitude((long) stripped.precision() - stripped.scale(), stripped.unscaledValue().toString(), signum < 0);
+            }
+            else
+            {
+                long l = number.longValue();
+                writeByte(Long.signum(l) + 1);
+                if (l == 0)
+                    return;
+                // Unsigned, so that the negation of Long.MIN_VALUE is right:
+                String digits = Long.toUnsignedString(l < 0 ? -l : l);
+                int exponent = digits.length();
+                int end = exponent;
+                while (digits.charAt(end - 1) == '0')
+                    end -= 1;
+                writeMagnitude(exponent, digits.substring(0, end), l < 0);
+            }
+        }
+
+        // The digits must not have trailing zeroes:
+        private void writeMagnitude(long exponent, String digits, boolean negative)
+        {
+            int start = length;
+            writeLong(exponent);
+            for (int i = 0; i < digits.length(); i++)
+            {
+                writeByte(digits.charAt(i));
+            }
+            // Terminator, so a prefix comes first (e.g. 0.12 before 0.123):
+            writeByte(0);
+            if (negative)
+                invertFrom(start);
+        }
+
+        // Strings compare by UTF-16 char, so we write each char as one byte if it's ASCII
+        // (shifted up by one to leave zero free as the terminator) or three bytes otherwise:
+        private void writeString(String s)
+        {
+            for (int i = 0; i < s.length(); i++)
+            {
+                char c = s.charAt(i);
+                if (c < 0x7F)
+                    writeByte(c + 1);
+                else
+                {
+                    writeByte(0x80);
+                    writeByte(c >> 8);
+                    writeByte(c);
+                }
+            }
+            writeByte(0);
+        }
+
+        // Big-endian with the sign bit flipped, so that it compares in order as unsigned bytes:
+        private void writeLong(long l)
+        {
+            long flipped = l ^ Long.MIN_VALUE;
+            for (int shift = 56; shift >= 0; shift -= 8)
+            {
+                writeByte((int)(flipped >>> shift));
+            }
+        }
+
+        private void writeByte(int b)
+        {
+            if (length == bytes.length)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            bytes[length++] = (byte)b;
+        }
+
+        private void invertFrom(int start)
+        {
+            for (int i = start; i < length; i++)
+            {
+                bytes[i] = (byte)~bytes[i];
+            }
+        }
+    }
+
+    /**
+     * A byte array key with equality and hash code by content, and
+     * ordering as unsigned bytes, for use as a hash or tree map key.
+     */
+    public static final class BytesKey implements Comparable<BytesKey>
+    {
+        private final byte[] key;
+
+        public BytesKey(byte[] key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(BytesKey o)
+        {
+            return Arrays.compareUnsigned(key, o.key);
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o)
+        {
+            return o instanceof BytesKey && Arrays.equals(key, ((BytesKey) o).key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(key);
+        }
+    }
+
+    private static ValueWriter makeWriter(DataType type) throws InternalException
+    {
+        return type.apply(new DataTypeVisitorEx<ValueWriter, InternalException>()
+        {
+            @Override
+            public ValueWriter number(NumberInfo numberInfo) throws InternalException
+            {
+                return (key, value) -> key.writeNumber(Utility.valueNumber(value));
+            }
+
+            @Override
+            public ValueWriter text() throws InternalException
+            {
+                return (key, value) -> key.writeString(Utility.valueString(value));
+            }
+
+            @Override
+            public ValueWriter date(DateTimeInfo dateTimeInfo) throws InternalException
+            {
+                switch (dateTimeInfo.getType())
+                {
+                    case YEARMONTHDAY:
+                        return (key, value) -> key.writeLong(Utility.cast(value, LocalDate.class).toEpochDay());
+                    case YEARMONTH:
+                        return (key, value) -> key.writeLong(yearMonthIndex(Utility.cast(value, YearMonth.class)));
+                    case TIMEOFDAY:
+                        return (key, value) -> key.writeLong(Utility.cast(value, LocalTime.class).toNanoOfDay());
+                    case DATETIME:
+                        return (key, value) -> {
+                            LocalDateTime dateTime = Utility.cast(value, LocalDateTime.class);
+                            key.writeLong(dateTime.toLocalDate().toEpochDay());
+                            key.writeLong(dateTime.toLocalTime().toNanoOfDay());
+                        };
+                    case DATETIMEZONED:
+                        return (key, value) -> {
+                            // Same order as ZonedDateTime.compareTo: instant, then local time, then zone:
+                            ZonedDateTime zoned = Utility.cast(value, ZonedDateTime.class);
+                            key.writeLong(zoned.toEpochSecond());
+                            key.writeLong(zoned.getNano());
+                            key.writeLong(zoned.toLocalDate().toEpochDay());
+                            key.writeLong(zoned.toLocalTime().toNanoOfDay());
+                            key.writeString(zoned.getZone().getId());
+                        };
+                }
+                throw new InternalException("Unknown date type: " + dateTimeInfo.getType());
+            }
+
+            @Override
+            public ValueWriter bool() throws InternalException
+            {
+                return (key, value) -> key.writeByte(Utility.valueBoolean(value) ? 1 : 0);
+            }
+
+            @Override
+            public ValueWriter tagged(TypeId typeName, ImmutableList<Either<Unit, DataType>> typeVars, ImmutableList<TagType<DataType>> tags) throws InternalException
+            {
+                @Nullable ValueWriter[] innerWriters = new @Nullable ValueWriter[tags.size()];
+                for (int i = 0; i < tags.size(); i++)
+                {
+                    @Nullable DataType inner = tags.get(i).getInner();
+                    innerWriters[i] = inner == null ? null : makeWriter(inner);
+                }
+                return (key, value) -> {
+                    TaggedValue tagged = Utility.valueTagged(value);
+                    key.writeLong(tagged.getTagIndex());
+                    @Nullable @Value Object inner = tagged.getInner();
+                    @Nullable ValueWriter innerWriter = innerWriters[tagged.getTagIndex()];
+                    if (inner != null && innerWriter != null)
+                        innerWriter.write(key, inner);
+                };
+            }
+
+            @Override
+            @SuppressWarnings("identifier")
+            public ValueWriter record(ImmutableMap<@ExpressionIdentifier String, DataType> fields) throws InternalException
+            {
+                // Fields are compared in order of name:
+                @ExpressionIdentifier String[] names = fields.keySet().stream().sorted().toArray(String[]::new);
+                ValueWriter[] fieldWriters = new ValueWriter[names.length];
+                for (int i = 0; i < names.length; i++)
+                {
+                    DataType fieldType = fields.get(names[i]);
+                    if (fieldType == null)
+                        throw new InternalException("Missing record field type: " + names[i]);
+                    fieldWriters[i] = makeWriter(fieldType);
+                }
+                return (key, value) -> {
+                    Record record = Utility.valueRecord(value);
+                    for (int i = 0; i < names.length; i++)
+                    {
+                        fieldWriters[i].write(key, record.getField(names[i]));
+                    }
+                };
+            }
+
+            @Override
+            public ValueWriter array(DataType inner) throws InternalException
+            {
+                ValueWriter innerWriter = makeWriter(inner);
+                // Lexicographic, with a shorter list before any longer list which it prefixes:
+                return (key, value) -> {
+                    ListEx list = Utility.valueList(value);
+                    int size = list.size();
+                    for (int i = 0; i < size; i++)
+                    {
+                        key.writeByte(1);
+                        innerWriter.write(key, list.get(i));
+                    }
+                    key.writeByte(0);
+                };
+            }
+        });
+    }
+
+    private static @Nullable LongEncoder makeLongEncoder(DataType type) throws InternalException
+    {
+        return type.apply(new DataTypeVisitorEx<@Nullable LongEncoder, InternalException>()
+        {
+            @Override
+            public @Nullable LongEncoder number(NumberInfo numberInfo) throws InternalException
+            {
+                return (value, dest, index) -> {
+                    @Value Number n = Utility.valueNumber(value);
+                    if (!(n instanceof BigDecimal))
+                    {
+                        dest[index] = n.longValue();
+                        return true;
+                    }
+                    BigDecimal bd = ((BigDecimal) n).stripTrailingZeros();
+                    if (bd.scale() > 0 || bd.precision() - bd.scale() > 18)
+                        return false;
+                    dest[index] = bd.longValueExact();
+                    return true;
+                };
+            }
+
+            @Override
+            public @Nullable LongEncoder text() throws InternalException
+            {
+                return null;
+            }
+
+            @Override
+            public @Nullable LongEncoder date(DateTimeInfo dateTimeInfo) throws InternalException
+            {
+                switch (dateTimeInfo.getType())
+                {
+                    case YEARMONTHDAY:
+                        return (value, dest, index) -> {
+                            dest[index] = Utility.cast(value, LocalDate.class).toEpochDay();
+                            return true;
+                        };
+                    case YEARMONTH:
+                        return (value, dest, index) -> {
+                            dest[index] = yearMonthIndex(Utility.cast(value, YearMonth.class));
+                            return true;
+                        };
+                    case TIMEOFDAY:
+                        return (value, dest, index) -> {
+                            dest[index] = Utility.cast(value, LocalTime.class).toNanoOfDay();
+                            return true;
+                        };
+                    case DATETIME:
+                        return (value, dest, index) -> {
+                            LocalDateTime dateTime = Utility.cast(value, LocalDateTime.class);
+                            long epochDay = dateTime.toLocalDate().toEpochDay();
+                            // Nanoseconds since the epoch only fit in a long for a few hundred years either side:
+                            if (Math.abs(epochDay) >= Long.MAX_VALUE / NANOS_PER_DAY - 1)
+                                return false;
+                            dest[index] = epochDay * NANOS_PER_DAY + dateTime.toLocalTime().toNanoOfDay();
+                            return true;
+                        };
+                    default:
+                        // Zoned date-times also compare by zone, so need the byte encoding:
+                        return null;
+                }
+            }
+
+            @Override
+            public @Nullable LongEncoder bool() throws InternalException
+            {
+                return (value, dest, index) -> {
+                    dest[index] = Utility.valueBoolean(value) ? 1 : 0;
+                    return true;
+                };
+            }
+
+            @Override
+            public @Nullable LongEncoder tagged(TypeId typeName, ImmutableList<Either<Unit, DataType>> typeVars, ImmutableList<TagType<DataType>> tags) throws InternalException
+            {
+                // Only if the tag is all there is to compare:
+                if (tags.stream().anyMatch(t -> t.getInner() != null))
+                    return null;
+                return (value, dest, index) -> {
+                    dest[index] = Utility.valueTagged(value).getTagIndex();
+                    return true;
+                };
+            }
+
+            @Override
+            public @Nullable LongEncoder record(ImmutableMap<@ExpressionIdentifier String, DataType> fields) throws InternalException
+            {
+                return null;
+            }
+
+            @Override
+            public @Nullable LongEncoder array(DataType inner) throws InternalException
+            {
+                return null;
+            }
+        });
+    }
+
+    private static long yearMonthIndex(YearMonth yearMonth)
+    {
+        return yearMonth.getYear() * 12L + yearMonth.getMonthValue() - 1;
+    }
+}
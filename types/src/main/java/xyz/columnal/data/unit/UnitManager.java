@@ -54,6 +54,8 @@ import xyz.columnal.utility.Utility;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -80,6 +82,17 @@ public final class UnitManager
     @OnThread(value = Tag.Any, requireSynchronized = true)
     private final Map<@UnitIdentifier String, Either<@UnitIdentifier String, UnitDeclaration>> knownUnits = new HashMap<>();
     
+    // Caches of the results of canonicalise, and of conversion factors between
+    // pairs of units (from, to).  Both are cleared whenever the user units change.
+    @OnThread(value = Tag.Any, requireSynchronized = true)
+    private final HashMap<Unit, Pair<Rational, Unit>> canonicalCache = new HashMap<>();
+    @OnThread(value = Tag.Any, requireSynchronized = true)
+    private final HashMap<Pair<Unit, Unit>, BigDecimal> conversionCache = new HashMap<>();
+    // Incremented each time the caches are cleared.  Results are calculated outside the lock,
+    // so we only cache a result if the caches weren't cleared while we were calculating it:
+    @OnThread(value = Tag.Any, requireSynchronized = true)
+    private long cacheGeneration = 0;
+    
     public UnitManager() throws InternalException, UserException
     {
         this("builtin_units.txt");
@@ -304,7 +317,62 @@ public final class UnitManager
      */
     public Pair<Rational, Unit> canonicalise(Unit original) throws UserException
     {
-        return canonicalise(new Pair<>(Rational.ONE, original));
+        long generation;
+        synchronized (this)
+        {
+            @Nullable Pair<Rational, Unit> cached = canonicalCache.get(original);
+            if (cached != null)
+                return cached;
+            generation = cacheGeneration;
+        }
+        // If this throws, we don't cache it; errors should be rare:
+        Pair<Rational, Unit> canonical = canonicalise(new Pair<>(Rational.ONE, original));
+        synchronized (this)
+        {
+            if (generation == cacheGeneration)
+                canonicalCache.put(original, canonical);
+        }
+        return canonical;
+    }
+
+    /**
+     * Gets the number you have to multiply an amount in unit "from" by to get
+     * the amount in unit "to", to DECIMAL128 precision.
+     * Throws a UserException if the units do not have the same canonical unit.
+     */
+    public BigDecimal getConversionFactor(Unit from, Unit to) throws UserException
+    {
+        Pair<Unit, Unit> key = new Pair<>(from, to);
+        long generation;
+        synchronized (this)
+        {
+            @Nullable BigDecimal cached = conversionCache.get(key);
+            if (cached != null)
+                return cached;
+            generation = cacheGeneration;
+        }
+        Pair<Rational, Unit> fromToCanon = canonicalise(from);
+        Pair<Rational, Unit> toToCanon = canonicalise(to);
+
+        if (!toToCanon.getSecond().equals(fromToCanon.getSecond()))
+        {
+            throw new UserException("No mapping from " + from + " to " + to + " because " + from + " reduces to " + fromToCanon.getSecond() + " whereas " + to + " reduces to " + toToCanon.getSecond());
+        }
+        Rational factor = fromToCanon.getFirst().times(toToCanon.getFirst().reciprocal());
+        BigDecimal decimalFactor = new BigDecimal(factor.getNum()).divide(new BigDecimal(factor.getDen()), MathContext.DECIMAL128);
+        synchronized (this)
+        {
+            if (generation == cacheGeneration)
+                conversionCache.put(key, decimalFactor);
+        }
+        return decimalFactor;
+    }
+    
+    private synchronized void clearCaches()
+    {
+        canonicalCache.clear();
+        conversionCache.clear();
+        cacheGeneration += 1;
     }
 
     private Pair<Rational, Unit> canonicalise(Pair<Rational, Unit> original) throws UserException
@@ -359,7 +427,7 @@ public final class UnitManager
                 this.userUnits.putIfAbsent(newName, Either.left(origName));
             }
         }
-
+        clearCaches();
     }
 
     public ImmutableMap<@UnitIdentifier String, Either<@UnitIdentifier String, UnitDeclaration>> getAllBuiltIn()
@@ -408,12 +476,14 @@ public final class UnitManager
         {
             knownUnits.remove(name);
         }
+        clearCaches();
     }
     
     public synchronized void addUserUnit(Pair<@UnitIdentifier String, Either<@UnitIdentifier String, UnitDeclaration>> unit)
     {
         userUnits.putIfAbsent(unit.getFirst(), unit.getSecond());
         knownUnits.putIfAbsent(unit.getFirst(), unit.getSecond());
+        clearCaches();
     }
 
     public List<String> save()
@@ -492,5 +562,6 @@ public final class UnitManager
         userUnits.clear();
         knownUnits.clear();
         knownUnits.putAll(builtInUnits);
+        clearCaches();
     }
 }
@@ -52,6 +52,7 @@ import org.apache.commons.io.FileUtils;
 import org.checkerframework.checker.i18n.qual.Localized;
 import org.checkerframework.checker.initialization.qual.Initialized;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.PolyNull;
@@ -94,6 +95,7 @@ import java.nio.charset.StandardCharsets;
 import java.time.temporal.TemporalAccessor;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -108,6 +110,7 @@ import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -398,6 +401,19 @@ public class Utility
                 return compareValues(a2, b2, epsilon);
             return 0; // Assume bx null too, if types match.
         }
+        else if (ax instanceof RecordMap && bx instanceof RecordMap && ((RecordMap) ax).shape == ((RecordMap) bx).shape)
+        {
+            // Same shape, so can just compare slots, which are in name order:
+            @Value Object[] aValues = ((RecordMap) ax).values;
+            @Value Object[] bValues = ((RecordMap) bx).values;
+            for (int i = 0; i < aValues.length; i++)
+            {
+                cmp = compareValues(aValues[i], bValues[i], epsilon);
+                if (cmp != 0)
+                    return cmp;
+            }
+            return 0;
+        }
         else if (ax instanceof Record)
         {
             @Value Record ao = cast(ax, Record.class);
@@ -424,6 +440,68 @@ public class Utility
         return cmp;
     }
 
+    /**
+     * A hash code for a value which is consistent with compareValues (without epsilon),
+     * i.e. if compareValues(a, b) == 0 then hashValue(a) == hashValue(b).  In particular,
+     * numbers which are equal but stored in different types (e.g. Integer 1 and BigDecimal 1.0)
+     * have the same hash.
+     */
+    @OnThread(Tag.Simulation)
+    public static int hashValue(@Value Object value) throws InternalException, UserException
+    {
+        if (value instanceof BigDecimal)
+        {
+            BigDecimal bd = ((BigDecimal) value).stripTrailingZeros();
+            // Must hash the same as the equivalent long, if there is one:
+            if (bd.scale() <= 0 && bd.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) >= 0 && bd.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0)
+                return Long.hashCode(bd.longValue());
+            return bd.hashCode();
+        }
+        else if (value instanceof Number)
+            return Long.hashCode(((Number) value).longValue());
+        else if (value instanceof ListEx)
+        {
+            ListEx list = (ListEx) value;
+            int size = list.size();
+            int result = size;
+            for (int i = 0; i < size; i++)
+            {
+                result = 31 * result + hashValue(list.get(i));
+            }
+            return result;
+        }
+        else if (value instanceof TaggedValue)
+        {
+            TaggedValue taggedValue = (TaggedValue) value;
+            @Value Object inner = taggedValue.getInner();
+            return 31 * taggedValue.getTagIndex() + (inner == null ? 0 : hashValue(inner));
+        }
+        else if (value instanceof RecordMap)
+        {
+            // Same as below, but without making the map:
+            RecordMap record = (RecordMap) value;
+            int result = 0;
+            for (int i = 0; i < record.values.length; i++)
+            {
+                result += record.shape.fieldNames.get(i).hashCode() ^ hashValue(record.values[i]);
+            }
+            return result;
+        }
+        else if (value instanceof Record)
+        {
+            // Must not depend on field order:
+            int result = 0;
+            for (Entry<@ExpressionIdentifier String, @Value Object> field : ((Record) value).getFullContent().entrySet())
+            {
+                result += field.getKey().hashCode() ^ hashValue(field.getValue());
+            }
+            return result;
+        }
+        else
+            // Strings, booleans and temporals all have compareTo consistent with equals:
+            return value.hashCode();
+    }
+
     /**
      * Gets the fractional part as a String, excluding the dot
      *
@@ -1881,13 +1959,82 @@ public class Utility
         public abstract ImmutableMap<@ExpressionIdentifier String, @Value Object> getFullContent() throws InternalException;
     }
     
+    /**
+     * The set of field names of a record, in sorted order, each of which
+     * is given a slot index.  Shapes are interned, so all records with the same
+     * field names share the same shape object, and shapes can be compared with ==.
+     */
+    public static final class RecordShape
+    {
+        private static final ConcurrentHashMap<ImmutableList<@ExpressionIdentifier String>, RecordShape> shapes = new ConcurrentHashMap<>();
+        
+        private final ImmutableList<@ExpressionIdentifier String> fieldNames;
+        private final ImmutableMap<@ExpressionIdentifier String, Integer> slots;
+
+        private RecordShape(ImmutableList<@ExpressionIdentifier String> fieldNames)
+        {
+            this.fieldNames = fieldNames;
+            ImmutableMap.Builder<@ExpressionIdentifier String, Integer> slots = ImmutableMap.builderWithExpectedSize(fieldNames.size());
+            for (int i = 0; i < fieldNames.size(); i++)
+            {
+                slots.put(fieldNames.get(i), i);
+            }
+            this.slots = slots.build();
+        }
+        
+        public static RecordShape of(Collection<@ExpressionIdentifier String> fieldNames)
+        {
+            ImmutableList<@ExpressionIdentifier String> sorted = fieldNames.stream().distinct().sorted().collect(ImmutableList.<@ExpressionIdentifier String>toImmutableList());
+            return shapes.computeIfAbsent(sorted, RecordShape::new);
+        }
+
+        // Returns -1 if the field is not present
+        public int getSlot(@ExpressionIdentifier String fieldName)
+        {
+            Integer slot = slots.get(fieldName);
+            return slot == null ? -1 : slot;
+        }
+
+        // In slot order, which is sorted by name:
+        public ImmutableList<@ExpressionIdentifier String> getFieldNames()
+        {
+            return fieldNames;
+        }
+        
+        public int size()
+        {
+            return fieldNames.size();
+        }
+    }
+    
+    /**
+     * A record with a fixed shape, storing the values in an array in slot order.
+     * The map of the full content is only made if asked for.
+     */
     public static final class RecordMap extends Record
     {
-        private final ImmutableMap<@ExpressionIdentifier String, @Value Object> values;
+        private final RecordShape shape;
+        private final @Value Object[] values;
+        private @MonotonicNonNull ImmutableMap<@ExpressionIdentifier String, @Value Object> fullContent;
 
         public RecordMap(Map<@ExpressionIdentifier String, @Value Object> values)
         {
-            this.values = ImmutableMap.copyOf(values);
+            this.shape = RecordShape.of(values.keySet());
+            this.values = new @Value Object[shape.size()];
+            for (int i = 0; i < this.values.length; i++)
+            {
+                this.values[i] = Objects.requireNonNull(values.get(shape.fieldNames.get(i)));
+            }
+        }
+
+        /**
+         * Makes a record with the given shape.  The values must be in slot order
+         * and the array will not be copied, so must not be modified afterwards.
+         */
+        public RecordMap(RecordShape shape, @Value Object[] values)
+        {
+            this.shape = shape;
+            this.values = values;
         }
         
         @SuppressWarnings("valuetype")
@@ -1895,20 +2042,39 @@ public class Utility
         {
             return new RecordMap(values);
         }
+        
+        public RecordShape getShape()
+        {
+            return shape;
+        }
+        
+        public @Value Object getSlotValue(int slot)
+        {
+            return values[slot];
+        }
 
         @Override
         public @Value Object getField(@ExpressionIdentifier String name) throws InternalException
         {
-            @Value Object value = values.get(name);
-            if (value == null)
+            int slot = shape.getSlot(name);
+            if (slot < 0)
                 throw new InternalException("Record unexpectedly lacking field: \"" + name + "\"");
-            return value;
+            return values[slot];
         }
 
         @Override
         public ImmutableMap<@ExpressionIdentifier String, @Value Object> getFullContent() throws InternalException
         {
-            return values;
+            if (fullContent == null)
+            {
+                ImmutableMap.Builder<@ExpressionIdentifier String, @Value Object> builder = ImmutableMap.builderWithExpectedSize(values.length);
+                for (int i = 0; i < values.length; i++)
+                {
+                    builder.put(shape.fieldNames.get(i), values[i]);
+                }
+                fullContent = builder.build();
+            }
+            return fullContent;
         }
 
         // Useful for debugging
@@ -1916,7 +2082,8 @@ public class Utility
         public String toString()
         {
             return "RecordMap{" +
-                    "values=" + values +
+                    "fields=" + shape.fieldNames +
+                    ", values=" + Arrays.toString(values) +
                     '}';
         }
     }
@@ -1935,6 +2102,40 @@ public class Utility
         public abstract int size() throws InternalException, UserException;
         public abstract @Value Object get(int index) throws InternalException, UserException;
 
+        /**
+         * Whether the items are already in memory, or are made from values which are
+         * (e.g. the pieces of a split text), so that copying all the items is cheap
+         * and does not need to fetch or calculate any column data.
+         */
+        public boolean isInMemory()
+        {
+            return false;
+        }
+
+        /**
+         * Copies the items at [fromIncl, toExcl) into dest (starting at dest[0]) as
+         * primitive longs, if this list is able to do so without boxing.  Returns false
+         * if that is not possible (e.g. not all items are integers, or this list does
+         * not support it), in which case the caller should use get() instead.
+         */
+        public boolean getLongs(int fromIncl, int toExcl, long[] dest) throws InternalException, UserException
+        {
+            return false;
+        }
+
+        /**
+         * If this list is a view of an entire column, returns an object which identifies
+         * that column, and which is the same for every list viewing that column.  This is
+         * used as a key by caches of information derived from the column content.
+         * Lists with constant content may return themselves.
+         * Returns null if this list is not a column view or constant.
+         */
+        @OnThread(Tag.Any)
+        public @Nullable Object getColumnIdentity()
+        {
+            return null;
+        }
+
         // For comparison during testing
         @Override
         public int hashCode()
@@ -2011,6 +2212,12 @@ public class Utility
                     return 0;
                 }
 
+                @Override
+                public boolean isInMemory()
+                {
+                    return true;
+                }
+
                 @Override
                 public @Value Object get(int index) throws InternalException, UserException
                 {
@@ -2047,6 +2254,12 @@ public class Utility
         {
             return items.get(index);
         }
+
+        @Override
+        public boolean isInMemory()
+        {
+            return true;
+        }
     }
 
     public static File getAutoSaveDirectory() throws IOException